@@ -0,0 +1,78 @@
+package com.poeticcoder.ai.chat;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 两种 Chat 客户端解析非流式响应的吞吐量
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseParseBenchmark {
+
+    /** 回复内容长度（字符数） */
+    @Param({"256", "4096", "65536"})
+    public int size;
+
+    private String openAiResponse;
+    private String ollamaResponse;
+
+    @Setup
+    public void setup() {
+        StringBuilder content = new StringBuilder(size);
+        while (content.length() < size) {
+            content.append("public void submit(Order order) { repository.save(order); }\n");
+        }
+        String text = content.substring(0, size);
+
+        JsonObject message = new JsonObject();
+        message.addProperty("role", "assistant");
+        message.addProperty("content", text);
+
+        JsonObject choice = new JsonObject();
+        choice.addProperty("index", 0);
+        choice.add("message", message);
+        choice.addProperty("finish_reason", "stop");
+        JsonArray choices = new JsonArray();
+        choices.add(choice);
+        JsonObject openAi = new JsonObject();
+        openAi.addProperty("id", "chatcmpl-1");
+        openAi.addProperty("model", "deepseek-coder");
+        openAi.add("choices", choices);
+        openAiResponse = openAi.toString();
+
+        JsonObject ollama = new JsonObject();
+        ollama.addProperty("model", "codellama");
+        ollama.add("message", message);
+        ollama.addProperty("done", true);
+        ollama.addProperty("eval_count", 512);
+        ollamaResponse = ollama.toString();
+    }
+
+    @Benchmark
+    public String openAiParseChatResponse() {
+        return OpenAICompatibleChatClient.parseChatResponse(openAiResponse);
+    }
+
+    @Benchmark
+    public String ollamaParseChatResponse() {
+        return OllamaChatClient.parseChatResponse(ollamaResponse);
+    }
+}
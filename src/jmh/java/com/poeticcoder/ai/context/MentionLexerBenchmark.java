@@ -0,0 +1,50 @@
+package com.poeticcoder.ai.context;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MentionLexer.lex 从用户输入中提取 @类/@文件 引用的吞吐量
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MentionLexerBenchmark {
+
+    /** 输入长度（字符数） */
+    @Param({"128", "2048", "16384"})
+    public int size;
+
+    private String prompt;
+
+    @Setup
+    public void setup() {
+        String sentence = "请检查 @com.example.order.OrderService#submit 和 @src/main/java/com/example/Foo.java:10-40，"
+                + "另外 com.example.pay.PayClient 调用 Bar.java 时的超时设置。";
+        StringBuilder sb = new StringBuilder(size + sentence.length());
+        while (sb.length() < size) {
+            sb.append(sentence);
+        }
+        prompt = sb.substring(0, size);
+    }
+
+    @Benchmark
+    public List<MentionLexer.Mention> lex() {
+        return MentionLexer.lex(prompt);
+    }
+}
@@ -0,0 +1,89 @@
+package com.poeticcoder.ai.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MarkdownUtil.renderCompositeHtml 在不同回复长度下的吞吐量
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MarkdownRenderBenchmark {
+
+    /** 回复长度（字符数） */
+    @Param({"1024", "10240", "102400"})
+    public int size;
+
+    private String markdown;
+    private String unclosed;
+
+    @Setup
+    public void setup() {
+        markdown = sampleReply(size);
+        unclosed = unclosedMarkup(size);
+    }
+
+    @Benchmark
+    public String renderCompositeHtml() {
+        return MarkdownUtil.renderCompositeHtml(markdown);
+    }
+
+    /**
+     * 单行内大量未闭合的 [、*、`，检查向后查找不会退化为平方复杂度
+     */
+    @Benchmark
+    public String renderUnclosedMarkup() {
+        return MarkdownUtil.renderCompositeHtml(unclosed);
+    }
+
+    /**
+     * 模拟典型的模型回复：标题、段落、列表、行内标记与代码块交替出现
+     */
+    static String sampleReply(int size) {
+        String block = "## 分析\n\n"
+                + "`OrderService#submit` 在 **事务提交前** 调用了 *远程接口*，参考 [文档](https://example.com/doc)。\n"
+                + "- 第一步：检查 `List<Order>` 是否为空\n"
+                + "- 第二步：校验 **库存**\n"
+                + "1. 拆分方法\n"
+                + "2. 引入重试\n\n"
+                + "```java\n"
+                + "public void submit(Order order) {\n"
+                + "    if (order == null) throw new IllegalArgumentException(\"order\");\n"
+                + "    repository.save(order);\n"
+                + "}\n"
+                + "```\n\n"
+                + "| 方法 | 耗时 |\n|---|---|\n| submit | 120ms |\n\n";
+        StringBuilder sb = new StringBuilder(size + block.length());
+        while (sb.length() < size) {
+            sb.append(block);
+        }
+        return sb.substring(0, size);
+    }
+
+    /**
+     * 整个输入只有一行，交替出现未闭合的链接文本、粗体、斜体与行内代码标记
+     */
+    static String unclosedMarkup(int size) {
+        String unit = "[a] [b]( ** * ` ";
+        StringBuilder sb = new StringBuilder(size + unit.length());
+        while (sb.length() < size) {
+            sb.append(unit);
+        }
+        return sb.substring(0, size);
+    }
+}
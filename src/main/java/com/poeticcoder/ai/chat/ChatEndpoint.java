@@ -0,0 +1,43 @@
+package com.poeticcoder.ai.chat;
+
+import java.util.Objects;
+
+/**
+ * 一个模型服务地址：服务类型、地址、密钥与模型
+ */
+public final class ChatEndpoint {
+    public final String type;
+    public final String baseUrl;
+    public final String apiKey;
+    public final String model;
+
+    public ChatEndpoint(String type, String baseUrl, String apiKey, String model) {
+        this.type = type;
+        this.baseUrl = baseUrl;
+        this.apiKey = apiKey == null ? "" : apiKey;
+        this.model = model;
+    }
+
+    public ChatProvider provider() {
+        return ChatProvider.forType(type);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ChatEndpoint)) return false;
+        ChatEndpoint that = (ChatEndpoint) o;
+        return type.equals(that.type) && baseUrl.equals(that.baseUrl) && apiKey.equals(that.apiKey)
+                && model.equals(that.model);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, baseUrl, apiKey, model);
+    }
+
+    @Override
+    public String toString() {
+        return baseUrl;
+    }
+}
@@ -0,0 +1,316 @@
+package com.poeticcoder.ai.chat;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.poeticcoder.ai.settings.PandaCoderAISettings;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chat 客户端共享的 HTTP 传输层
+ * 全局复用同一个 HttpClient，由其维护 keep-alive 连接池并在 https 端点上协商 HTTP/2，
+ * 避免每条消息都重新建立 TCP/TLS 连接
+ */
+public final class ChatHttpTransport {
+
+    private static volatile ChatHttpTransport instance;
+    /** 流式响应的空闲检测，各实例共用，重建传输层时无需关闭 */
+    private static final ScheduledExecutorService WATCHDOG =
+            Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("Watchdog"));
+
+    private final Config config;
+    private final ExecutorService executor;
+    private final ExecutorService streamExecutor;
+    private final HttpClient client;
+
+    /**
+     * 传输层配置
+     */
+    public static class Config {
+        /** 处理请求与响应的线程数 */
+        public int poolSize = 8;
+        /** 是否在 https 端点上使用 HTTP/2 */
+        public boolean http2 = true;
+        public Duration connectTimeout = Duration.ofSeconds(10);
+        /** 响应超时：等待响应头的时限，也是流式响应中两段数据之间的最长间隔；Ollama 首次加载模型较慢，默认更长 */
+        public Duration ollamaTimeout = Duration.ofSeconds(120);
+        public Duration openaiTimeout = Duration.ofSeconds(60);
+
+        static Config fromSettings() {
+            Config c = new Config();
+            if (ApplicationManager.getApplication() == null) return c;
+            PandaCoderAISettings s = PandaCoderAISettings.getInstance();
+            c.poolSize = s.getHttpPoolSize();
+            c.http2 = s.isHttp2Enabled();
+            c.connectTimeout = Duration.ofSeconds(s.getConnectTimeoutSeconds());
+            c.ollamaTimeout = Duration.ofSeconds(s.getOllamaTimeoutSeconds());
+            c.openaiTimeout = Duration.ofSeconds(s.getOpenaiTimeoutSeconds());
+            return c;
+        }
+    }
+
+    private ChatHttpTransport(Config config) {
+        this.config = config;
+        int poolSize = Math.max(1, config.poolSize);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new DaemonThreadFactory("Http"));
+        // 空闲线程自动回收，重建传输层后旧实例无需显式关闭
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+        // 读取响应流是阻塞操作，与 HttpClient 自身的线程分开，避免流式读取占满其线程
+        this.streamExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory("Stream"));
+        this.client = HttpClient.newBuilder()
+                .version(config.http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(config.connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(executor)
+                .build();
+    }
+
+    /**
+     * 获取共享实例，首次使用时按当前设置创建
+     */
+    public static ChatHttpTransport getInstance() {
+        ChatHttpTransport t = instance;
+        if (t == null) {
+            synchronized (ChatHttpTransport.class) {
+                t = instance;
+                if (t == null) {
+                    t = new ChatHttpTransport(Config.fromSettings());
+                    instance = t;
+                }
+            }
+        }
+        return t;
+    }
+
+    /**
+     * 设置变更后重建传输层；进行中的请求继续使用旧实例直至结束
+     */
+    public static void reset() {
+        synchronized (ChatHttpTransport.class) {
+            instance = null;
+        }
+    }
+
+    /**
+     * 获取指定服务类型的响应超时
+     * @param providerType openai/ollama
+     */
+    public Duration timeoutFor(String providerType) {
+        return "ollama".equals(providerType) ? config.ollamaTimeout : config.openaiTimeout;
+    }
+
+    /**
+     * 发送 JSON POST 请求，响应体以流的形式返回，由调用方负责关闭
+     */
+    public HttpResponse<InputStream> postJson(String endpoint, Map<String, String> headers, String body,
+                                              Duration timeout) throws IOException, InterruptedException {
+        return postJson(endpoint, headers, body, timeout, new ChatRequestHandle());
+    }
+
+    /**
+     * 发送可取消的 JSON POST 请求
+     * 收到响应头之前取消会中止连接；之后取消会关闭响应流，使阻塞中的读取立即结束
+     */
+    public HttpResponse<InputStream> postJson(String endpoint, Map<String, String> headers, String body,
+                                              Duration timeout, ChatRequestHandle handle)
+            throws IOException, InterruptedException {
+        HttpRequest request = newRequest(endpoint, headers, timeout)
+                .header("Content-Type", "application/json; charset=UTF-8")
+                .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
+                .build();
+        CompletableFuture<HttpResponse<InputStream>> future =
+                client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+        handle.onCancel(() -> future.cancel(true));
+        HttpResponse<InputStream> resp;
+        try {
+            resp = future.get();
+        } catch (CancellationException e) {
+            throw new IOException("请求已取消", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause != null ? cause.getMessage() : e.getMessage(), cause);
+        }
+        handle.onCancel(() -> closeQuietly(resp.body()));
+        return resp;
+    }
+
+    /**
+     * 为流式响应体加上空闲超时：超过 timeout 没有收到任何数据时关闭响应流，
+     * 阻塞中的读取以 {@link HttpTimeoutException} 结束。请求的 timeout 只限制等待响应头的时间，
+     * 服务端在流中途停止输出时需要靠它结束读取
+     */
+    public InputStream withIdleTimeout(InputStream body, Duration timeout) {
+        return new IdleTimeoutInputStream(body, timeout);
+    }
+
+    /**
+     * 发送 GET 请求并丢弃响应体，返回状态码；用于健康探测
+     * @param timeout 从发出请求到收到响应头的总时限，包含建立连接
+     */
+    public int get(String endpoint, Map<String, String> headers, Duration timeout)
+            throws IOException, InterruptedException {
+        HttpRequest request = newRequest(endpoint, headers, timeout).GET().build();
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    /**
+     * 在后台执行一次请求并把结果写入句柄；取消句柄会中断执行线程
+     */
+    public void execute(ChatRequestHandle handle, Callable<String> task) {
+        Future<?> future = streamExecutor.submit(() -> {
+            try {
+                handle.complete(task.call());
+            } catch (Throwable t) {
+                handle.fail(t);
+            }
+        });
+        handle.onCancel(() -> future.cancel(true));
+    }
+
+    private HttpRequest.Builder newRequest(String endpoint, Map<String, String> headers, Duration timeout) {
+        URI uri = URI.create(endpoint);
+        HttpRequest.Builder b = HttpRequest.newBuilder(uri).timeout(timeout);
+        // 明文 http 上 HTTP/2 需要 h2c 升级，本地推理服务大多不支持，直接使用 HTTP/1.1 keep-alive
+        if (!"https".equalsIgnoreCase(uri.getScheme())) {
+            b.version(HttpClient.Version.HTTP_1_1);
+        }
+        if (headers != null) {
+            headers.forEach(b::header);
+        }
+        return b;
+    }
+
+    /**
+     * 读取完整响应体（用于错误信息与非流式响应）
+     */
+    public static String readBody(InputStream in) throws IOException {
+        if (in == null) return "";
+        try (InputStream is = in) {
+            return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException ignored) {
+            // 取消时关闭流的异常无需处理
+        }
+    }
+
+    /**
+     * 每次读到数据时记下时间；检查任务到期时若仍在空闲期内则按剩余时间重新排期，避免每次读取都重设定时器
+     */
+    private static final class IdleTimeoutInputStream extends FilterInputStream {
+        private final Duration timeout;
+        private final long timeoutNanos;
+        private volatile long lastRead = System.nanoTime();
+        private volatile boolean expired;
+        private volatile boolean closed;
+        private volatile ScheduledFuture<?> check;
+
+        IdleTimeoutInputStream(InputStream in, Duration timeout) {
+            super(in);
+            this.timeout = timeout;
+            this.timeoutNanos = timeout.toNanos();
+            schedule(timeoutNanos);
+        }
+
+        private void schedule(long delayNanos) {
+            if (!closed) check = WATCHDOG.schedule(this::check, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void check() {
+            if (closed) return;
+            long idle = System.nanoTime() - lastRead;
+            if (idle < timeoutNanos) {
+                schedule(timeoutNanos - idle);
+                return;
+            }
+            expired = true;
+            closeQuietly(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return progress(in.read());
+            } catch (IOException e) {
+                throw expired ? timeoutError(e) : e;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return progress(in.read(b, off, len));
+            } catch (IOException e) {
+                throw expired ? timeoutError(e) : e;
+            }
+        }
+
+        private int progress(int n) throws IOException {
+            // 关闭后部分实现返回 -1 而不抛异常，不能当作正常结束
+            if (n < 0 && expired) throw timeoutError(null);
+            lastRead = System.nanoTime();
+            return n;
+        }
+
+        private IOException timeoutError(IOException cause) {
+            if (cause instanceof HttpTimeoutException) return cause;
+            IOException e = new HttpTimeoutException("响应超时：" + timeout.toSeconds() + " 秒内未收到数据");
+            if (cause != null) e.initCause(cause);
+            return e;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            ScheduledFuture<?> f = check;
+            if (f != null) f.cancel(false);
+            super.close();
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        DaemonThreadFactory(String name) {
+            this.prefix = "PandaCoder-AI-" + name + "-";
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
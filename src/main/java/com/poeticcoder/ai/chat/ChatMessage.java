@@ -0,0 +1,16 @@
+package com.poeticcoder.ai.chat;
+
+/**
+ * 聊天消息，各服务商共用
+ * 一经加入会话历史不再修改，组装请求时直接按引用复用
+ */
+public final class ChatMessage {
+    /** system、user 或 assistant */
+    public final String role;
+    public final String content;
+
+    public ChatMessage(String role, String content) {
+        this.role = role;
+        this.content = content;
+    }
+}
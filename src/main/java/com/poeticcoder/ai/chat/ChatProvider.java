@@ -0,0 +1,44 @@
+package com.poeticcoder.ai.chat;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 聊天服务商
+ * 屏蔽各服务的请求格式差异，调用方只面对 {@link ChatMessage} 与 {@link ChatEndpoint}；实现需线程安全
+ */
+public interface ChatProvider {
+
+    /**
+     * 服务类型，与设置中的 aiProviderType 对应
+     */
+    String type();
+
+    /**
+     * 在后台发起流式聊天请求
+     * @param onDelta 每收到一段增量内容时回调（在后台线程中执行）
+     */
+    ChatRequestHandle streamChat(ChatEndpoint endpoint, List<ChatMessage> messages, Consumer<String> onDelta);
+
+    /**
+     * 在后台发起非流式聊天请求，完整回复通过句柄返回
+     */
+    ChatRequestHandle chat(ChatEndpoint endpoint, List<ChatMessage> messages);
+
+    /**
+     * 在后台预填充：让服务端计算并缓存这些消息的 KV，只生成极少的 token；之后以它们为前缀的请求可直接复用
+     */
+    ChatRequestHandle prefill(ChatEndpoint endpoint, List<ChatMessage> messages);
+
+    /**
+     * 健康探测，只请求轻量的列表接口，服务不可用时抛出异常
+     * @param timeout 包含建立连接在内的总时限
+     */
+    void probe(ChatEndpoint endpoint, Duration timeout) throws IOException, InterruptedException;
+
+    static ChatProvider forType(String type) {
+        return OllamaChatProvider.TYPE.equals(type) ? OllamaChatProvider.INSTANCE : OpenAICompatibleChatProvider.INSTANCE;
+    }
+}
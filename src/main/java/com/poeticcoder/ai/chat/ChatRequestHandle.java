@@ -0,0 +1,91 @@
+package com.poeticcoder.ai.chat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 进行中的聊天请求句柄
+ * 通过 {@link #result()} 获取完整回复；{@link #cancel()} 会立即中止底层连接或响应流，
+ * 让服务端尽早释放推理资源
+ */
+public class ChatRequestHandle {
+
+    private final CompletableFuture<String> result = new CompletableFuture<>();
+    private final List<Runnable> cancelActions = new ArrayList<>();
+    private volatile boolean cancelled;
+    private volatile ChatUsage usage;
+
+    /**
+     * 请求结果：正常结束时为完整回复；被取消时以 {@link CancellationException} 结束
+     */
+    public CompletableFuture<String> result() {
+        return result;
+    }
+
+    /**
+     * 服务端返回的 token 用量，在 result() 完成前写入；服务端未返回时为 null
+     */
+    public ChatUsage usage() {
+        return usage;
+    }
+
+    void setUsage(ChatUsage usage) {
+        this.usage = usage;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isDone() {
+        return result.isDone();
+    }
+
+    /**
+     * 取消请求，可重复调用
+     */
+    public void cancel() {
+        List<Runnable> actions;
+        synchronized (cancelActions) {
+            if (cancelled) return;
+            cancelled = true;
+            actions = new ArrayList<>(cancelActions);
+            cancelActions.clear();
+        }
+        for (Runnable action : actions) {
+            runQuietly(action);
+        }
+        result.completeExceptionally(new CancellationException("请求已取消"));
+    }
+
+    /**
+     * 注册取消时需要执行的动作（关闭连接、中断读取等）；已取消时立即执行
+     */
+    void onCancel(Runnable action) {
+        synchronized (cancelActions) {
+            if (!cancelled) {
+                cancelActions.add(action);
+                return;
+            }
+        }
+        runQuietly(action);
+    }
+
+    void complete(String reply) {
+        result.complete(reply);
+    }
+
+    void fail(Throwable error) {
+        result.completeExceptionally(cancelled ? new CancellationException("请求已取消") : error);
+    }
+
+    private static void runQuietly(Runnable action) {
+        try {
+            action.run();
+        } catch (Exception ignored) {
+            // 取消过程中的关闭异常无需处理
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package com.poeticcoder.ai.chat;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.poeticcoder.ai.settings.PandaCoderAISettings;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+/**
+ * 应用级的聊天请求调度
+ * 所有项目窗口的请求都经过这里：每个服务地址同时进行的请求数不超过设置的上限，超出的请求在插件内排队，
+ * 而不是同时压到服务端互相拖慢。队列先在项目之间、再在同一项目的会话之间轮流出队，
+ * 一个窗口连续发送不会让其他窗口一直等待。内容完全相同且仍在排队或进行中的请求合并为一次，
+ * 回复同时分发给各个调用方。预填充只在有空闲名额且无人排队时发出，有真实请求等待名额时被中止让出位置。
+ * 调用方的回调都在释放调度锁之后进行
+ */
+public final class ChatRequestScheduler {
+
+    private static final Logger LOG = Logger.getInstance(ChatRequestScheduler.class);
+    private static final ChatRequestScheduler INSTANCE = new ChatRequestScheduler();
+
+    /**
+     * 排队状态的回调，在调度线程中调用，调用时不持有调度锁
+     */
+    public interface QueueListener {
+        /**
+         * @param position 在队列中的位置，从 1 开始；开始执行时为 0
+         * @param depth    正在排队的请求总数
+         */
+        void onQueue(int position, int depth);
+    }
+
+    private interface Starter {
+        ChatRequestHandle start(Consumer<String> onDelta);
+    }
+
+    /** 项目 -> 会话 -> 等待中的请求；按轮流顺序排列，出队后移到末尾，不保留空的队列 */
+    private final LinkedHashMap<String, LinkedHashMap<String, ArrayDeque<Job>>> queue = new LinkedHashMap<>();
+    /** 合并键 -> 排队或进行中的请求 */
+    private final Map<String, Job> active = new HashMap<>();
+    /** 进行中的预填充，按发出顺序 */
+    private final ArrayDeque<ChatRequestHandle> prefills = new ArrayDeque<>();
+    private int depth;
+
+    private ChatRequestScheduler() {
+    }
+
+    public static ChatRequestScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 一次实际发出的请求，可能由多个调用方共享
+     */
+    private static final class Job {
+        final String project;
+        final String session;
+        final String key;
+        final Starter starter;
+        final List<Subscriber> subscribers = new ArrayList<>();
+        /** 已收到的回复，后加入的调用方先补发这部分 */
+        final StringBuilder text = new StringBuilder();
+        /** 排队期间为 null */
+        ChatRequestHandle inner;
+
+        Job(String project, String session, String key, Starter starter) {
+            this.project = project;
+            this.session = session;
+            this.key = key;
+            this.starter = starter;
+        }
+
+        void deliver(String delta) {
+            List<Subscriber> subs;
+            synchronized (this) {
+                text.append(delta);
+                subs = new ArrayList<>(subscribers);
+            }
+            for (Subscriber sub : subs) {
+                sub.offer(delta);
+            }
+        }
+    }
+
+    private static final class Subscriber {
+        final ChatRequestHandle handle = new ChatRequestHandle();
+        final Consumer<String> onDelta;
+        final QueueListener listener;
+        /** 尚未交给调用方的回复；加入时先放入已收到的部分，保证补发在新增量之前 */
+        private final StringBuilder pending = new StringBuilder();
+        private boolean draining;
+
+        Subscriber(Consumer<String> onDelta, QueueListener listener) {
+            this.onDelta = onDelta;
+            this.listener = listener;
+        }
+
+        /**
+         * 追加后在当前线程交给调用方；其他线程正在交付时只追加，由该线程一并交付，顺序不变
+         */
+        void offer(String delta) {
+            synchronized (pending) {
+                pending.append(delta);
+                if (draining) return;
+                draining = true;
+            }
+            while (true) {
+                String chunk;
+                synchronized (pending) {
+                    if (pending.length() == 0) {
+                        draining = false;
+                        return;
+                    }
+                    chunk = pending.toString();
+                    pending.setLength(0);
+                }
+                try {
+                    onDelta.accept(chunk);
+                } catch (RuntimeException e) {
+                    LOG.warn("回复回调失败", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 排队后发起流式请求，在收到第一段回复前失败时由 {@link EndpointRouter} 换地址重试
+     * @param project  项目标识，用于项目之间的轮流
+     * @param session  会话标识，用于会话之间的轮流，并与项目一起决定地址亲和
+     * @param listener 排队位置变化时回调，可为 null
+     */
+    public ChatRequestHandle streamChat(String project, String session, List<ChatMessage> messages,
+                                        Consumer<String> onDelta, QueueListener listener) {
+        String affinityKey = project + "/" + session;
+        return submit(project, session, "stream:" + digest(messages),
+                delta -> EndpointRouter.getInstance().streamChat(affinityKey, messages, delta), onDelta, listener);
+    }
+
+    /**
+     * 排队后发起非流式请求，结果通过句柄返回；用于历史摘要等后台任务。
+     * 与会话的流式请求使用同一地址，不会为摘要把模型载入另一台服务器或挤掉其上其他会话的缓存
+     */
+    public ChatRequestHandle chat(String project, String session, List<ChatMessage> messages) {
+        String affinityKey = project + "/" + session;
+        return submit(project, session, "chat:" + digest(messages),
+                delta -> EndpointRouter.getInstance().chat(affinityKey, messages), delta -> { }, null);
+    }
+
+    /**
+     * 有空闲名额且无人排队时立即发出预填充，否则放弃
+     * @return 请求句柄；未发出时返回 null
+     */
+    public ChatRequestHandle prefill(String project, String session, List<ChatMessage> messages) {
+        EndpointRouter router = EndpointRouter.getInstance();
+        ChatRequestHandle handle;
+        synchronized (this) {
+            if (depth > 0 || !router.hasCapacity()) return null;
+            handle = router.prefill(project + "/" + session, messages);
+            if (handle == null) return null;
+            prefills.add(handle);
+        }
+        // 预填充结束后空出的名额交给排队的请求
+        handle.result().whenCompleteAsync((r, e) -> {
+            synchronized (this) {
+                prefills.remove(handle);
+            }
+            pump();
+        }, AppExecutorUtil.getAppExecutorService());
+        return handle;
+    }
+
+    /**
+     * 正在排队的请求总数
+     */
+    public synchronized int queueDepth() {
+        return depth;
+    }
+
+    private ChatRequestHandle submit(String project, String session, String key, Starter starter,
+                                     Consumer<String> onDelta, QueueListener listener) {
+        Subscriber sub = new Subscriber(onDelta, listener);
+        Job job;
+        boolean running;
+        synchronized (this) {
+            job = active.get(key);
+            if (job == null) {
+                job = new Job(project, session, key, starter);
+                active.put(key, job);
+                enqueue(job);
+            }
+            synchronized (job) {
+                sub.pending.append(job.text);
+                job.subscribers.add(sub);
+            }
+            running = job.inner != null;
+        }
+        Job joined = job;
+        // 补发已收到的部分
+        sub.offer("");
+        sub.handle.onCancel(() -> unsubscribe(joined, sub));
+        if (running && listener != null) listener.onQueue(0, queueDepth());
+        pump();
+        return sub.handle;
+    }
+
+    /**
+     * 调用方取消；没有其他调用方时撤下排队中的请求或中止进行中的请求
+     */
+    private void unsubscribe(Job job, Subscriber sub) {
+        ChatRequestHandle toCancel = null;
+        boolean dequeued = false;
+        synchronized (this) {
+            boolean empty;
+            synchronized (job) {
+                job.subscribers.remove(sub);
+                empty = job.subscribers.isEmpty();
+            }
+            if (!empty) return;
+            active.remove(job.key, job);
+            if (job.inner == null) {
+                dequeued = remove(job);
+            } else {
+                toCancel = job.inner;
+            }
+        }
+        if (toCancel != null) toCancel.cancel();
+        if (dequeued) notifyPositions(new ArrayList<>());
+    }
+
+    /**
+     * 按轮流顺序放行排队的请求，直到没有空闲名额；全部地址断开时也放行，让请求立即失败而不是一直等待。
+     * 仍有请求等待时中止进行中的预填充，其结束后再次放行
+     */
+    private void pump() {
+        List<Runnable> notifications = new ArrayList<>();
+        List<ChatRequestHandle> preempted = new ArrayList<>();
+        synchronized (this) {
+            EndpointRouter router = EndpointRouter.getInstance();
+            while (depth > 0) {
+                if (!router.hasCapacity() && router.hasAvailable()) {
+                    while (preempted.size() < depth && !prefills.isEmpty()) {
+                        preempted.add(prefills.poll());
+                    }
+                    break;
+                }
+                Job job = poll(queue);
+                depth--;
+                start(job);
+                List<Subscriber> subs;
+                synchronized (job) {
+                    subs = new ArrayList<>(job.subscribers);
+                }
+                int d = depth;
+                for (Subscriber sub : subs) {
+                    if (sub.listener != null) notifications.add(() -> sub.listener.onQueue(0, d));
+                }
+            }
+        }
+        for (ChatRequestHandle prefill : preempted) {
+            prefill.cancel();
+        }
+        notifyPositions(notifications);
+    }
+
+    /**
+     * 在持有调度锁时发出请求，使进行中的请求数在下一次判断名额前已经更新；
+     * 发出本身不阻塞，完成后的处理放到后台线程，不在锁内回调调用方
+     */
+    private void start(Job job) {
+        ChatRequestHandle inner;
+        try {
+            inner = job.starter.start(job::deliver);
+        } catch (RuntimeException e) {
+            LOG.warn("发起请求失败", e);
+            inner = new ChatRequestHandle();
+            inner.fail(e);
+        }
+        job.inner = inner;
+        ChatRequestHandle started = inner;
+        inner.result().whenCompleteAsync((reply, error) -> {
+            // 先撤下合并键再取调用方列表：之后的相同请求另行发出，之前加入的都会收到结果
+            synchronized (this) {
+                active.remove(job.key, job);
+            }
+            List<Subscriber> subs;
+            synchronized (job) {
+                subs = new ArrayList<>(job.subscribers);
+            }
+            for (Subscriber sub : subs) {
+                // 交付仍在缓冲中的回复，再通知结束
+                sub.offer("");
+                if (error == null) {
+                    sub.handle.setUsage(started.usage());
+                    sub.handle.complete(reply);
+                } else {
+                    sub.handle.fail(error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error);
+                }
+            }
+            pump();
+        }, AppExecutorUtil.getAppExecutorService());
+    }
+
+    /**
+     * 通知仍在排队的各调用方当前位置；位置按出队规则模拟得出
+     */
+    private void notifyPositions(List<Runnable> notifications) {
+        synchronized (this) {
+            Map<Job, Integer> positions = positions();
+            int d = depth;
+            for (Map.Entry<Job, Integer> e : positions.entrySet()) {
+                List<Subscriber> subs;
+                synchronized (e.getKey()) {
+                    subs = new ArrayList<>(e.getKey().subscribers);
+                }
+                int position = e.getValue();
+                for (Subscriber sub : subs) {
+                    if (sub.listener != null) notifications.add(() -> sub.listener.onQueue(position, d));
+                }
+            }
+        }
+        for (Runnable n : notifications) {
+            try {
+                n.run();
+            } catch (RuntimeException e) {
+                LOG.warn("排队状态回调失败", e);
+            }
+        }
+    }
+
+    private Map<Job, Integer> positions() {
+        LinkedHashMap<String, LinkedHashMap<String, ArrayDeque<Job>>> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, LinkedHashMap<String, ArrayDeque<Job>>> p : queue.entrySet()) {
+            LinkedHashMap<String, ArrayDeque<Job>> sessions = new LinkedHashMap<>();
+            for (Map.Entry<String, ArrayDeque<Job>> s : p.getValue().entrySet()) {
+                sessions.put(s.getKey(), new ArrayDeque<>(s.getValue()));
+            }
+            copy.put(p.getKey(), sessions);
+        }
+        Map<Job, Integer> positions = new IdentityHashMap<>();
+        int position = 0;
+        while (!copy.isEmpty()) {
+            positions.put(poll(copy), ++position);
+        }
+        return positions;
+    }
+
+    private void enqueue(Job job) {
+        queue.computeIfAbsent(job.project, k -> new LinkedHashMap<>())
+                .computeIfAbsent(job.session, k -> new ArrayDeque<>())
+                .add(job);
+        depth++;
+    }
+
+    private boolean remove(Job job) {
+        LinkedHashMap<String, ArrayDeque<Job>> sessions = queue.get(job.project);
+        if (sessions == null) return false;
+        ArrayDeque<Job> jobs = sessions.get(job.session);
+        if (jobs == null || !jobs.remove(job)) return false;
+        depth--;
+        if (jobs.isEmpty()) sessions.remove(job.session);
+        if (sessions.isEmpty()) queue.remove(job.project);
+        return true;
+    }
+
+    /**
+     * 取出排在最前的项目中排在最前的会话的第一个请求，再把该会话与项目移到末尾
+     */
+    private static Job poll(LinkedHashMap<String, LinkedHashMap<String, ArrayDeque<Job>>> queue) {
+        Iterator<Map.Entry<String, LinkedHashMap<String, ArrayDeque<Job>>>> projects = queue.entrySet().iterator();
+        Map.Entry<String, LinkedHashMap<String, ArrayDeque<Job>>> project = projects.next();
+        projects.remove();
+        LinkedHashMap<String, ArrayDeque<Job>> sessions = project.getValue();
+        Iterator<Map.Entry<String, ArrayDeque<Job>>> it = sessions.entrySet().iterator();
+        Map.Entry<String, ArrayDeque<Job>> session = it.next();
+        it.remove();
+        Job job = session.getValue().poll();
+        if (!session.getValue().isEmpty()) sessions.put(session.getKey(), session.getValue());
+        if (!sessions.isEmpty()) queue.put(project.getKey(), sessions);
+        return job;
+    }
+
+    /**
+     * 合并键：服务类型、模型与全部消息内容的摘要
+     */
+    private static String digest(List<ChatMessage> messages) {
+        PandaCoderAISettings s = PandaCoderAISettings.getInstance();
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            update(md, s.getAiProviderType());
+            update(md, s.getAiModel());
+            for (ChatMessage m : messages) {
+                update(md, m.role);
+                update(md, m.content);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : md.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest md, String value) {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        md.update((byte) (bytes.length >>> 24));
+        md.update((byte) (bytes.length >>> 16));
+        md.update((byte) (bytes.length >>> 8));
+        md.update((byte) bytes.length);
+        md.update(bytes);
+    }
+}
@@ -0,0 +1,26 @@
+package com.poeticcoder.ai.chat;
+
+/**
+ * 一次请求的 token 用量
+ * 各服务返回的字段不同，未返回的项为 -1：OpenAI 兼容服务给出提示词总数与命中前缀缓存的数量，
+ * Ollama 只给出实际参与计算（未命中 KV 缓存）的提示词数量与耗时
+ */
+public final class ChatUsage {
+    /** 提示词 token 总数 */
+    public final int promptTokens;
+    /** 命中服务端前缀缓存、无需重新计算的提示词 token 数 */
+    public final int cachedTokens;
+    /** 实际参与计算的提示词 token 数 */
+    public final int evaluatedTokens;
+    /** 预填充（处理提示词）耗时，毫秒 */
+    public final long promptMillis;
+    public final int completionTokens;
+
+    public ChatUsage(int promptTokens, int cachedTokens, int evaluatedTokens, long promptMillis, int completionTokens) {
+        this.promptTokens = promptTokens;
+        this.cachedTokens = cachedTokens;
+        this.evaluatedTokens = evaluatedTokens;
+        this.promptMillis = promptMillis;
+        this.completionTokens = completionTokens;
+    }
+}
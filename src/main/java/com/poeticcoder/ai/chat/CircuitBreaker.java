@@ -0,0 +1,101 @@
+package com.poeticcoder.ai.chat;
+
+/**
+ * 单个服务地址的熔断器
+ * 连续失败达到阈值后断开，断开期间的请求不再等待连接超时而是直接跳过；断开时间到后放行一次试探
+ * （真实请求或健康探测），成功则恢复，失败则以加倍的时长再次断开
+ */
+public final class CircuitBreaker {
+
+    public enum State {
+        /** 正常放行 */
+        CLOSED,
+        /** 断开，直接拒绝 */
+        OPEN,
+        /** 断开时间已到，只放行一次试探 */
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long minOpenMillis;
+    private final long maxOpenMillis;
+
+    private State state = State.CLOSED;
+    /** 连续失败次数 */
+    private int failures;
+    /** 未经成功的连续断开次数，决定下次断开的时长 */
+    private int trips;
+    private long openUntil;
+    private boolean trialInFlight;
+
+    public CircuitBreaker(int failureThreshold, long minOpenMillis, long maxOpenMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.minOpenMillis = minOpenMillis;
+        this.maxOpenMillis = maxOpenMillis;
+    }
+
+    public synchronized State state() {
+        if (state == State.OPEN && System.currentTimeMillis() >= openUntil) return State.HALF_OPEN;
+        return state;
+    }
+
+    /**
+     * 是否可以发起请求；不改变状态，用于挑选地址
+     */
+    public synchronized boolean isCallPermitted() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return System.currentTimeMillis() >= openUntil;
+            default:
+                return !trialInFlight;
+        }
+    }
+
+    /**
+     * 占用一次请求机会；断开时间已到时，本次请求作为唯一的试探
+     * @return 是否可以发起请求
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.CLOSED) return true;
+        if (state == State.OPEN && System.currentTimeMillis() < openUntil) return false;
+        if (state == State.HALF_OPEN && trialInFlight) return false;
+        state = State.HALF_OPEN;
+        trialInFlight = true;
+        return true;
+    }
+
+    public synchronized void recordSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+        trips = 0;
+        trialInFlight = false;
+    }
+
+    public synchronized void recordFailure() {
+        trialInFlight = false;
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            long duration = Math.min(maxOpenMillis, minOpenMillis << Math.min(trips, 16));
+            trips++;
+            failures = 0;
+            openUntil = System.currentTimeMillis() + duration;
+            state = State.OPEN;
+        }
+    }
+
+    /**
+     * 请求被取消，既不算成功也不算失败；释放试探机会
+     */
+    public synchronized void release() {
+        trialInFlight = false;
+    }
+
+    /**
+     * 距离下次允许试探的毫秒数，未断开时为 0
+     */
+    public synchronized long retryAfterMillis() {
+        return state == State.OPEN ? Math.max(0, openUntil - System.currentTimeMillis()) : 0;
+    }
+}
@@ -1,19 +1,26 @@
 package com.poeticcoder.ai.chat;
 
+import com.intellij.openapi.project.IndexNotReadyException;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.fileEditor.FileEditorManager;
 import com.intellij.openapi.fileEditor.OpenFileDescriptor;
 import com.intellij.psi.*;
 import com.intellij.psi.search.GlobalSearchScope;
-import com.intellij.psi.search.searches.AllClassesSearch;
+import com.intellij.psi.search.PsiShortNamesCache;
 import com.intellij.psi.util.PsiUtilCore;
-import com.intellij.util.Query;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.editor.Document;
 import com.intellij.psi.PsiManager;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 /**
  * 代码定位工具类
@@ -21,31 +28,106 @@ import java.util.Collection;
  */
 public class CodeLocator {
 
+    /** 按短名解析时最多保留的候选数 */
+    private static final int MAX_CLASS_CANDIDATES = 20;
+
+    private static final Key<LineIndex> LINE_INDEX_KEY = Key.create("PandaCoder.AI.LineIndex");
+
     /**
-     * 根据类名查找类
+     * 根据类名查找类，存在多个同名类时返回排序最靠前的一个
      */
     public static PsiClass findClass(Project project, String name) {
-        JavaPsiFacade facade = JavaPsiFacade.getInstance(project);
-        PsiClass byFqn = facade.findClass(name, GlobalSearchScope.projectScope(project));
-        if (byFqn != null) return byFqn;
-        Query<PsiClass> q = AllClassesSearch.search(GlobalSearchScope.projectScope(project), project);
-        for (PsiClass c : q.findAll()) {
-            if (c.getName() != null && c.getName().equals(name)) {
-                return c;
+        List<PsiClass> candidates = findClasses(project, name, 1);
+        return candidates.isEmpty() ? null : candidates.get(0);
+    }
+
+    /**
+     * 根据类名查找候选类
+     * 全限定名直接解析；简单名或部分限定名（如 order.OrderService）通过短名索引查找，
+     * 耗时只与同名类的数量相关，与项目规模无关
+     * @param limit 最多返回的候选数
+     * @return 按匹配程度排序的候选类
+     */
+    public static List<PsiClass> findClasses(Project project, String name, int limit) {
+        if (name == null || name.isEmpty() || limit <= 0) return Collections.emptyList();
+        GlobalSearchScope scope = GlobalSearchScope.projectScope(project);
+        try {
+            PsiClass byFqn = JavaPsiFacade.getInstance(project).findClass(name, scope);
+            if (byFqn != null) return Collections.singletonList(byFqn);
+
+            String shortName = name.substring(name.lastIndexOf('.') + 1);
+            if (shortName.isEmpty()) return Collections.emptyList();
+            String qualifiedSuffix = name.indexOf('.') >= 0 ? "." + name : null;
+            PsiClass[] found = PsiShortNamesCache.getInstance(project).getClassesByName(shortName, scope);
+
+            ProjectFileIndex fileIndex = ProjectFileIndex.getInstance(project);
+            List<ScoredClass> scored = new ArrayList<>(Math.min(found.length, MAX_CLASS_CANDIDATES));
+            for (PsiClass c : found) {
+                String qn = c.getQualifiedName();
+                if (qualifiedSuffix != null && (qn == null || !qn.endsWith(qualifiedSuffix))) continue;
+                scored.add(new ScoredClass(c, rankClass(c, qn, fileIndex)));
+            }
+            scored.sort(ScoredClass.ORDER);
+            int n = Math.min(Math.min(limit, MAX_CLASS_CANDIDATES), scored.size());
+            List<PsiClass> result = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                result.add(scored.get(i).cls);
             }
+            return result;
+        } catch (IndexNotReadyException e) {
+            // 索引构建中（dumb mode），暂时无法解析
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * 同名类的排序分值：生产代码优先于测试代码，顶层类优先于内部类，包层级浅的优先
+     */
+    private static int rankClass(PsiClass c, String qualifiedName, ProjectFileIndex fileIndex) {
+        int score = 0;
+        VirtualFile vf = vfile(c);
+        if (vf != null && !fileIndex.isInTestSourceContent(vf)) score += 100;
+        if (c.getContainingClass() == null) score += 50;
+        if (qualifiedName != null) {
+            int depth = 0;
+            for (int i = 0; i < qualifiedName.length(); i++) {
+                if (qualifiedName.charAt(i) == '.') depth++;
+            }
+            score -= Math.min(depth, 40);
+        }
+        return score;
+    }
+
+    private static class ScoredClass {
+        static final Comparator<ScoredClass> ORDER = Comparator
+                .comparingInt((ScoredClass sc) -> -sc.score)
+                .thenComparing(sc -> String.valueOf(sc.cls.getQualifiedName()));
+
+        final PsiClass cls;
+        final int score;
+
+        ScoredClass(PsiClass cls, int score) {
+            this.cls = cls;
+            this.score = score;
         }
-        return null;
     }
 
     /**
-     * 根据文件名查找文件
+     * 根据文件名查找文件；带 / 的相对路径按文件名查找后再匹配路径后缀
      */
     public static PsiFile findFile(Project project, String filename) {
+        int slash = filename.lastIndexOf('/');
+        String name = filename.substring(slash + 1);
+        if (name.isEmpty()) return null;
         Collection<VirtualFile> virtualFiles = com.intellij.psi.search.FilenameIndex.getVirtualFilesByName(
-            filename, GlobalSearchScope.projectScope(project));
-        if (virtualFiles.isEmpty()) return null;
-        VirtualFile virtualFile = virtualFiles.iterator().next();
-        return PsiManager.getInstance(project).findFile(virtualFile);
+            name, GlobalSearchScope.projectScope(project));
+        String suffix = filename.startsWith("/") ? filename : "/" + filename;
+        for (VirtualFile virtualFile : virtualFiles) {
+            if (slash < 0 || virtualFile.getPath().endsWith(suffix)) {
+                return PsiManager.getInstance(project).findFile(virtualFile);
+            }
+        }
+        return null;
     }
 
     /**
@@ -84,17 +166,24 @@ public class CodeLocator {
     }
 
     /**
-     * 获取文件指定行范围的代码片段
+     * 获取文件指定行范围的代码片段（行号从 1 开始）
      */
     public static String snippet(PsiFile file, int startLine, int endLine) {
         if (file == null) return "";
-        Document doc = com.intellij.openapi.editor.EditorFactory.getInstance().createDocument(file.getText());
-        int max = doc.getLineCount();
+        Document doc = PsiDocumentManager.getInstance(file.getProject()).getCachedDocument(file);
+        if (doc != null) {
+            int max = doc.getLineCount();
+            int s = Math.max(0, Math.min(startLine - 1, max - 1));
+            int e = Math.max(s, Math.min(endLine - 1, max - 1));
+            return doc.getImmutableCharSequence()
+                    .subSequence(doc.getLineStartOffset(s), doc.getLineEndOffset(e)).toString();
+        }
+        CharSequence text = file.getViewProvider().getContents();
+        LineIndex index = lineIndex(file, text);
+        int max = index.lineCount();
         int s = Math.max(0, Math.min(startLine - 1, max - 1));
         int e = Math.max(s, Math.min(endLine - 1, max - 1));
-        int startOffset = doc.getLineStartOffset(s);
-        int endOffset = doc.getLineEndOffset(e);
-        return doc.getText(new com.intellij.openapi.util.TextRange(startOffset, endOffset));
+        return text.subSequence(index.lineStart(s), index.lineEnd(e)).toString();
     }
 
     /**
@@ -104,9 +193,74 @@ public class CodeLocator {
         if (element == null) return 0;
         PsiFile file = element.getContainingFile();
         if (file == null) return 0;
-        Document doc = com.intellij.openapi.editor.EditorFactory.getInstance().createDocument(file.getText());
         int offset = element.getTextOffset();
-        return doc.getLineNumber(offset) + 1;
+        Document doc = PsiDocumentManager.getInstance(project).getCachedDocument(file);
+        if (doc != null) {
+            return doc.getLineNumber(Math.min(Math.max(offset, 0), doc.getTextLength())) + 1;
+        }
+        return lineIndex(file, file.getViewProvider().getContents()).lineNumber(offset) + 1;
+    }
+
+    /**
+     * 文件未在编辑器中打开（没有已加载的 Document）时，按修改戳缓存行首偏移，避免为计算行号复制整个文件
+     */
+    private static LineIndex lineIndex(PsiFile file, CharSequence text) {
+        long stamp = file.getModificationStamp();
+        LineIndex index = file.getUserData(LINE_INDEX_KEY);
+        if (index == null || index.stamp != stamp || index.length != text.length()) {
+            index = LineIndex.build(text, stamp);
+            file.putUserData(LINE_INDEX_KEY, index);
+        }
+        return index;
+    }
+
+    /**
+     * 行首偏移表，行号查询为二分查找
+     */
+    private static final class LineIndex {
+        final long stamp;
+        final int length;
+        /** 每一行的起始偏移 */
+        private final int[] starts;
+        private final int count;
+
+        private LineIndex(long stamp, int length, int[] starts, int count) {
+            this.stamp = stamp;
+            this.length = length;
+            this.starts = starts;
+            this.count = count;
+        }
+
+        static LineIndex build(CharSequence text, long stamp) {
+            int len = text.length();
+            int[] starts = new int[Math.max(16, len / 32)];
+            int count = 1;
+            for (int i = 0; i < len; i++) {
+                if (text.charAt(i) != '\n') continue;
+                if (count == starts.length) starts = Arrays.copyOf(starts, count * 2);
+                starts[count++] = i + 1;
+            }
+            return new LineIndex(stamp, len, starts, count);
+        }
+
+        int lineCount() {
+            return count;
+        }
+
+        int lineStart(int line) {
+            return starts[line];
+        }
+
+        /** 行尾偏移，不含换行符 */
+        int lineEnd(int line) {
+            return line + 1 < count ? starts[line + 1] - 1 : length;
+        }
+
+        int lineNumber(int offset) {
+            if (offset <= 0) return 0;
+            int i = Arrays.binarySearch(starts, 0, count, offset);
+            return i >= 0 ? i : -i - 2;
+        }
     }
 
     /**
@@ -0,0 +1,94 @@
+package com.poeticcoder.ai.chat;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 服务地址的后台健康探测
+ * 有对话活动期间定时探测各地址（Ollama 为 /api/tags，OpenAI 兼容服务为 /v1/models），结果写入对应的熔断器；
+ * 最近有真实请求成功的地址不再重复探测。断开的地址到期后由探测完成试探，恢复后无需用户的请求先失败一次。
+ * 空闲一段时间后停止探测，下次使用时自动恢复
+ */
+final class EndpointHealthMonitor {
+
+    private static final Logger LOG = Logger.getInstance(EndpointHealthMonitor.class);
+
+    private static final long PROBE_INTERVAL_SECONDS = 15;
+    /** 探测的总时限，远小于连接超时 */
+    static final Duration PROBE_TIMEOUT = Duration.ofSeconds(3);
+    private static final long IDLE_MILLIS = 10 * 60 * 1000;
+
+    private final EndpointRouter router;
+    private final Set<ChatEndpoint> probing = ConcurrentHashMap.newKeySet();
+    private volatile long lastActive;
+    private ScheduledFuture<?> task;
+
+    EndpointHealthMonitor(EndpointRouter router) {
+        this.router = router;
+    }
+
+    /**
+     * 记录一次活动，未在探测时开始定时探测
+     */
+    void touch() {
+        lastActive = System.currentTimeMillis();
+        synchronized (this) {
+            if (task == null) {
+                task = AppExecutorUtil.getAppScheduledExecutorService()
+                        .scheduleWithFixedDelay(this::tick, 0, PROBE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    /**
+     * 真实请求失败后立即探测，连接层面的故障无需等到下一个周期即可断开
+     */
+    void probeSoon(ChatEndpoint endpoint) {
+        AppExecutorUtil.getAppExecutorService().execute(() -> probe(endpoint));
+    }
+
+    private void tick() {
+        long now = System.currentTimeMillis();
+        if (now - lastActive > IDLE_MILLIS) {
+            synchronized (this) {
+                if (task != null) {
+                    task.cancel(false);
+                    task = null;
+                }
+            }
+            return;
+        }
+        for (ChatEndpoint endpoint : router.endpoints()) {
+            if (router.recentlySucceeded(endpoint, now - PROBE_INTERVAL_SECONDS * 1000)) continue;
+            if (!router.breaker(endpoint).isCallPermitted()) continue;
+            // 各地址并行探测，一个地址无响应不拖慢其他地址
+            AppExecutorUtil.getAppExecutorService().execute(() -> probe(endpoint));
+        }
+    }
+
+    private void probe(ChatEndpoint endpoint) {
+        if (!probing.add(endpoint)) return;
+        try {
+            CircuitBreaker breaker = router.breaker(endpoint);
+            if (!breaker.tryAcquire()) return;
+            try {
+                endpoint.provider().probe(endpoint, PROBE_TIMEOUT);
+                breaker.recordSuccess();
+            } catch (InterruptedException e) {
+                breaker.release();
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                breaker.recordFailure();
+                LOG.debug("服务地址探测失败: " + endpoint, e);
+            }
+        } finally {
+            probing.remove(endpoint);
+        }
+    }
+}
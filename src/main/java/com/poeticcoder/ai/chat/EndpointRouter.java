@@ -0,0 +1,344 @@
+package com.poeticcoder.ai.chat;
+
+import com.poeticcoder.ai.settings.PandaCoderAISettings;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 在多个模型服务地址之间分配请求
+ * 每个地址记录本机进行中的请求数与首 token 延迟的滑动平均，按 (进行中请求数 + 1) × 延迟 估计代价。
+ * 首 token 延迟包含服务端排队与预填充时间，能反映其他用户带来的负载；地址多于两个时随机取两个比较（两选一），
+ * 避免各 IDE 根据相近的统计同时涌向同一台服务器。
+ * 同一会话尽量留在上次的地址，以复用该服务器上对话前缀的 KV 缓存，只有明显更慢时才换走。
+ * 每个地址有一个熔断器，由真实请求的结果与 {@link EndpointHealthMonitor} 的探测共同驱动：已断开的地址直接跳过，
+ * 请求在收到第一段回复之前失败时换到其他地址重试，全部断开时立即失败而不等待连接超时
+ */
+public final class EndpointRouter {
+
+    private static final EndpointRouter INSTANCE = new EndpointRouter();
+
+    /** 延迟滑动平均中新样本的权重 */
+    private static final double LATENCY_ALPHA = 0.3;
+    /** 还没有延迟样本时的假定值 */
+    private static final double DEFAULT_LATENCY_MILLIS = 1000;
+    /** 会话原地址的代价不超过最优地址的该倍数时继续使用 */
+    private static final double AFFINITY_FACTOR = 2.0;
+    /** 连续失败该次数后断开；请求失败后会立即探测，真正不可用的地址很快达到阈值 */
+    private static final int FAILURE_THRESHOLD = 2;
+    private static final long MIN_OPEN_MILLIS = 5_000;
+    private static final long MAX_OPEN_MILLIS = 300_000;
+    private static final int MAX_AFFINITY_ENTRIES = 512;
+
+    private final Map<ChatEndpoint, Stats> stats = new ConcurrentHashMap<>();
+    /** 会话 -> 上次使用的地址，按访问顺序淘汰 */
+    private final Map<String, ChatEndpoint> affinity = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ChatEndpoint> eldest) {
+            return size() > MAX_AFFINITY_ENTRIES;
+        }
+    };
+    private final EndpointHealthMonitor monitor = new EndpointHealthMonitor(this);
+
+    private EndpointRouter() {
+    }
+
+    public static EndpointRouter getInstance() {
+        return INSTANCE;
+    }
+
+    private static final class Stats {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final CircuitBreaker breaker = new CircuitBreaker(FAILURE_THRESHOLD, MIN_OPEN_MILLIS, MAX_OPEN_MILLIS);
+        /** 首 token 延迟的滑动平均，毫秒；没有样本时为 -1 */
+        double latencyMillis = -1;
+        volatile long lastSuccess;
+
+        synchronized void recordLatency(long millis) {
+            latencyMillis = latencyMillis < 0 ? millis : latencyMillis + LATENCY_ALPHA * (millis - latencyMillis);
+        }
+
+        synchronized double cost(double defaultLatency) {
+            double latency = latencyMillis < 0 ? defaultLatency : latencyMillis;
+            return (inFlight.get() + 1) * latency;
+        }
+    }
+
+    /**
+     * 设置中配置的全部地址，主地址在前；共用服务类型、模型与 API Key
+     */
+    public List<ChatEndpoint> endpoints() {
+        PandaCoderAISettings s = PandaCoderAISettings.getInstance();
+        List<ChatEndpoint> list = new ArrayList<>();
+        for (String url : s.getAiBaseUrls()) {
+            list.add(new ChatEndpoint(s.getAiProviderType(), url, s.getAiApiKey(), s.getAiModel()));
+        }
+        stats.keySet().retainAll(list);
+        return list;
+    }
+
+    /**
+     * 开始后台健康探测，打开聊天窗口时调用，使第一次发送前即知道各地址的状态
+     */
+    public void startHealthChecks() {
+        monitor.touch();
+    }
+
+    /**
+     * 地址当前是否可以接收请求（熔断器未断开）
+     */
+    public boolean isAvailable(ChatEndpoint endpoint) {
+        return stats(endpoint).breaker.isCallPermitted();
+    }
+
+    /**
+     * 是否有未断开且进行中请求数低于上限的地址；供 {@link ChatRequestScheduler} 决定放行还是排队
+     */
+    boolean hasCapacity() {
+        int limit = PandaCoderAISettings.getInstance().getMaxRequestsPerEndpoint();
+        for (ChatEndpoint e : endpoints()) {
+            Stats st = stats(e);
+            if (st.breaker.isCallPermitted() && st.inFlight.get() < limit) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 是否有未断开的地址；全部断开时排队没有意义，请求应立即失败
+     */
+    boolean hasAvailable() {
+        for (ChatEndpoint e : endpoints()) {
+            if (stats(e).breaker.isCallPermitted()) return true;
+        }
+        return false;
+    }
+
+    CircuitBreaker breaker(ChatEndpoint endpoint) {
+        return stats(endpoint).breaker;
+    }
+
+    boolean recentlySucceeded(ChatEndpoint endpoint, long since) {
+        return stats(endpoint).lastSuccess >= since;
+    }
+
+    /**
+     * 选择地址并发起流式请求；在收到第一段回复前失败时换到其他可用地址重试
+     * @param affinityKey 会话标识，同一会话尽量使用同一地址；为 null 时不考虑
+     */
+    public ChatRequestHandle streamChat(String affinityKey, List<ChatMessage> messages, Consumer<String> onDelta) {
+        monitor.touch();
+        ChatRequestHandle handle = new ChatRequestHandle();
+        attempt(handle, affinityKey, messages, onDelta, new HashSet<>(), null);
+        return handle;
+    }
+
+    /**
+     * @param onDelta 为 null 时发起非流式请求
+     */
+    private void attempt(ChatRequestHandle outer, String affinityKey, List<ChatMessage> messages,
+                         Consumer<String> onDelta, Set<ChatEndpoint> tried, Throwable lastError) {
+        if (outer.isCancelled()) return;
+        ChatEndpoint endpoint = acquire(affinityKey, tried);
+        if (endpoint == null) {
+            outer.fail(lastError != null ? lastError : unavailable());
+            return;
+        }
+        tried.add(endpoint);
+        Stats st = stats(endpoint);
+        st.inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        AtomicBoolean started = new AtomicBoolean();
+        // 非流式请求的回复长度差异大，不计入延迟统计，失败时总是可以换地址重试
+        ChatRequestHandle inner = onDelta == null ? endpoint.provider().chat(endpoint, messages)
+                : endpoint.provider().streamChat(endpoint, messages, delta -> {
+                    if (started.compareAndSet(false, true)) {
+                        st.recordLatency((System.nanoTime() - start) / 1_000_000);
+                        recordSuccess(st);
+                    }
+                    onDelta.accept(delta);
+                });
+        outer.onCancel(inner::cancel);
+        inner.result().whenComplete((reply, error) -> {
+            st.inFlight.decrementAndGet();
+            Throwable cause = unwrap(error);
+            if (cause == null) {
+                recordSuccess(st);
+                outer.setUsage(inner.usage());
+                outer.complete(reply);
+            } else if (cause instanceof CancellationException) {
+                st.breaker.release();
+                outer.fail(cause);
+            } else {
+                recordFailure(endpoint, st);
+                if (started.get()) {
+                    // 已经显示了部分回复，不再重试
+                    outer.fail(cause);
+                } else {
+                    attempt(outer, affinityKey, messages, onDelta, tried, cause);
+                }
+            }
+        });
+    }
+
+    /**
+     * 在会话将要使用的地址上预填充对话前缀，并把会话关联到该地址，随后的真实请求会发往同一处复用缓存。
+     * 只是投机优化：只尝试一次，不换地址重试，不计入延迟统计
+     * @return 请求句柄；没有可用地址时返回 null
+     */
+    public ChatRequestHandle prefill(String affinityKey, List<ChatMessage> messages) {
+        monitor.touch();
+        ChatEndpoint endpoint = acquire(affinityKey, Collections.emptySet());
+        if (endpoint == null) return null;
+        Stats st = stats(endpoint);
+        st.inFlight.incrementAndGet();
+        ChatRequestHandle handle = endpoint.provider().prefill(endpoint, messages);
+        handle.result().whenComplete((reply, error) -> {
+            st.inFlight.decrementAndGet();
+            Throwable cause = unwrap(error);
+            if (cause == null) {
+                recordSuccess(st);
+            } else if (cause instanceof CancellationException) {
+                st.breaker.release();
+            } else {
+                recordFailure(endpoint, st);
+            }
+        });
+        return handle;
+    }
+
+    /**
+     * 选择地址并发起非流式请求，失败时换到其他可用地址重试。
+     * 返回前已占用地址并计入进行中请求数，{@link ChatRequestScheduler} 据此判断是否还有空闲名额
+     * @param affinityKey 会话标识，同一会话尽量使用同一地址；为 null 时不考虑
+     */
+    public ChatRequestHandle chat(String affinityKey, List<ChatMessage> messages) {
+        monitor.touch();
+        ChatRequestHandle handle = new ChatRequestHandle();
+        attempt(handle, affinityKey, messages, null, new HashSet<>(), null);
+        return handle;
+    }
+
+    /**
+     * 选出代价最低的可用地址并占用其熔断器；没有可用地址时返回 null。
+     * 优先在未达到并发上限的地址中选择；都已达到上限（如换地址重试）时仍可超出
+     */
+    private ChatEndpoint acquire(String affinityKey, Set<ChatEndpoint> exclude) {
+        List<ChatEndpoint> all = endpoints();
+        if (all.isEmpty()) {
+            throw new IllegalStateException("未配置服务地址");
+        }
+        int limit = PandaCoderAISettings.getInstance().getMaxRequestsPerEndpoint();
+        List<ChatEndpoint> candidates = new ArrayList<>(all.size());
+        List<ChatEndpoint> full = new ArrayList<>();
+        for (ChatEndpoint e : all) {
+            if (exclude.contains(e) || !stats(e).breaker.isCallPermitted()) continue;
+            if (stats(e).inFlight.get() < limit) {
+                candidates.add(e);
+            } else {
+                full.add(e);
+            }
+        }
+        if (candidates.isEmpty()) candidates = full;
+        while (!candidates.isEmpty()) {
+            ChatEndpoint chosen = choose(candidates, affinityKey);
+            if (stats(chosen).breaker.tryAcquire()) {
+                if (affinityKey != null) {
+                    synchronized (affinity) {
+                        affinity.put(affinityKey, chosen);
+                    }
+                }
+                return chosen;
+            }
+            // 试探机会已被其他请求占用
+            candidates.remove(chosen);
+        }
+        return null;
+    }
+
+    private ChatEndpoint choose(List<ChatEndpoint> candidates, String affinityKey) {
+        if (candidates.size() == 1) return candidates.get(0);
+        double defaultLatency = defaultLatency(candidates);
+        ChatEndpoint best;
+        if (candidates.size() == 2) {
+            best = cheaper(candidates.get(0), candidates.get(1), defaultLatency);
+        } else {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int i = random.nextInt(candidates.size());
+            int j = random.nextInt(candidates.size() - 1);
+            if (j >= i) j++;
+            best = cheaper(candidates.get(i), candidates.get(j), defaultLatency);
+        }
+        if (affinityKey == null) return best;
+        ChatEndpoint previous;
+        synchronized (affinity) {
+            previous = affinity.get(affinityKey);
+        }
+        if (previous != null && !previous.equals(best) && candidates.contains(previous)
+                && stats(previous).cost(defaultLatency) <= AFFINITY_FACTOR * stats(best).cost(defaultLatency)) {
+            return previous;
+        }
+        return best;
+    }
+
+    private static void recordSuccess(Stats st) {
+        st.lastSuccess = System.currentTimeMillis();
+        st.breaker.recordSuccess();
+    }
+
+    private void recordFailure(ChatEndpoint endpoint, Stats st) {
+        st.breaker.recordFailure();
+        monitor.probeSoon(endpoint);
+    }
+
+    private IOException unavailable() {
+        long retryAfter = Long.MAX_VALUE;
+        for (ChatEndpoint e : endpoints()) {
+            retryAfter = Math.min(retryAfter, stats(e).breaker.retryAfterMillis());
+        }
+        long seconds = Math.max(1, (retryAfter + 999) / 1000);
+        return new IOException("服务地址暂时不可用（最近的请求或健康探测失败），约 " + seconds + " 秒后重试");
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private Stats stats(ChatEndpoint endpoint) {
+        return stats.computeIfAbsent(endpoint, e -> new Stats());
+    }
+
+    private ChatEndpoint cheaper(ChatEndpoint a, ChatEndpoint b, double defaultLatency) {
+        return stats(b).cost(defaultLatency) < stats(a).cost(defaultLatency) ? b : a;
+    }
+
+    /**
+     * 没有样本的地址按已知延迟的平均值估计，让新地址也能分到请求
+     */
+    private double defaultLatency(List<ChatEndpoint> endpoints) {
+        double sum = 0;
+        int n = 0;
+        for (ChatEndpoint e : endpoints) {
+            Stats st = stats(e);
+            synchronized (st) {
+                if (st.latencyMillis >= 0) {
+                    sum += st.latencyMillis;
+                    n++;
+                }
+            }
+        }
+        return n == 0 ? DEFAULT_LATENCY_MILLIS : sum / n;
+    }
+}
@@ -0,0 +1,136 @@
+package com.poeticcoder.ai.chat;
+
+import com.poeticcoder.ai.context.Tokenizer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 对话历史压缩
+ * 历史超出 token 上限时，保留最近若干轮原样不动，把更早的轮次连同已有摘要交给模型压缩为一条摘要消息，放在历史开头。
+ * 一次折叠到上限的一半以下，之后若干轮内历史只在尾部增长，服务端的前缀缓存不会因压缩而频繁失效。
+ * 只按整轮折叠（本轮上下文、用户消息与助手回复一起），不会把一轮拆开
+ */
+public final class HistoryCompactor {
+
+    private static final String SUMMARY_PREFIX = "此前对话摘要:\n\n";
+    /** 每条消息的角色、分隔符等格式开销的估计值 */
+    private static final int MESSAGE_OVERHEAD = 4;
+    /** 送去摘要时单条消息保留的最大长度 */
+    private static final int MAX_SUMMARY_INPUT_CHARS = 3000;
+    private static final String INSTRUCTION = "你负责压缩编程助手与用户的对话历史。请把给出的已有摘要与新的对话记录合并为一份新的摘要，"
+            + "保留用户的目标与约束、讨论过的类与文件、已确定的结论与代码修改要点、尚未解决的问题；"
+            + "省略寒暄与完整代码，不超过 400 字，直接输出摘要正文。";
+
+    private HistoryCompactor() {
+    }
+
+    /**
+     * 需要折叠的前缀
+     */
+    public static final class Plan {
+        /** 从历史开头起被折叠的消息数，包含已有的摘要消息 */
+        public final int fold;
+        /** 被折叠的消息（不含已有摘要） */
+        public final List<ChatMessage> folded;
+        /** 已有的摘要正文，没有时为空串 */
+        public final String previousSummary;
+
+        Plan(int fold, List<ChatMessage> folded, String previousSummary) {
+            this.fold = fold;
+            this.folded = folded;
+            this.previousSummary = previousSummary;
+        }
+    }
+
+    public static boolean isSummary(ChatMessage m) {
+        return "system".equals(m.role) && m.content.startsWith(SUMMARY_PREFIX);
+    }
+
+    public static ChatMessage summaryMessage(String summary) {
+        return new ChatMessage("system", SUMMARY_PREFIX + summary);
+    }
+
+    /**
+     * 判断是否需要压缩；不超过上限或没有可折叠的完整轮次时返回 null
+     * @param keepTurns 至少原样保留的最近轮数
+     */
+    public static Plan plan(List<ChatMessage> history, Tokenizer tokenizer, int budget,
+                            int keepTurns) {
+        int n = history.size();
+        int[] tokens = new int[n];
+        int total = tokenizer.count(PromptAssembler.PREAMBLE) + MESSAGE_OVERHEAD;
+        for (int i = 0; i < n; i++) {
+            tokens[i] = tokenizer.count(history.get(i).content) + MESSAGE_OVERHEAD;
+            total += tokens[i];
+        }
+        if (total <= budget) return null;
+
+        // 每轮的起点：用户消息，或紧挨在它前面的当轮上下文
+        List<Integer> starts = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (!"user".equals(history.get(i).role)) continue;
+            int start = i;
+            if (i > 0 && "system".equals(history.get(i - 1).role) && !isSummary(history.get(i - 1))) start = i - 1;
+            starts.add(start);
+        }
+        if (starts.size() < 2) return null;
+        // 至少保留最后一轮；在保留 keepTurns 轮的基础上继续折叠，直到剩余部分不超过上限的一半
+        int turn = Math.max(1, starts.size() - keepTurns);
+        int cut = starts.get(turn);
+        int tail = 0;
+        for (int i = cut; i < n; i++) tail += tokens[i];
+        while (tail > budget / 2 && turn + 1 < starts.size()) {
+            int next = starts.get(++turn);
+            for (int i = cut; i < next; i++) tail -= tokens[i];
+            cut = next;
+        }
+        boolean hasSummary = isSummary(history.get(0));
+        int from = hasSummary ? 1 : 0;
+        if (cut <= from) return null;
+        String previous = hasSummary ? history.get(0).content.substring(SUMMARY_PREFIX.length()) : "";
+        return new Plan(cut, new ArrayList<>(history.subList(from, cut)), previous);
+    }
+
+    /**
+     * 生成摘要请求的消息：说明、已有摘要与被折叠的对话记录；项目上下文只保留标题
+     */
+    public static List<ChatMessage> summaryPrompt(Plan plan) {
+        StringBuilder sb = new StringBuilder();
+        if (!plan.previousSummary.isEmpty()) {
+            sb.append("已有摘要：\n").append(plan.previousSummary).append("\n\n");
+        }
+        sb.append("新的对话记录：\n");
+        for (ChatMessage m : plan.folded) {
+            if ("system".equals(m.role)) {
+                sb.append("[附带上下文]");
+                for (String line : m.content.split("\n")) {
+                    if (line.startsWith("### ")) sb.append(' ').append(line.substring(4));
+                }
+                sb.append('\n');
+                continue;
+            }
+            String content = m.content.length() > MAX_SUMMARY_INPUT_CHARS
+                    ? m.content.substring(0, MAX_SUMMARY_INPUT_CHARS) + "…（已截断）" : m.content;
+            sb.append("assistant".equals(m.role) ? "助手：" : "用户：").append(content).append("\n\n");
+        }
+        List<ChatMessage> messages = new ArrayList<>(2);
+        messages.add(new ChatMessage("system", INSTRUCTION));
+        messages.add(new ChatMessage("user", sb.toString()));
+        return messages;
+    }
+
+    /**
+     * 用摘要替换历史开头的 fold 条消息；生成摘要期间历史的开头被改动（例如会话被清空）时不做修改
+     * @return 是否已替换
+     */
+    public static boolean apply(List<ChatMessage> history, Plan plan, String summary) {
+        ChatMessage last = plan.folded.get(plan.folded.size() - 1);
+        synchronized (history) {
+            if (history.size() < plan.fold || history.get(plan.fold - 1) != last) return false;
+            history.subList(0, plan.fold).clear();
+            history.add(0, summaryMessage(summary.trim()));
+            return true;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.poeticcoder.ai.chat;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationActivationListener;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.wm.IdeFrame;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.poeticcoder.ai.settings.PandaCoderAISettings;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Ollama 模型预热
+ * 打开聊天窗口、切回 IDE 或发送消息时，在后台向各 Ollama 地址预加载所配置的模型，第一次提问不必等待模型载入；
+ * 使用期间按 keep_alive 的一半定时续期，离开一段时间后停止，让服务器按时释放显存
+ */
+public final class ModelWarmupService implements Disposable {
+
+    private static final Logger LOG = Logger.getInstance(ModelWarmupService.class);
+
+    /** 距离上次活动超过该时长视为离开，停止续期 */
+    private static final long IDLE_MILLIS = 30 * 60 * 1000;
+    /** 检查间隔的上限；续期间隔更短时按续期间隔检查 */
+    private static final long CHECK_INTERVAL_MILLIS = 60 * 1000;
+    /** 续期间隔的下限；keep_alive 不足其两倍时无法在卸载前续期，不做预热 */
+    private static final long MIN_REFRESH_MILLIS = 5 * 1000;
+    /** keep_alive 为常驻时也定期续期，服务器重启后能重新载入 */
+    private static final long MAX_REFRESH_MILLIS = 10 * 60 * 1000;
+    /** 未设置 keep_alive 时 Ollama 的默认保留时长 */
+    private static final long DEFAULT_KEEP_ALIVE_MILLIS = 5 * 60 * 1000;
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|s|m|h)");
+
+    /** 地址 -> 上次预加载成功的时间 */
+    private final Map<ChatEndpoint, Long> lastLoaded = new ConcurrentHashMap<>();
+    private final Set<ChatEndpoint> loading = ConcurrentHashMap.newKeySet();
+    private volatile long lastActive;
+    private ScheduledFuture<?> task;
+    /** 每次停止后加一，旧的检查不再安排下一次 */
+    private long generation;
+
+    public static ModelWarmupService getInstance() {
+        return ApplicationManager.getApplication().getService(ModelWarmupService.class);
+    }
+
+    /**
+     * IDE 获得焦点时视为一次活动
+     */
+    public static final class ActivationListener implements ApplicationActivationListener {
+        @Override
+        public void applicationActivated(@NotNull IdeFrame ideFrame) {
+            if (isEnabled()) getInstance().onActivity();
+        }
+    }
+
+    /**
+     * 记录一次用户活动；模型可能已被卸载时立即预加载
+     */
+    public void onActivity() {
+        lastActive = System.currentTimeMillis();
+        if (!isEnabled()) return;
+        synchronized (this) {
+            if (task == null) {
+                long gen = generation;
+                task = AppExecutorUtil.getAppScheduledExecutorService().schedule(() -> tick(gen), 0, TimeUnit.MILLISECONDS);
+                return;
+            }
+        }
+        AppExecutorUtil.getAppExecutorService().execute(this::check);
+    }
+
+    private static boolean isEnabled() {
+        PandaCoderAISettings s = PandaCoderAISettings.getInstance();
+        return s.isEnableAiChat() && s.isOllamaWarmupEnabled() && OllamaChatProvider.TYPE.equals(s.getAiProviderType());
+    }
+
+    /**
+     * 定时检查，按当前的续期间隔安排下一次
+     */
+    private void tick(long gen) {
+        long delay = check();
+        synchronized (this) {
+            if (gen != generation || task == null) return;
+            if (delay < 0) {
+                stop();
+                return;
+            }
+            task = AppExecutorUtil.getAppScheduledExecutorService().schedule(() -> tick(gen), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 为到期的地址预加载模型
+     * @return 下次检查的延迟；应停止预热时返回 -1
+     */
+    private long check() {
+        long now = System.currentTimeMillis();
+        if (!isEnabled() || now - lastActive > IDLE_MILLIS) {
+            stop();
+            return -1;
+        }
+        String keepAlive = PandaCoderAISettings.getInstance().getOllamaKeepAlive();
+        long refresh = refreshMillis(keepAlive);
+        if (refresh < 0) {
+            // keep_alive 为 0 或过短时模型在续期前就会卸载，预热没有意义
+            stop();
+            return -1;
+        }
+        EndpointRouter router = EndpointRouter.getInstance();
+        for (ChatEndpoint endpoint : router.endpoints()) {
+            Long last = lastLoaded.get(endpoint);
+            if (last != null && now - last < refresh) continue;
+            if (!router.isAvailable(endpoint) || !loading.add(endpoint)) continue;
+            AppExecutorUtil.getAppExecutorService().execute(() -> preload(endpoint, keepAlive));
+        }
+        return Math.min(CHECK_INTERVAL_MILLIS, refresh);
+    }
+
+    private void preload(ChatEndpoint endpoint, String keepAlive) {
+        try {
+            OllamaChatClient.preload(endpoint.baseUrl, endpoint.model, keepAlive);
+            lastLoaded.put(endpoint, System.currentTimeMillis());
+        } catch (Exception e) {
+            LOG.debug("预加载模型失败: " + endpoint, e);
+        } finally {
+            loading.remove(endpoint);
+        }
+    }
+
+    private synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+            generation++;
+        }
+    }
+
+    /**
+     * 续期间隔：keep_alive 的一半；常驻（负数）时取上限，为 0 或短于下限的两倍时返回 -1
+     */
+    static long refreshMillis(String keepAlive) {
+        long keep = parseDurationMillis(keepAlive);
+        if (keep == 0) return -1;
+        if (keep < 0) return MAX_REFRESH_MILLIS;
+        if (keep < 2 * MIN_REFRESH_MILLIS) return -1;
+        return Math.min(MAX_REFRESH_MILLIS, keep / 2);
+    }
+
+    /**
+     * keep_alive 不为 0 但短到无法在模型卸载前续期
+     */
+    public static boolean isKeepAliveTooShort(String keepAlive) {
+        long keep = parseDurationMillis(keepAlive);
+        return keep > 0 && keep < 2 * MIN_REFRESH_MILLIS;
+    }
+
+    /**
+     * 解析 keep_alive：纯数字为秒数，否则为 30m、1h30m 形式的时长；负数表示常驻，无法解析时按服务端默认值
+     */
+    static long parseDurationMillis(String keepAlive) {
+        if (keepAlive == null || keepAlive.isBlank()) return DEFAULT_KEEP_ALIVE_MILLIS;
+        String k = keepAlive.trim();
+        if (k.startsWith("-")) return -1;
+        if (k.matches("\\d+")) return Long.parseLong(k) * 1000;
+        Matcher m = DURATION_PART.matcher(k);
+        double millis = 0;
+        int end = 0;
+        while (m.find() && m.start() == end) {
+            double value = Double.parseDouble(m.group(1));
+            switch (m.group(2)) {
+                case "h":
+                    millis += value * 3_600_000;
+                    break;
+                case "m":
+                    millis += value * 60_000;
+                    break;
+                case "s":
+                    millis += value * 1000;
+                    break;
+                default:
+                    millis += value;
+            }
+            end = m.end();
+        }
+        return end == k.length() ? (long) millis : DEFAULT_KEEP_ALIVE_MILLIS;
+    }
+
+    @Override
+    public void dispose() {
+        stop();
+    }
+}
@@ -3,15 +3,17 @@ package com.poeticcoder.ai.chat;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 
 import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URI;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Ollama Chat 客户端
@@ -19,15 +21,6 @@ import java.util.List;
  */
 public class OllamaChatClient {
 
-    public static class Message {
-        public String role;
-        public String content;
-        public Message(String role, String content) { 
-            this.role = role; 
-            this.content = content; 
-        }
-    }
-
     /**
      * 发送聊天请求到 Ollama 服务
      * @param baseUrl Ollama 服务地址
@@ -35,48 +28,198 @@ public class OllamaChatClient {
      * @param messages 消息列表
      * @return AI 回复内容
      */
-    public static String chat(String baseUrl, String model, List<Message> messages) throws Exception {
+    public static String chat(String baseUrl, String model, List<ChatMessage> messages) throws Exception {
+        return chat(baseUrl, model, messages, null, new ChatRequestHandle());
+    }
+
+    /**
+     * 在后台发起非流式聊天请求
+     * @param keepAlive 请求结束后模型在内存中保留的时长，为空时使用服务端默认值；
+     *                  不传会把模型的过期时间重置为服务端默认值
+     * @return 请求句柄，可用于获取完整回复或中途取消
+     */
+    public static ChatRequestHandle chatAsync(String baseUrl, String model, List<ChatMessage> messages,
+                                              String keepAlive) {
+        ChatRequestHandle handle = new ChatRequestHandle();
+        ChatHttpTransport.getInstance().execute(handle, () -> chat(baseUrl, model, messages, keepAlive, handle));
+        return handle;
+    }
+
+    private static String chat(String baseUrl, String model, List<ChatMessage> messages, String keepAlive,
+                               ChatRequestHandle handle) throws Exception {
         String endpoint = normalizeEndpoint(baseUrl);
+        HttpResponse<InputStream> resp = send(endpoint, buildRequest(model, messages, false, keepAlive), handle);
+        String body = ChatHttpTransport.readBody(resp.body());
+
+        if (resp.statusCode() != 200) {
+            throw new RuntimeException("Ollama Chat 请求失败: HTTP " + resp.statusCode() + " - " + body);
+        }
+
+        return parseChatResponse(body);
+    }
+
+    /**
+     * 以流式方式发送聊天请求到 Ollama 服务
+     * stream=true 时 /api/chat 逐行返回 NDJSON，每行携带一段增量内容，最后一行 done=true
+     * @param baseUrl Ollama 服务地址
+     * @param model 模型名称
+     * @param messages 消息列表
+     * @param onDelta 每收到一段增量内容时回调（在调用线程中执行）
+     * @return 完整的 AI 回复内容
+     */
+    public static String chatStream(String baseUrl, String model, List<ChatMessage> messages,
+                                    Consumer<String> onDelta) throws Exception {
+        return chatStream(baseUrl, model, messages, null, onDelta, new ChatRequestHandle());
+    }
+
+    /**
+     * 在后台发起流式聊天请求
+     * @return 请求句柄，可用于获取完整回复或中途取消
+     */
+    public static ChatRequestHandle streamChat(String baseUrl, String model, List<ChatMessage> messages,
+                                               Consumer<String> onDelta) {
+        return streamChat(baseUrl, model, messages, null, onDelta);
+    }
+
+    /**
+     * 在后台发起流式聊天请求
+     * @param keepAlive 请求结束后模型在内存中保留的时长（如 30m、-1），期间下一轮请求可复用相同前缀的 KV 缓存；
+     *                  为空时使用服务端默认值
+     * @return 请求句柄，可用于获取完整回复、token 用量或中途取消
+     */
+    public static ChatRequestHandle streamChat(String baseUrl, String model, List<ChatMessage> messages,
+                                               String keepAlive, Consumer<String> onDelta) {
+        ChatRequestHandle handle = new ChatRequestHandle();
+        ChatHttpTransport.getInstance().execute(handle,
+                () -> chatStream(baseUrl, model, messages, keepAlive, onDelta, handle));
+        return handle;
+    }
+
+    private static String chatStream(String baseUrl, String model, List<ChatMessage> messages, String keepAlive,
+                                     Consumer<String> onDelta, ChatRequestHandle handle) throws Exception {
+        String endpoint = normalizeEndpoint(baseUrl);
+        HttpResponse<InputStream> resp = send(endpoint, buildRequest(model, messages, true, keepAlive), handle);
+
+        if (resp.statusCode() != 200) {
+            throw new RuntimeException("Ollama Chat 请求失败: HTTP " + resp.statusCode() + " - "
+                    + ChatHttpTransport.readBody(resp.body()));
+        }
 
+        ChatHttpTransport transport = ChatHttpTransport.getInstance();
+        StringBuilder full = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                transport.withIdleTimeout(resp.body(), transport.timeoutFor("ollama")), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null && !handle.isCancelled()) {
+                if (line.isBlank()) continue;
+                JsonObject chunk = JsonParser.parseString(line).getAsJsonObject();
+                if (chunk.has("error")) {
+                    throw new RuntimeException("Ollama Chat 流式响应错误: " + chunk.get("error").getAsString());
+                }
+                String delta = parseStreamDelta(chunk);
+                if (!delta.isEmpty()) {
+                    full.append(delta);
+                    onDelta.accept(delta);
+                }
+                if (chunk.has("done") && chunk.get("done").getAsBoolean()) {
+                    handle.setUsage(parseUsage(chunk));
+                    break;
+                }
+            }
+        }
+        return full.toString();
+    }
+
+    /**
+     * 在后台预填充：num_predict=1 只生成一个 token，服务端计算这些消息的 KV 并在 keep_alive 期间保留，
+     * 之后以它们为前缀的请求只需计算新增部分
+     * @return 请求句柄，回复内容无意义，完成后可从中读取 token 用量
+     */
+    public static ChatRequestHandle prefill(String baseUrl, String model, List<ChatMessage> messages,
+                                            String keepAlive) {
+        ChatRequestHandle handle = new ChatRequestHandle();
+        ChatHttpTransport.getInstance().execute(handle, () -> {
+            JsonObject req = buildRequest(model, messages, false, keepAlive);
+            JsonObject options = new JsonObject();
+            options.addProperty("num_predict", 1);
+            req.add("options", options);
+            HttpResponse<InputStream> resp = send(normalizeEndpoint(baseUrl), req, handle);
+            String body = ChatHttpTransport.readBody(resp.body());
+            if (resp.statusCode() != 200) {
+                throw new RuntimeException("Ollama 预填充失败: HTTP " + resp.statusCode() + " - " + body);
+            }
+            handle.setUsage(parseUsage(JsonParser.parseString(body).getAsJsonObject()));
+            return "";
+        });
+        return handle;
+    }
+
+    private static JsonObject buildRequest(String model, List<ChatMessage> messages, boolean stream, String keepAlive) {
         JsonObject req = new JsonObject();
         req.addProperty("model", model);
         JsonArray msgs = new JsonArray();
-        for (Message m : messages) {
+        for (ChatMessage m : messages) {
             JsonObject jm = new JsonObject();
             jm.addProperty("role", m.role);
             jm.addProperty("content", m.content);
             msgs.add(jm);
         }
         req.add("messages", msgs);
-        req.addProperty("stream", false);
-
-        URL url = URI.create(endpoint).toURL();
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setDoOutput(true);
-        conn.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
-        conn.setConnectTimeout(20000);
-        conn.setReadTimeout(60000);
+        req.addProperty("stream", stream);
+        addKeepAlive(req, keepAlive);
+        return req;
+    }
 
-        try (OutputStream os = conn.getOutputStream()) {
-            os.write(req.toString().getBytes(StandardCharsets.UTF_8));
+    private static void addKeepAlive(JsonObject req, String keepAlive) {
+        if (keepAlive == null || keepAlive.isBlank()) return;
+        String k = keepAlive.trim();
+        // 纯数字按秒数传递，Ollama 对字符串只接受带单位的时长
+        if (k.matches("-?\\d+")) {
+            req.addProperty("keep_alive", Long.parseLong(k));
+        } else {
+            req.addProperty("keep_alive", k);
         }
+    }
+
+    private static HttpResponse<InputStream> send(String endpoint, JsonObject req, ChatRequestHandle handle)
+            throws Exception {
+        ChatHttpTransport transport = ChatHttpTransport.getInstance();
+        return transport.postJson(endpoint, null, req.toString(), transport.timeoutFor("ollama"), handle);
+    }
 
-        int code = conn.getResponseCode();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(
-            code == 200 ? conn.getInputStream() : conn.getErrorStream(), StandardCharsets.UTF_8));
-        StringBuilder sb = new StringBuilder();
-        String line;
-        while ((line = reader.readLine()) != null) {
-            sb.append(line);
+    /**
+     * 探测服务是否可用：GET /api/tags 返回 200
+     */
+    public static void probe(String baseUrl, Duration timeout) throws IOException, InterruptedException {
+        int status = ChatHttpTransport.getInstance().get(apiEndpoint(baseUrl, "tags"), null, timeout);
+        if (status != 200) {
+            throw new IOException("Ollama 服务不可用: HTTP " + status);
         }
-        reader.close();
+    }
 
-        if (code != 200) {
-            throw new RuntimeException("Ollama Chat 请求失败: HTTP " + code + " - " + sb);
+    /**
+     * 预加载模型：不带 prompt 的 /api/generate 只把模型载入内存，并按 keep_alive 重新计时，不做推理。
+     * 模型已在内存中时立即返回
+     * @param keepAlive 模型在内存中保留的时长，为空时使用服务端默认值
+     */
+    public static void preload(String baseUrl, String model, String keepAlive) throws Exception {
+        JsonObject req = new JsonObject();
+        req.addProperty("model", model);
+        req.addProperty("stream", false);
+        addKeepAlive(req, keepAlive);
+        HttpResponse<InputStream> resp = send(apiEndpoint(baseUrl, "generate"), req, new ChatRequestHandle());
+        String body = ChatHttpTransport.readBody(resp.body());
+        if (resp.statusCode() != 200) {
+            throw new RuntimeException("Ollama 模型预加载失败: HTTP " + resp.statusCode() + " - " + body);
         }
+    }
 
-        return parseChatResponse(sb.toString());
+    /**
+     * 与 /api/chat 同级的其他接口地址
+     */
+    private static String apiEndpoint(String baseUrl, String name) {
+        String chat = normalizeEndpoint(baseUrl);
+        return chat.substring(0, chat.indexOf("/api/chat")) + "/api/" + name;
     }
 
     private static String normalizeEndpoint(String baseUrl) {
@@ -89,7 +232,7 @@ public class OllamaChatClient {
         return u + "api/chat";
     }
 
-    private static String parseChatResponse(String jsonStr) {
+    static String parseChatResponse(String jsonStr) {
         Gson gson = new Gson();
         JsonObject json = gson.fromJson(jsonStr, JsonObject.class);
         if (json.has("message")) {
@@ -99,4 +242,23 @@ public class OllamaChatClient {
         if (json.has("content")) return json.get("content").getAsString();
         return jsonStr;
     }
+
+    /**
+     * done=true 的最后一行：prompt_eval_count 只统计未命中 KV 缓存、实际计算的提示词 token，耗时单位为纳秒
+     */
+    private static ChatUsage parseUsage(JsonObject chunk) {
+        if (!chunk.has("prompt_eval_count") && !chunk.has("eval_count")) return null;
+        int evaluated = chunk.has("prompt_eval_count") ? chunk.get("prompt_eval_count").getAsInt() : -1;
+        long millis = chunk.has("prompt_eval_duration") ? chunk.get("prompt_eval_duration").getAsLong() / 1_000_000 : -1;
+        int completion = chunk.has("eval_count") ? chunk.get("eval_count").getAsInt() : -1;
+        return new ChatUsage(-1, -1, evaluated, millis, completion);
+    }
+
+    private static String parseStreamDelta(JsonObject chunk) {
+        if (chunk.has("message")) {
+            JsonObject msg = chunk.getAsJsonObject("message");
+            if (msg.has("content") && !msg.get("content").isJsonNull()) return msg.get("content").getAsString();
+        }
+        return "";
+    }
 }
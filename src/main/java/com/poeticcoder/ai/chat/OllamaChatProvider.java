@@ -0,0 +1,51 @@
+package com.poeticcoder.ai.chat;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.poeticcoder.ai.settings.PandaCoderAISettings;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Ollama /api/chat
+ */
+public final class OllamaChatProvider implements ChatProvider {
+
+    public static final String TYPE = "ollama";
+    static final OllamaChatProvider INSTANCE = new OllamaChatProvider();
+
+    private OllamaChatProvider() {
+    }
+
+    @Override
+    public String type() {
+        return TYPE;
+    }
+
+    @Override
+    public ChatRequestHandle streamChat(ChatEndpoint endpoint, List<ChatMessage> messages, Consumer<String> onDelta) {
+        return OllamaChatClient.streamChat(endpoint.baseUrl, endpoint.model, messages, keepAlive(), onDelta);
+    }
+
+    @Override
+    public ChatRequestHandle chat(ChatEndpoint endpoint, List<ChatMessage> messages) {
+        return OllamaChatClient.chatAsync(endpoint.baseUrl, endpoint.model, messages, keepAlive());
+    }
+
+    @Override
+    public ChatRequestHandle prefill(ChatEndpoint endpoint, List<ChatMessage> messages) {
+        return OllamaChatClient.prefill(endpoint.baseUrl, endpoint.model, messages, keepAlive());
+    }
+
+    @Override
+    public void probe(ChatEndpoint endpoint, Duration timeout) throws IOException, InterruptedException {
+        OllamaChatClient.probe(endpoint.baseUrl, timeout);
+    }
+
+    private static String keepAlive() {
+        if (ApplicationManager.getApplication() == null) return null;
+        return PandaCoderAISettings.getInstance().getOllamaKeepAlive();
+    }
+}
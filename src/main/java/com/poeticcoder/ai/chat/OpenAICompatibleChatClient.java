@@ -2,17 +2,24 @@ package com.poeticcoder.ai.chat;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 
 import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URI;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 /**
  * OpenAI 兼容 API 客户端
@@ -20,22 +27,15 @@ import java.util.List;
  */
 public class OpenAICompatibleChatClient {
 
-    public static class Message {
-        public String role;
-        public String content;
-
-        public Message(String role, String content) {
-            this.role = role;
-            this.content = content;
-        }
-    }
+    /** 以 400 拒绝 stream_options 的地址，之后的流式请求不再携带该字段 */
+    private static final Set<String> NO_STREAM_OPTIONS = ConcurrentHashMap.newKeySet();
 
     /**
      * 快速测试接口
      */
     public static String quickTest(String baseUrl, String apiKey, String model, String content) throws Exception {
-        List<Message> messages = new ArrayList<>();
-        messages.add(new Message("user", content));
+        List<ChatMessage> messages = new ArrayList<>();
+        messages.add(new ChatMessage("user", content));
         return chat(baseUrl, apiKey, model, messages);
     }
 
@@ -47,13 +47,171 @@ public class OpenAICompatibleChatClient {
      * @param messages 消息列表
      * @return AI 回复内容
      */
-    public static String chat(String baseUrl, String apiKey, String model, List<Message> messages) throws Exception {
+    public static String chat(String baseUrl, String apiKey, String model, List<ChatMessage> messages) throws Exception {
+        return chat(baseUrl, apiKey, model, messages, new ChatRequestHandle());
+    }
+
+    /**
+     * 在后台发起非流式聊天请求
+     * @return 请求句柄，可用于获取完整回复或中途取消
+     */
+    public static ChatRequestHandle chatAsync(String baseUrl, String apiKey, String model,
+                                              List<ChatMessage> messages) {
+        ChatRequestHandle handle = new ChatRequestHandle();
+        ChatHttpTransport.getInstance().execute(handle, () -> chat(baseUrl, apiKey, model, messages, handle));
+        return handle;
+    }
+
+    private static String chat(String baseUrl, String apiKey, String model, List<ChatMessage> messages,
+                               ChatRequestHandle handle) throws Exception {
+        String endpoint = normalizeEndpoint(baseUrl);
+        HttpResponse<InputStream> resp = send(endpoint, apiKey, buildRequest(model, messages, false), handle);
+        String body = ChatHttpTransport.readBody(resp.body());
+
+        if (resp.statusCode() != 200) {
+            throw new RuntimeException("Chat API 请求失败: HTTP " + resp.statusCode() + " - " + body);
+        }
+
+        return parseChatResponse(body);
+    }
+
+    /**
+     * 以 SSE 流式方式发送聊天请求
+     * stream=true 时服务端逐条推送 "data: {...}" 事件，choices[0].delta.content 为增量内容，以 "data: [DONE]" 结束
+     * @param baseUrl API 基础地址
+     * @param apiKey API 密钥（可选）
+     * @param model 模型名称
+     * @param messages 消息列表
+     * @param onDelta 每收到一段增量内容时回调（在调用线程中执行）
+     * @return 完整的 AI 回复内容
+     */
+    public static String chatStream(String baseUrl, String apiKey, String model, List<ChatMessage> messages,
+                                    Consumer<String> onDelta) throws Exception {
+        return chatStream(baseUrl, apiKey, model, messages, onDelta, new ChatRequestHandle());
+    }
+
+    /**
+     * 在后台发起 SSE 流式聊天请求
+     * @return 请求句柄，可用于获取完整回复或中途取消
+     */
+    public static ChatRequestHandle streamChat(String baseUrl, String apiKey, String model, List<ChatMessage> messages,
+                                               Consumer<String> onDelta) {
+        ChatRequestHandle handle = new ChatRequestHandle();
+        ChatHttpTransport.getInstance().execute(handle,
+                () -> chatStream(baseUrl, apiKey, model, messages, onDelta, handle));
+        return handle;
+    }
+
+    private static String chatStream(String baseUrl, String apiKey, String model, List<ChatMessage> messages,
+                                     Consumer<String> onDelta, ChatRequestHandle handle) throws Exception {
         String endpoint = normalizeEndpoint(baseUrl);
+        boolean includeUsage = !NO_STREAM_OPTIONS.contains(endpoint);
+        HttpResponse<InputStream> resp = send(endpoint, apiKey,
+                buildRequest(model, messages, true, includeUsage), handle);
+        if (resp.statusCode() == 400 && includeUsage) {
+            // 部分网关与较旧的自建服务拒绝不认识的字段；去掉 stream_options 重试一次，只是不再统计缓存命中
+            String body = ChatHttpTransport.readBody(resp.body());
+            resp = send(endpoint, apiKey, buildRequest(model, messages, true, false), handle);
+            if (resp.statusCode() == 200) {
+                NO_STREAM_OPTIONS.add(endpoint);
+            } else if (resp.statusCode() == 400) {
+                // 去掉后仍然失败，说明不是该字段的问题，报告第一次的错误
+                ChatHttpTransport.readBody(resp.body());
+                throw new RuntimeException("Chat API 请求失败: HTTP 400 - " + body);
+            }
+        }
+
+        if (resp.statusCode() != 200) {
+            throw new RuntimeException("Chat API 请求失败: HTTP " + resp.statusCode() + " - "
+                    + ChatHttpTransport.readBody(resp.body()));
+        }
+
+        ChatHttpTransport transport = ChatHttpTransport.getInstance();
+        StringBuilder full = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                transport.withIdleTimeout(resp.body(), transport.timeoutFor("openai")), StandardCharsets.UTF_8))) {
+            StringBuilder event = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null && !handle.isCancelled()) {
+                // 空行表示一个事件结束；一个事件可能由多行 data: 组成
+                if (line.isEmpty()) {
+                    if (event.length() > 0 && !handleStreamEvent(event.toString(), full, onDelta, handle)) break;
+                    event.setLength(0);
+                    continue;
+                }
+                if (line.startsWith(":")) continue; // SSE 注释/心跳
+                if (line.startsWith("data:")) {
+                    if (event.length() > 0) event.append('\n');
+                    event.append(line.substring(5).trim());
+                } else if (line.startsWith("{")) {
+                    // 部分网关在出错时不走 SSE 格式，直接返回 JSON
+                    event.append(line);
+                }
+            }
+            if (event.length() > 0) handleStreamEvent(event.toString(), full, onDelta, handle);
+        }
+        return full.toString();
+    }
 
+    /**
+     * 处理一个 SSE 事件
+     * @return false 表示流已结束（收到 [DONE]）
+     */
+    private static boolean handleStreamEvent(String data, StringBuilder full, Consumer<String> onDelta,
+                                             ChatRequestHandle handle) {
+        if ("[DONE]".equals(data)) return false;
+        JsonObject json = JsonParser.parseString(data).getAsJsonObject();
+        if (json.has("error")) {
+            JsonElement err = json.get("error");
+            String msg = err.isJsonObject() && err.getAsJsonObject().has("message")
+                    ? err.getAsJsonObject().get("message").getAsString() : err.toString();
+            throw new RuntimeException("Chat API 流式响应错误: " + msg);
+        }
+        String delta = parseStreamDelta(json);
+        if (!delta.isEmpty()) {
+            full.append(delta);
+            onDelta.accept(delta);
+        }
+        ChatUsage usage = parseUsage(json);
+        if (usage != null) handle.setUsage(usage);
+        return true;
+    }
+
+    /**
+     * 在后台预填充：max_tokens=1 只生成一个 token，vLLM、SGLang 等服务的自动前缀缓存以及 OpenAI、DeepSeek 的
+     * 提示词缓存会记下这些消息，之后以它们为前缀的请求只需计算新增部分
+     * @return 请求句柄，回复内容无意义，完成后可从中读取 token 用量
+     */
+    public static ChatRequestHandle prefill(String baseUrl, String apiKey, String model, List<ChatMessage> messages) {
+        ChatRequestHandle handle = new ChatRequestHandle();
+        ChatHttpTransport.getInstance().execute(handle, () -> {
+            JsonObject req = buildRequest(model, messages, false);
+            req.addProperty("max_tokens", 1);
+            HttpResponse<InputStream> resp = send(normalizeEndpoint(baseUrl), apiKey, req, handle);
+            String body = ChatHttpTransport.readBody(resp.body());
+            if (resp.statusCode() != 200) {
+                throw new RuntimeException("Chat API 预填充失败: HTTP " + resp.statusCode() + " - " + body);
+            }
+            ChatUsage usage = parseUsage(JsonParser.parseString(body).getAsJsonObject());
+            if (usage != null) handle.setUsage(usage);
+            return "";
+        });
+        return handle;
+    }
+
+    private static JsonObject buildRequest(String model, List<ChatMessage> messages, boolean stream) {
+        return buildRequest(model, messages, stream, false);
+    }
+
+    /**
+     * @param includeUsage 流式请求是否要求最后一个事件附带 usage
+     */
+    private static JsonObject buildRequest(String model, List<ChatMessage> messages, boolean stream,
+                                           boolean includeUsage) {
         JsonObject req = new JsonObject();
         req.addProperty("model", model);
         JsonArray msgs = new JsonArray();
-        for (Message m : messages) {
+        for (ChatMessage m : messages) {
             JsonObject jm = new JsonObject();
             jm.addProperty("role", m.role);
             jm.addProperty("content", m.content);
@@ -61,37 +219,45 @@ public class OpenAICompatibleChatClient {
         }
         req.add("messages", msgs);
         req.addProperty("temperature", 0.2);
+        if (stream) {
+            req.addProperty("stream", true);
+        }
+        if (stream && includeUsage) {
+            // 最后一个事件附带 usage，用于统计前缀缓存命中
+            JsonObject options = new JsonObject();
+            options.addProperty("include_usage", true);
+            req.add("stream_options", options);
+        }
+        return req;
+    }
 
-        URL url = URI.create(endpoint).toURL();
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setDoOutput(true);
-        conn.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+    private static HttpResponse<InputStream> send(String endpoint, String apiKey, JsonObject req,
+                                                  ChatRequestHandle handle) throws Exception {
+        Map<String, String> headers = new HashMap<>();
         if (apiKey != null && !apiKey.isEmpty()) {
-            conn.setRequestProperty("Authorization", "Bearer " + apiKey);
+            headers.put("Authorization", "Bearer " + apiKey);
         }
-        conn.setConnectTimeout(20000);
-        conn.setReadTimeout(60000);
-
-        try (OutputStream os = conn.getOutputStream()) {
-            os.write(req.toString().getBytes(StandardCharsets.UTF_8));
+        if (req.has("stream")) {
+            headers.put("Accept", "text/event-stream");
         }
+        ChatHttpTransport transport = ChatHttpTransport.getInstance();
+        return transport.postJson(endpoint, headers, req.toString(), transport.timeoutFor("openai"), handle);
+    }
 
-        int code = conn.getResponseCode();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(
-            code == 200 ? conn.getInputStream() : conn.getErrorStream(), StandardCharsets.UTF_8));
-        StringBuilder sb = new StringBuilder();
-        String line;
-        while ((line = reader.readLine()) != null) {
-            sb.append(line);
+    /**
+     * 探测服务是否可用：GET /v1/models 返回 200
+     */
+    public static void probe(String baseUrl, String apiKey, Duration timeout) throws IOException, InterruptedException {
+        String chat = normalizeEndpoint(baseUrl);
+        String models = chat.substring(0, chat.indexOf("chat/completions")) + "models";
+        Map<String, String> headers = new HashMap<>();
+        if (apiKey != null && !apiKey.isEmpty()) {
+            headers.put("Authorization", "Bearer " + apiKey);
         }
-        reader.close();
-
-        if (code != 200) {
-            throw new RuntimeException("Chat API 请求失败: HTTP " + code + " - " + sb);
+        int status = ChatHttpTransport.getInstance().get(models, headers, timeout);
+        if (status != 200) {
+            throw new IOException("Chat API 服务不可用: HTTP " + status);
         }
-
-        return parseChatResponse(sb.toString());
     }
 
     private static String normalizeEndpoint(String baseUrl) {
@@ -110,7 +276,7 @@ public class OpenAICompatibleChatClient {
         return u + "v1/chat/completions";
     }
 
-    private static String parseChatResponse(String jsonStr) {
+    static String parseChatResponse(String jsonStr) {
         Gson gson = new Gson();
         JsonObject json = gson.fromJson(jsonStr, JsonObject.class);
         if (json.has("error")) {
@@ -140,4 +306,40 @@ public class OpenAICompatibleChatClient {
         }
         return jsonStr;
     }
+
+    /**
+     * 流式 usage：命中缓存的数量在 prompt_tokens_details.cached_tokens（OpenAI、vLLM），
+     * DeepSeek 使用 prompt_cache_hit_tokens
+     */
+    private static ChatUsage parseUsage(JsonObject json) {
+        if (!json.has("usage") || !json.get("usage").isJsonObject()) return null;
+        JsonObject u = json.getAsJsonObject("usage");
+        int prompt = intOr(u, "prompt_tokens");
+        int cached = -1;
+        if (u.has("prompt_tokens_details") && u.get("prompt_tokens_details").isJsonObject()) {
+            cached = intOr(u.getAsJsonObject("prompt_tokens_details"), "cached_tokens");
+        }
+        if (cached < 0) cached = intOr(u, "prompt_cache_hit_tokens");
+        int evaluated = prompt >= 0 && cached >= 0 ? prompt - cached : -1;
+        return new ChatUsage(prompt, cached, evaluated, -1, intOr(u, "completion_tokens"));
+    }
+
+    private static int intOr(JsonObject o, String key) {
+        return o.has(key) && o.get(key).isJsonPrimitive() ? o.get(key).getAsInt() : -1;
+    }
+
+    private static String parseStreamDelta(JsonObject json) {
+        if (!json.has("choices")) return "";
+        JsonArray choices = json.getAsJsonArray("choices");
+        if (choices.size() == 0) return "";
+        JsonObject c0 = choices.get(0).getAsJsonObject();
+        if (c0.has("delta")) {
+            JsonObject d = c0.getAsJsonObject("delta");
+            if (d.has("content") && !d.get("content").isJsonNull()) return d.get("content").getAsString();
+            return "";
+        }
+        // 某些实现的流式事件直接返回 text
+        if (c0.has("text") && !c0.get("text").isJsonNull()) return c0.get("text").getAsString();
+        return "";
+    }
 }
@@ -0,0 +1,43 @@
+package com.poeticcoder.ai.chat;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * OpenAI 兼容的 /v1/chat/completions，适用于 OpenAI、DeepSeek、Qwen、vLLM 等服务
+ */
+public final class OpenAICompatibleChatProvider implements ChatProvider {
+
+    public static final String TYPE = "openai";
+    static final OpenAICompatibleChatProvider INSTANCE = new OpenAICompatibleChatProvider();
+
+    private OpenAICompatibleChatProvider() {
+    }
+
+    @Override
+    public String type() {
+        return TYPE;
+    }
+
+    @Override
+    public ChatRequestHandle streamChat(ChatEndpoint endpoint, List<ChatMessage> messages, Consumer<String> onDelta) {
+        return OpenAICompatibleChatClient.streamChat(endpoint.baseUrl, endpoint.apiKey, endpoint.model, messages, onDelta);
+    }
+
+    @Override
+    public ChatRequestHandle chat(ChatEndpoint endpoint, List<ChatMessage> messages) {
+        return OpenAICompatibleChatClient.chatAsync(endpoint.baseUrl, endpoint.apiKey, endpoint.model, messages);
+    }
+
+    @Override
+    public ChatRequestHandle prefill(ChatEndpoint endpoint, List<ChatMessage> messages) {
+        return OpenAICompatibleChatClient.prefill(endpoint.baseUrl, endpoint.apiKey, endpoint.model, messages);
+    }
+
+    @Override
+    public void probe(ChatEndpoint endpoint, Duration timeout) throws IOException, InterruptedException {
+        OpenAICompatibleChatClient.probe(endpoint.baseUrl, endpoint.apiKey, timeout);
+    }
+}
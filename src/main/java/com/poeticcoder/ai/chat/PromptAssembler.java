@@ -0,0 +1,44 @@
+package com.poeticcoder.ai.chat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 组装发给模型的消息列表
+ * 顺序固定为：前导 system 消息、历史各轮（每轮附带的项目上下文按原样保留在该轮的用户消息之前）、本轮上下文、本轮用户消息。
+ * 上一轮的请求加上模型的回复恰好是下一轮请求的前缀，Ollama（keep_alive 期间保留 KV 缓存）以及 vLLM、OpenAI 等服务端的
+ * 前缀缓存只需计算新增的尾部。历史中的消息一经发送不再修改
+ */
+public final class PromptAssembler {
+
+    /** 前导说明，内容不随会话变化 */
+    public static final String PREAMBLE = "你是 PandaCoder AI，运行在 IntelliJ IDEA 中的编程助手。"
+            + "使用中文回答，代码放在带语言标记的 Markdown 代码块中。"
+            + "以 “项目上下文” 开头的 system 消息是用户当轮附带的项目代码。";
+    private static final String CONTEXT_PREFIX = "项目上下文:\n\n";
+
+    private PromptAssembler() {
+    }
+
+    /**
+     * 本轮需要追加到会话历史的消息：项目上下文（如有）与用户消息
+     */
+    public static List<ChatMessage> turn(String contextMd, String userText) {
+        List<ChatMessage> turn = new ArrayList<>(2);
+        if (contextMd != null && !contextMd.isEmpty()) {
+            turn.add(new ChatMessage("system", CONTEXT_PREFIX + contextMd));
+        }
+        turn.add(new ChatMessage("user", userText));
+        return turn;
+    }
+
+    /**
+     * 完整的请求消息：前导说明加会话历史，历史的最后一条是本轮的用户消息
+     */
+    public static List<ChatMessage> assemble(List<ChatMessage> history) {
+        List<ChatMessage> messages = new ArrayList<>(history.size() + 1);
+        messages.add(new ChatMessage("system", PREAMBLE));
+        messages.addAll(history);
+        return messages;
+    }
+}
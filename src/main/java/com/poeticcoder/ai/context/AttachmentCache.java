@@ -0,0 +1,132 @@
+package com.poeticcoder.ai.context;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 已解析附件的 LRU 缓存
+ * 键为元素键（例如 class:com.foo.Bar#run），同时记录生成时所在文件的 PSI 修改计数；
+ * 文件改动后计数变化，读取时即视为失效。容量按附件文本占用的字节数计算，超出时淘汰最久未使用的条目。
+ * 线程安全，可在并发的读操作中使用
+ */
+public final class AttachmentCache {
+
+    /** 每个条目除文本外的固定开销估计 */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> map = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public AttachmentCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    private static final class Entry {
+        final ContextAttachment attachment;
+        final long modificationCount;
+        final long weight;
+
+        Entry(ContextAttachment attachment, long modificationCount) {
+            this.attachment = attachment;
+            this.modificationCount = modificationCount;
+            this.weight = weigh(attachment);
+        }
+    }
+
+    /**
+     * 读取缓存；文件已修改或 PSI 已失效时移除条目并返回 null
+     */
+    public synchronized ContextAttachment get(String key, long modificationCount) {
+        Entry e = map.get(key);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        if (e.modificationCount != modificationCount || (e.attachment.psi != null && !e.attachment.psi.isValid())) {
+            map.remove(key);
+            bytes -= e.weight;
+            invalidations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.attachment;
+    }
+
+    public synchronized void put(String key, long modificationCount, ContextAttachment attachment) {
+        Entry e = new Entry(attachment, modificationCount);
+        if (e.weight > maxBytes) return;
+        Entry old = map.put(key, e);
+        if (old != null) bytes -= old.weight;
+        bytes += e.weight;
+        Iterator<Map.Entry<String, Entry>> it = map.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            bytes -= eldest.weight;
+            evictions++;
+        }
+    }
+
+    public synchronized void invalidate(String key) {
+        Entry e = map.remove(key);
+        if (e != null) {
+            bytes -= e.weight;
+            invalidations++;
+        }
+    }
+
+    public synchronized void clear() {
+        invalidations += map.size();
+        map.clear();
+        bytes = 0;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    public synchronized long getInvalidationCount() {
+        return invalidations;
+    }
+
+    public synchronized long getSizeInBytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        long total = hits + misses;
+        return "AttachmentCache{entries=" + map.size() + ", bytes=" + bytes + ", hits=" + hits + ", misses=" + misses
+                + ", hitRate=" + (total == 0 ? 0 : hits * 100 / total) + "%, evictions=" + evictions
+                + ", invalidations=" + invalidations + '}';
+    }
+
+    /**
+     * 按 UTF-16 字符估算占用的字节数
+     */
+    private static long weigh(ContextAttachment att) {
+        long chars = att.head.length() + att.tail.length() + att.markdown.length();
+        for (String s : att.body) chars += s.length();
+        return ENTRY_OVERHEAD + chars * 2;
+    }
+}
@@ -0,0 +1,254 @@
+package com.poeticcoder.ai.context;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * 基于 HuggingFace tokenizer.json 的本地 BPE 计数器
+ * 支持 Qwen、DeepSeek、Llama 3 等使用的 byte-level BPE，以及 Llama 2 / CodeLlama 使用的
+ * SentencePiece 风格 BPE（▁ 前缀 + byte fallback）。只计数，不生成 token id
+ */
+public final class BpeTokenizer implements Tokenizer {
+
+    /** GPT-2 / Llama 3 风格的预分词规则，tokenizer.json 未给出可用规则时使用 */
+    private static final String DEFAULT_SPLIT = "(?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}{1,3}"
+            + "| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+";
+    private static final int MAX_CACHE_SIZE = 50_000;
+    private static final char[] BYTE_TO_UNICODE = buildByteToUnicode();
+
+    private final String name;
+    private final Map<String, Integer> mergeRanks;
+    private final Set<String> vocab;
+    private final boolean byteLevel;
+    private final Pattern split;
+    /** 特殊 token 按整体计 1 个 */
+    private final Pattern specialTokens;
+    private final Map<String, Integer> cache = new ConcurrentHashMap<>();
+
+    private BpeTokenizer(String name, Map<String, Integer> mergeRanks, Set<String> vocab, boolean byteLevel,
+                         Pattern split, Pattern specialTokens) {
+        this.name = name;
+        this.mergeRanks = mergeRanks;
+        this.vocab = vocab;
+        this.byteLevel = byteLevel;
+        this.split = split;
+        this.specialTokens = specialTokens;
+    }
+
+    /**
+     * 从 tokenizer.json 加载
+     * @throws IOException 文件无法读取或不是 BPE 模型
+     */
+    public static BpeTokenizer load(Path file) throws IOException {
+        JsonObject root;
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            root = JsonParser.parseReader(reader).getAsJsonObject();
+        } catch (RuntimeException e) {
+            throw new IOException("无法解析 tokenizer 文件: " + file, e);
+        }
+        JsonObject model = root.has("model") && root.get("model").isJsonObject() ? root.getAsJsonObject("model") : null;
+        if (model == null || !"BPE".equals(stringOf(model, "type"))) {
+            throw new IOException("不支持的 tokenizer 类型（仅支持 BPE）: " + file);
+        }
+
+        Set<String> vocab = new HashSet<>(model.getAsJsonObject("vocab").keySet());
+        Map<String, Integer> ranks = new HashMap<>();
+        JsonArray merges = model.getAsJsonArray("merges");
+        for (int i = 0; i < merges.size(); i++) {
+            JsonElement m = merges.get(i);
+            String left;
+            String right;
+            if (m.isJsonArray()) {
+                left = m.getAsJsonArray().get(0).getAsString();
+                right = m.getAsJsonArray().get(1).getAsString();
+            } else {
+                String s = m.getAsString();
+                int sp = s.indexOf(' ', 1);
+                if (sp < 0) continue;
+                left = s.substring(0, sp);
+                right = s.substring(sp + 1);
+            }
+            ranks.putIfAbsent(pairKey(left, right), i);
+        }
+
+        String pre = String.valueOf(root.get("pre_tokenizer"));
+        boolean byteLevel = pre.contains("ByteLevel") || !model.has("byte_fallback") && !pre.contains("Metaspace");
+        Pattern split = byteLevel ? compileSplit(root.get("pre_tokenizer")) : null;
+
+        List<String> specials = new ArrayList<>();
+        if (root.has("added_tokens") && root.get("added_tokens").isJsonArray()) {
+            for (JsonElement t : root.getAsJsonArray("added_tokens")) {
+                String content = t.isJsonObject() ? stringOf(t.getAsJsonObject(), "content") : null;
+                if (content != null && !content.isEmpty()) specials.add(Pattern.quote(content));
+            }
+        }
+        Pattern specialTokens = specials.isEmpty() ? null : Pattern.compile(String.join("|", specials));
+        return new BpeTokenizer(file.getFileName().toString(), ranks, vocab, byteLevel, split, specialTokens);
+    }
+
+    @Override
+    public int count(CharSequence text) {
+        if (text == null || text.length() == 0) return 0;
+        if (specialTokens == null) {
+            return countPlain(text);
+        }
+        int tokens = 0;
+        int last = 0;
+        Matcher m = specialTokens.matcher(text);
+        while (m.find()) {
+            tokens += countPlain(text.subSequence(last, m.start())) + 1;
+            last = m.end();
+        }
+        return tokens + countPlain(text.subSequence(last, text.length()));
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    private int countPlain(CharSequence text) {
+        if (text.length() == 0) return 0;
+        if (!byteLevel) {
+            // SentencePiece：空格替换为 ▁，并在开头补一个 ▁；按空白切分后逐词计数
+            int tokens = 0;
+            StringBuilder word = new StringBuilder().append('▁');
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == ' ' && word.length() > 1) {
+                    tokens += countWord(word.toString());
+                    word.setLength(0);
+                }
+                word.append(c == ' ' ? '▁' : c);
+            }
+            return tokens + countWord(word.toString());
+        }
+        int tokens = 0;
+        Matcher m = split.matcher(text);
+        while (m.find()) {
+            tokens += countWord(toByteLevel(m.group()));
+        }
+        return tokens;
+    }
+
+    private int countWord(String word) {
+        if (vocab.contains(word)) return 1;
+        Integer cached = cache.get(word);
+        if (cached != null) return cached;
+        int n = bpe(word);
+        if (cache.size() >= MAX_CACHE_SIZE) cache.clear();
+        cache.put(word, n);
+        return n;
+    }
+
+    /**
+     * 按合并优先级反复合并相邻符号，返回最终符号数
+     */
+    private int bpe(String word) {
+        List<String> symbols = new ArrayList<>(word.length());
+        for (int i = 0; i < word.length(); ) {
+            int cp = word.codePointAt(i);
+            symbols.add(new String(Character.toChars(cp)));
+            i += Character.charCount(cp);
+        }
+        while (symbols.size() > 1) {
+            int best = -1;
+            int bestRank = Integer.MAX_VALUE;
+            for (int i = 0; i + 1 < symbols.size(); i++) {
+                Integer rank = mergeRanks.get(pairKey(symbols.get(i), symbols.get(i + 1)));
+                if (rank != null && rank < bestRank) {
+                    bestRank = rank;
+                    best = i;
+                }
+            }
+            if (best < 0) break;
+            symbols.set(best, symbols.get(best) + symbols.remove(best + 1));
+        }
+        if (byteLevel) return symbols.size();
+        // byte fallback：词表中没有的符号按 UTF-8 字节数计
+        int tokens = 0;
+        for (String s : symbols) {
+            tokens += vocab.contains(s) ? 1 : s.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return tokens;
+    }
+
+    private static String toByteLevel(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        char[] chars = new char[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i] = BYTE_TO_UNICODE[bytes[i] & 0xFF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * GPT-2 的字节到可见字符映射
+     */
+    private static char[] buildByteToUnicode() {
+        char[] map = new char[256];
+        int n = 0;
+        for (int b = 0; b < 256; b++) {
+            boolean printable = (b >= '!' && b <= '~') || (b >= 0xA1 && b <= 0xAC) || (b >= 0xAE && b <= 0xFF);
+            map[b] = printable ? (char) b : (char) (256 + n++);
+        }
+        return map;
+    }
+
+    /**
+     * 读取 tokenizer.json 中 Split 预分词器的正则；Java 不支持的写法退回默认规则
+     */
+    private static Pattern compileSplit(JsonElement preTokenizer) {
+        String regex = findSplitRegex(preTokenizer);
+        if (regex != null) {
+            try {
+                return Pattern.compile(regex);
+            } catch (PatternSyntaxException ignored) {
+                // 使用默认规则
+            }
+        }
+        return Pattern.compile(DEFAULT_SPLIT);
+    }
+
+    private static String findSplitRegex(JsonElement e) {
+        if (e == null || !e.isJsonObject()) return null;
+        JsonObject o = e.getAsJsonObject();
+        if ("Split".equals(stringOf(o, "type")) && o.has("pattern") && o.get("pattern").isJsonObject()) {
+            return stringOf(o.getAsJsonObject("pattern"), "Regex");
+        }
+        if (o.has("pretokenizers") && o.get("pretokenizers").isJsonArray()) {
+            for (JsonElement child : o.getAsJsonArray("pretokenizers")) {
+                String r = findSplitRegex(child);
+                if (r != null) return r;
+            }
+        }
+        return null;
+    }
+
+    private static String stringOf(JsonObject o, String key) {
+        JsonElement e = o.get(key);
+        return e != null && e.isJsonPrimitive() ? e.getAsString() : null;
+    }
+
+    private static String pairKey(String left, String right) {
+        return left + '\u0000' + right;
+    }
+}
@@ -0,0 +1,139 @@
+package com.poeticcoder.ai.context;
+
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiClassInitializer;
+import com.intellij.psi.PsiCodeBlock;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiEnumConstant;
+import com.intellij.psi.PsiEnumConstantInitializer;
+import com.intellij.psi.PsiExpression;
+import com.intellij.psi.PsiField;
+import com.intellij.psi.PsiMember;
+import com.intellij.psi.PsiMethod;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 类的结构化摘要
+ * 小类直接按成员拆分全文；大类只保留类声明、字段、方法签名与 Javadoc，方法体折叠为 { ... }，
+ * 只有被 @Class#method 点名的方法保留完整实现。点名的方法排在最前面，预算不足时最后被裁掉
+ */
+final class ClassSkeleton {
+
+    /** 不超过该长度的类直接发送全文 */
+    static final int FULL_TEXT_THRESHOLD = 6000;
+    /** 单个附件读取的源码上限，超出部分不参与装配 */
+    static final int MAX_SOURCE_CHARS = 256 * 1024;
+    /** 字段初始化表达式超过该长度时折叠 */
+    private static final int MAX_INITIALIZER_CHARS = 200;
+    private static final String FOLDED_BODY = "{ ... }";
+
+    private ClassSkeleton() {
+    }
+
+    /**
+     * 拆分类成员，返回 {头部, 尾部}，主体片段写入 body；成员前的空白与注释归入该成员
+     * @param expand 需要保留完整实现的方法名
+     */
+    static String[] split(PsiClass cls, Set<String> expand, List<String> body) {
+        String text = cls.getText();
+        int base = cls.getTextRange().getStartOffset();
+        PsiElement lBrace = cls.getLBrace();
+        PsiElement rBrace = cls.getRBrace();
+        if (lBrace == null) {
+            return new String[]{text, ""};
+        }
+        boolean skeleton = text.length() > FULL_TEXT_THRESHOLD;
+        int headEnd = lBrace.getTextRange().getEndOffset() - base;
+        int pos = headEnd;
+        int total = 0;
+        boolean truncated = false;
+        List<String> expanded = new ArrayList<>();
+        for (PsiElement child = lBrace.getNextSibling(); child != null && child != rBrace; child = child.getNextSibling()) {
+            if (!(child instanceof PsiMember)) continue;
+            int start = child.getTextRange().getStartOffset() - base;
+            int end = child.getTextRange().getEndOffset() - base;
+            boolean full = !skeleton || child instanceof PsiMethod && expand.contains(((PsiMethod) child).getName());
+            String segment = text.substring(pos, start)
+                    + (full ? text.substring(start, end) : summarize((PsiMember) child, text, base));
+            if (total + segment.length() > MAX_SOURCE_CHARS) {
+                truncated = true;
+                break;
+            }
+            total += segment.length();
+            if (skeleton && full) {
+                expanded.add(segment);
+            } else {
+                body.add(segment);
+            }
+            pos = end;
+        }
+        body.addAll(0, expanded);
+        if (truncated && rBrace != null) {
+            // 超出上限的成员直接丢弃，尾部只保留右括号
+            return new String[]{text.substring(0, headEnd), "\n" + text.substring(rBrace.getTextRange().getStartOffset() - base)};
+        }
+        return new String[]{text.substring(0, headEnd), text.substring(pos)};
+    }
+
+    /**
+     * 成员的摘要形式：方法与初始化块折叠方法体，过长的字段初始化折叠为 ...，内部类递归摘要
+     */
+    private static String summarize(PsiMember member, String text, int base) {
+        int start = member.getTextRange().getStartOffset() - base;
+        int end = member.getTextRange().getEndOffset() - base;
+        if (member instanceof PsiMethod) {
+            PsiCodeBlock body = ((PsiMethod) member).getBody();
+            return body == null ? text.substring(start, end) : fold(text, start, body, base);
+        }
+        if (member instanceof PsiClassInitializer) {
+            return fold(text, start, ((PsiClassInitializer) member).getBody(), base);
+        }
+        if (member instanceof PsiEnumConstant) {
+            PsiEnumConstantInitializer init = ((PsiEnumConstant) member).getInitializingClass();
+            if (init != null && init.getTextLength() > MAX_INITIALIZER_CHARS) {
+                return fold(text, start, init, base);
+            }
+            return text.substring(start, end);
+        }
+        if (member instanceof PsiField) {
+            PsiExpression init = ((PsiField) member).getInitializer();
+            if (init != null && init.getTextLength() > MAX_INITIALIZER_CHARS) {
+                return text.substring(start, init.getTextRange().getStartOffset() - base) + "...;";
+            }
+            return text.substring(start, end);
+        }
+        if (member instanceof PsiClass) {
+            return skeletonOf((PsiClass) member, text, base);
+        }
+        return text.substring(start, end);
+    }
+
+    private static String skeletonOf(PsiClass cls, String text, int base) {
+        int start = cls.getTextRange().getStartOffset() - base;
+        int end = cls.getTextRange().getEndOffset() - base;
+        PsiElement lBrace = cls.getLBrace();
+        PsiElement rBrace = cls.getRBrace();
+        if (lBrace == null || rBrace == null) {
+            return text.substring(start, end);
+        }
+        int pos = lBrace.getTextRange().getEndOffset() - base;
+        StringBuilder sb = new StringBuilder(text.substring(start, pos));
+        for (PsiElement child = lBrace.getNextSibling(); child != null && child != rBrace; child = child.getNextSibling()) {
+            if (!(child instanceof PsiMember)) continue;
+            int s = child.getTextRange().getStartOffset() - base;
+            sb.append(text, pos, s).append(summarize((PsiMember) child, text, base));
+            pos = child.getTextRange().getEndOffset() - base;
+        }
+        return sb.append(text, pos, end).toString();
+    }
+
+    private static String fold(String text, int start, PsiElement body, int base) {
+        int bodyStart = body.getTextRange().getStartOffset() - base;
+        int e = bodyStart;
+        while (e > start && Character.isWhitespace(text.charAt(e - 1))) e--;
+        return text.substring(start, e) + " " + FOLDED_BODY;
+    }
+}
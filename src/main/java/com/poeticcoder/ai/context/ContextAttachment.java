@@ -0,0 +1,118 @@
+package com.poeticcoder.ai.context;
+
+import com.intellij.psi.PsiElement;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一段附加到对话中的代码上下文
+ * 内容按语法边界拆成 头部 + 若干主体片段 + 尾部，超出 token 预算时只裁掉末尾的主体片段，
+ * 不会从成员或行的中间截断
+ */
+public class ContextAttachment {
+    public final String id;
+    /** 上下文标签中显示的名称 */
+    public final String label;
+    /** 代码块标题，通常是类的全限定名或文件路径 */
+    public final String path;
+    public final String lang;
+    /** 始终保留的开头部分，例如包声明、import 与类声明 */
+    public final String head;
+    /** 可裁剪的主体片段，每段是一个完整的成员或段落 */
+    public final List<String> body;
+    /** 始终保留的结尾部分，例如类的右括号 */
+    public final String tail;
+    /** 完整内容的 Markdown */
+    public final String markdown;
+    /** 对应的 PSI 元素，可作为 Agent 模式的写入目标 */
+    public final PsiElement psi;
+    /** 去重键，例如 class:com.foo.Bar / file:/path/Bar.java */
+    public final String key;
+    /** 最近一次使用的分词器下的 token 数，附件被缓存或固定时跨发送复用 */
+    private volatile TokenCounts counts;
+
+    public ContextAttachment(String id, String label, String path, String lang, String head, List<String> body,
+                             String tail, PsiElement psi, String key) {
+        this.id = id;
+        this.label = label;
+        this.path = path;
+        this.lang = lang;
+        this.head = head;
+        this.body = body == null ? Collections.emptyList() : body;
+        this.tail = tail;
+        this.psi = psi;
+        this.key = key;
+        this.markdown = render(this.body.size());
+    }
+
+    /**
+     * 完整 Markdown 的 token 数
+     */
+    int fullTokens(Tokenizer tokenizer) {
+        TokenCounts c = counts(tokenizer);
+        if (c.full < 0) c.full = tokenizer.count(markdown);
+        return c.full;
+    }
+
+    /**
+     * 不含主体片段（头部、尾部与省略说明）的 token 数
+     */
+    int frameTokens(Tokenizer tokenizer) {
+        TokenCounts c = counts(tokenizer);
+        if (c.frame < 0) c.frame = tokenizer.count(render(0));
+        return c.frame;
+    }
+
+    int bodyTokens(Tokenizer tokenizer, int index) {
+        TokenCounts c = counts(tokenizer);
+        if (c.body[index] < 0) c.body[index] = tokenizer.count(body.get(index));
+        return c.body[index];
+    }
+
+    private TokenCounts counts(Tokenizer tokenizer) {
+        TokenCounts c = counts;
+        if (c == null || c.tokenizer != tokenizer) {
+            c = new TokenCounts(tokenizer, body.size());
+            counts = c;
+        }
+        return c;
+    }
+
+    /**
+     * 各部分的 token 数，-1 表示尚未计算；并发写入的是相同的值，不需要加锁
+     */
+    private static final class TokenCounts {
+        final Tokenizer tokenizer;
+        final int[] body;
+        int full = -1;
+        int frame = -1;
+
+        TokenCounts(Tokenizer tokenizer, int bodyCount) {
+            this.tokenizer = tokenizer;
+            this.body = new int[bodyCount];
+            Arrays.fill(this.body, -1);
+        }
+    }
+
+    /**
+     * 只保留前 bodyCount 个主体片段生成 Markdown
+     */
+    public String render(int bodyCount) {
+        int kept = Math.max(0, Math.min(bodyCount, body.size()));
+        StringBuilder sb = new StringBuilder();
+        sb.append("### ").append(path).append("\n```").append(lang).append('\n').append(head);
+        for (int i = 0; i < kept; i++) {
+            sb.append(body.get(i));
+        }
+        if (kept < body.size()) {
+            if (sb.charAt(sb.length() - 1) != '\n') sb.append('\n');
+            sb.append("... (已省略 ").append(body.size() - kept).append(" 段)\n");
+        }
+        sb.append(tail);
+        if (sb.charAt(sb.length() - 1) != '\n') sb.append('\n');
+        sb.append("```");
+        return sb.toString();
+    }
+}
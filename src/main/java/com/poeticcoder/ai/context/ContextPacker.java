@@ -0,0 +1,97 @@
+package com.poeticcoder.ai.context;
+
+import com.intellij.openapi.progress.ProgressManager;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 按 token 预算装配上下文
+ * 按相关度从高到低放入附件；放不下的附件在预算允许时裁掉末尾的成员后放入，否则整体省略
+ */
+public final class ContextPacker {
+
+    /** 剩余预算低于该值时不再尝试放入裁剪后的附件 */
+    private static final int MIN_PARTIAL_TOKENS = 64;
+
+    private ContextPacker() {
+    }
+
+    /**
+     * 待装配的附件及其相关度
+     */
+    public static class Candidate {
+        final ContextAttachment attachment;
+        final double relevance;
+
+        public Candidate(ContextAttachment attachment, double relevance) {
+            this.attachment = attachment;
+            this.relevance = relevance;
+        }
+    }
+
+    /**
+     * 装配结果
+     */
+    public static class Packed {
+        public final String markdown;
+        public final int tokens;
+        /** 被裁剪的附件数 */
+        public final int trimmed;
+        /** 整体省略的附件数 */
+        public final int omitted;
+
+        Packed(String markdown, int tokens, int trimmed, int omitted) {
+            this.markdown = markdown;
+            this.tokens = tokens;
+            this.trimmed = trimmed;
+            this.omitted = omitted;
+        }
+    }
+
+    public static Packed pack(List<Candidate> candidates, Tokenizer tokenizer, int budget) {
+        List<Candidate> ordered = new ArrayList<>(candidates);
+        ordered.sort(Comparator.comparingDouble((Candidate c) -> -c.relevance));
+        StringBuilder md = new StringBuilder();
+        int used = 0;
+        int trimmed = 0;
+        int omitted = 0;
+        for (Candidate c : ordered) {
+            ProgressManager.checkCanceled();
+            ContextAttachment att = c.attachment;
+            int separator = md.length() > 0 ? 1 : 0;
+            int remaining = budget - used - separator;
+            int full = att.fullTokens(tokenizer);
+            String part = null;
+            int partTokens = 0;
+            if (full <= remaining) {
+                part = att.markdown;
+                partTokens = full;
+            } else if (remaining >= MIN_PARTIAL_TOKENS) {
+                // 框架（头部、尾部与省略说明）必须放得下，再依次加入主体片段
+                int tokens = att.frameTokens(tokenizer);
+                int kept = 0;
+                while (tokens <= remaining && kept < att.body.size()) {
+                    int next = tokens + att.bodyTokens(tokenizer, kept);
+                    if (next > remaining) break;
+                    tokens = next;
+                    kept++;
+                }
+                if (tokens <= remaining) {
+                    part = att.render(kept);
+                    partTokens = tokens;
+                    trimmed++;
+                }
+            }
+            if (part == null) {
+                omitted++;
+                continue;
+            }
+            if (separator > 0) md.append('\n');
+            md.append(part);
+            used += partTokens + separator;
+        }
+        return new Packed(md.toString(), used, trimmed, omitted);
+    }
+}
@@ -0,0 +1,355 @@
+package com.poeticcoder.ai.context;
+
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiMember;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.poeticcoder.ai.chat.CodeLocator;
+import com.poeticcoder.ai.index.SemanticCodeIndex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * 上下文解析器
+ * 根据用户输入中的 @类 / 文件引用与语义检索结果查找项目代码，与固定的上下文一起按相关度装入 token 预算。
+ * 解析过程访问 PSI 与索引，必须在读操作中调用（通常是后台的 non-blocking read action）
+ */
+public class ContextResolver {
+
+    /** 单个附件读取的源码上限，超出部分不参与装配，避免超大文件整体进入内存 */
+    private static final int MAX_SOURCE_CHARS = ClassSkeleton.MAX_SOURCE_CHARS;
+    /** 非 Java 文件按段落拆分时每段的最大行数 */
+    private static final int MAX_PARAGRAPH_LINES = 40;
+    /** 附件缓存容量（按文本字节数计） */
+    private static final long CACHE_BYTES = 8L * 1024 * 1024;
+
+    private final Project project;
+    /** 跨发送复用已解析的附件，追问同一批类时不再重复生成骨架与 Markdown */
+    private final AttachmentCache cache = new AttachmentCache(CACHE_BYTES);
+
+    public ContextResolver(Project project) {
+        this.project = project;
+    }
+
+    /**
+     * 解析结果
+     */
+    public static class Result {
+        public final String markdown;
+        /** 第一个可作为写入目标的元素，可能为 null */
+        public final PsiElement target;
+        public final int tokens;
+        public final int trimmed;
+        public final int omitted;
+        public final String tokenizer;
+        /** 直接取自附件缓存的引用数 */
+        public final int cached;
+
+        Result(ContextPacker.Packed packed, PsiElement target, String tokenizer, int cached) {
+            this.markdown = packed.markdown;
+            this.target = target;
+            this.tokens = packed.tokens;
+            this.trimmed = packed.trimmed;
+            this.omitted = packed.omitted;
+            this.tokenizer = tokenizer;
+            this.cached = cached;
+        }
+    }
+
+    /**
+     * 组合固定上下文与输入中引用的项目代码，并按 token 预算装配
+     * 读操作被写操作或 dumb mode 打断时会抛出 ProcessCanceledException，由调用方重新执行
+     * @param pinned 会话中固定的上下文
+     * @param hits 语义索引的检索结果
+     * @param tokenBudget 上下文可用的 token 数
+     */
+    public Result resolve(String userText, List<ContextAttachment> pinned, List<SemanticCodeIndex.Hit> hits,
+                          Tokenizer tokenizer, int tokenBudget) {
+        long hitsBefore = cache.getHitCount();
+        PsiElement target = null;
+        List<ContextPacker.Candidate> candidates = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (int i = pinned.size() - 1; i >= 0; i--) {
+            ContextAttachment att = pinned.get(i);
+            if (!seen.add(att.key)) continue;
+            // 手动固定的上下文优先；选区与在问题中再次提到的更优先，越晚固定的越靠前
+            double relevance = 1.0 - 0.001 * (pinned.size() - 1 - i);
+            if (att.key.startsWith("selection:") || userText.contains(att.label)) relevance += 0.5;
+            candidates.add(new ContextPacker.Candidate(att, relevance));
+        }
+        for (ContextAttachment att : pinned) {
+            if (att.psi != null && att.psi.isValid()) {
+                target = att.psi;
+                break;
+            }
+        }
+
+        // 同一个类的多次引用（Foo、Foo#a、Foo#b）合并为一个附件，点名的方法保留完整实现
+        Map<String, List<MentionLexer.Mention>> mentioned = new LinkedHashMap<>();
+        for (MentionLexer.Mention m : MentionLexer.lex(userText)) {
+            boolean isClass = m.kind == MentionLexer.Kind.CLASS || m.kind == MentionLexer.Kind.CLASS_METHOD;
+            mentioned.computeIfAbsent(isClass ? "class:" + m.name : m.toString(), k -> new ArrayList<>()).add(m);
+        }
+        int rank = 0;
+        for (List<MentionLexer.Mention> group : mentioned.values()) {
+            ProgressManager.checkCanceled();
+            Set<String> methods = new LinkedHashSet<>();
+            boolean explicit = false;
+            for (MentionLexer.Mention m : group) {
+                if (m.member != null) methods.add(m.member);
+                explicit |= m.explicit;
+            }
+            ContextAttachment att = resolveMention(group.get(0), methods);
+            if (att == null || !seen.add(att.key)) {
+                continue;
+            }
+            // 显式 @ 引用高于正文中顺带出现的类名/文件名，同类按出现顺序
+            double relevance = (explicit ? 0.9 : 0.6) - 0.01 * Math.min(rank++, 30);
+            candidates.add(new ContextPacker.Candidate(att, relevance));
+            if (target == null && att.psi != null) {
+                target = att.psi;
+            }
+        }
+
+        // 语义检索命中按类合并，命中的方法保留完整实现；相关度低于显式引用
+        Map<PsiClass, Set<String>> hitMethods = new LinkedHashMap<>();
+        Map<PsiClass, Float> hitScores = new HashMap<>();
+        for (SemanticCodeIndex.Hit hit : hits) {
+            ProgressManager.checkCanceled();
+            PsiMember member = memberAt(hit);
+            PsiClass cls = member instanceof PsiClass ? (PsiClass) member : member != null ? member.getContainingClass() : null;
+            if (cls == null) continue;
+            Set<String> methods = hitMethods.computeIfAbsent(cls, k -> new LinkedHashSet<>());
+            if (member instanceof PsiMethod) methods.add(member.getName());
+            hitScores.merge(cls, hit.score, Math::max);
+        }
+        rank = 0;
+        for (Map.Entry<PsiClass, Set<String>> e : hitMethods.entrySet()) {
+            ContextAttachment att = cachedClass(e.getKey(), e.getValue());
+            if (!seen.add(att.key)) continue;
+            double relevance = 0.3 + 0.2 * hitScores.get(e.getKey()) - 0.01 * Math.min(rank++, 30);
+            candidates.add(new ContextPacker.Candidate(att, relevance));
+        }
+
+        ContextPacker.Packed packed = ContextPacker.pack(candidates, tokenizer, tokenBudget);
+        return new Result(packed, target, tokenizer.name(), (int) (cache.getHitCount() - hitsBefore));
+    }
+
+    /**
+     * 定位索引命中对应的类或方法；文件已变化导致名称对不上时返回 null
+     */
+    private PsiMember memberAt(SemanticCodeIndex.Hit hit) {
+        VirtualFile vf = VirtualFileManager.getInstance().findFileByUrl(hit.fileUrl);
+        if (vf == null || !vf.isValid()) return null;
+        PsiFile file = PsiManager.getInstance(project).findFile(vf);
+        if (file == null || hit.offset >= file.getTextLength()) return null;
+        PsiMember member = PsiTreeUtil.getParentOfType(file.findElementAt(hit.offset), PsiMember.class, false);
+        if (member == null || member.getName() == null) return null;
+        int hash = hit.label.lastIndexOf('#');
+        String expected = hash >= 0 ? hit.label.substring(hash + 1) : hit.label.substring(hit.label.lastIndexOf('.') + 1);
+        return expected.equals(member.getName()) ? member : null;
+    }
+
+    /**
+     * 将一个引用解析为上下文，找不到时返回 null
+     * @param target 类名、Class#method、文件名或 路径.java:起-止
+     */
+    public ContextAttachment resolveTarget(String target) {
+        MentionLexer.Mention m = MentionLexer.parse(target);
+        return resolveMention(m, m.member != null ? Collections.singleton(m.member) : Collections.emptySet());
+    }
+
+    /**
+     * @param methods 需要保留完整实现的方法名，只对类引用有效
+     */
+    private ContextAttachment resolveMention(MentionLexer.Mention m, Set<String> methods) {
+        switch (m.kind) {
+            case PATH:
+                PsiFile file = findFile(m.name);
+                return file != null ? cachedFile(file) : null;
+            case PATH_RANGE:
+                PsiFile ranged = findFile(m.name);
+                return ranged != null ? cachedRange(ranged, m.startLine, m.endLine) : null;
+            default:
+                PsiClass cls = CodeLocator.findClass(project, m.name);
+                if (cls != null) {
+                    return cachedClass(cls, methods);
+                }
+                PsiFile byName = CodeLocator.findFile(project, m.name);
+                return byName != null ? cachedFile(byName) : null;
+        }
+    }
+
+    /**
+     * 绝对路径或相对项目根目录的路径优先，其次按路径后缀匹配同名文件
+     */
+    private PsiFile findFile(String path) {
+        PsiFile file = CodeLocator.findFileByPath(project, path);
+        return file != null ? file : CodeLocator.findFile(project, path);
+    }
+
+    /**
+     * 附件缓存，统计命中率用
+     */
+    public AttachmentCache getCache() {
+        return cache;
+    }
+
+    /**
+     * 以类所在文件的 PSI 修改计数校验缓存，文件改动后重新生成
+     */
+    private ContextAttachment cachedClass(PsiClass cls, Set<String> methods) {
+        String name = cls.getQualifiedName() != null ? cls.getQualifiedName() : cls.getName();
+        PsiFile file = cls.getContainingFile();
+        if (name == null || file == null) {
+            return fromClass(cls, methods);
+        }
+        String key = "class:" + name + (methods.isEmpty() ? "" : "#" + String.join(",", new TreeSet<>(methods)));
+        long stamp = file.getModificationStamp();
+        ContextAttachment att = cache.get(key, stamp);
+        if (att == null) {
+            att = fromClass(cls, methods);
+            cache.put(key, stamp, att);
+        }
+        return att;
+    }
+
+    /**
+     * 文件中指定行范围的上下文，按段落拆分
+     */
+    private ContextAttachment cachedRange(PsiFile file, int startLine, int endLine) {
+        String path = file.getVirtualFile() != null ? file.getVirtualFile().getPath() : file.getName();
+        String range = ":" + startLine + "-" + endLine;
+        String key = "range:" + path + range;
+        long stamp = file.getModificationStamp();
+        ContextAttachment att = cache.get(key, stamp);
+        if (att == null) {
+            att = fromText(file.getName() + range, path + range, CodeLocator.snippet(file, startLine, endLine),
+                    file, key, guessLanguage(file));
+            cache.put(key, stamp, att);
+        }
+        return att;
+    }
+
+    private ContextAttachment cachedFile(PsiFile file) {
+        String key = "file:" + (file.getVirtualFile() != null ? file.getVirtualFile().getUrl() : file.getName());
+        long stamp = file.getModificationStamp();
+        ContextAttachment att = cache.get(key, stamp);
+        if (att == null) {
+            att = fromFile(file);
+            cache.put(key, stamp, att);
+        }
+        return att;
+    }
+
+    /**
+     * 类上下文：类声明为头部，每个成员（字段、方法、内部类）为一个主体片段，大类使用结构化摘要
+     * @param methods 需要保留完整实现的方法名
+     */
+    public static ContextAttachment fromClass(PsiClass cls, Set<String> methods) {
+        List<String> body = new ArrayList<>();
+        String[] frame = ClassSkeleton.split(cls, methods, body);
+        String name = cls.getQualifiedName() != null ? cls.getQualifiedName() : cls.getName();
+        return new ContextAttachment(UUID.randomUUID().toString(), cls.getName(), name, "java",
+                frame[0], body, frame[1], cls, "class:" + name);
+    }
+
+    /**
+     * 文件上下文：只有一个顶层类的 Java 文件按成员拆分，其他文件按段落拆分
+     */
+    public static ContextAttachment fromFile(PsiFile file) {
+        String path = file.getVirtualFile() != null ? file.getVirtualFile().getPath() : file.getName();
+        String lang = guessLanguage(file);
+        String head = "";
+        String tail = "";
+        List<String> body = new ArrayList<>();
+        PsiClass[] classes = file instanceof PsiJavaFile ? ((PsiJavaFile) file).getClasses() : PsiClass.EMPTY_ARRAY;
+        if (classes.length == 1) {
+            CharSequence text = file.getViewProvider().getContents();
+            PsiClass cls = classes[0];
+            int start = cls.getTextRange().getStartOffset();
+            int end = cls.getTextRange().getEndOffset();
+            String[] frame = ClassSkeleton.split(cls, Collections.emptySet(), body);
+            head = text.subSequence(0, start) + frame[0];
+            tail = frame[1] + text.subSequence(end, Math.min(text.length(), end + MAX_SOURCE_CHARS));
+        } else {
+            splitParagraphs(file.getViewProvider().getContents(), body);
+        }
+        return new ContextAttachment(UUID.randomUUID().toString(), file.getName(), path, lang,
+                head, body, tail, file, "file:" + path);
+    }
+
+    /**
+     * 任意文本（例如选区）上下文，按段落拆分
+     */
+    public static ContextAttachment fromText(String label, String path, String content, PsiElement psi,
+                                             String key, String lang) {
+        List<String> body = new ArrayList<>();
+        splitParagraphs(content, body);
+        return new ContextAttachment(UUID.randomUUID().toString(), label, path, lang, "", body, "", psi, key);
+    }
+
+    /**
+     * 按空行拆分段落，段落过长时按行数切开；每段保留结尾换行
+     */
+    private static void splitParagraphs(CharSequence text, List<String> body) {
+        int len = Math.min(text.length(), MAX_SOURCE_CHARS);
+        int start = 0;
+        int lines = 0;
+        int i = 0;
+        while (i < len) {
+            int nl = i;
+            while (nl < len && text.charAt(nl) != '\n') nl++;
+            boolean blank = true;
+            for (int k = i; k < nl; k++) {
+                if (!Character.isWhitespace(text.charAt(k))) {
+                    blank = false;
+                    break;
+                }
+            }
+            i = Math.min(nl + 1, len);
+            lines++;
+            if ((blank && lines > 1) || lines >= MAX_PARAGRAPH_LINES) {
+                body.add(text.subSequence(start, i).toString());
+                start = i;
+                lines = 0;
+            }
+        }
+        if (start < len) {
+            body.add(text.subSequence(start, len).toString());
+        }
+    }
+
+    public static String guessLanguage(PsiFile file) {
+        if (file == null) return "text";
+        String name = file.getName().toLowerCase();
+        if (name.endsWith(".java")) return "java";
+        if (name.endsWith(".xml")) return "xml";
+        if (name.endsWith(".json")) return "json";
+        if (name.endsWith(".py")) return "python";
+        if (name.endsWith(".js")) return "javascript";
+        if (name.endsWith(".ts")) return "typescript";
+        if (name.endsWith(".html")) return "html";
+        if (name.endsWith(".css")) return "css";
+        if (name.endsWith(".sql")) return "sql";
+        return "text";
+    }
+}
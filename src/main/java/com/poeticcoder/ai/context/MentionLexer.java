@@ -0,0 +1,228 @@
+package com.poeticcoder.ai.context;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 用户输入中的代码引用词法分析
+ * 查静态字符类表单遍扫描输入，识别 @全限定类名[#方法]、@路径.java[:起-止]，以及正文中顺带出现的全限定类名与 Xxx.java 文件名。
+ * 每个字符只访问常数次，已被显式引用占用的区间不会再按正文规则匹配；结果按首次出现的顺序去重
+ */
+public final class MentionLexer {
+
+    private static final byte IDENT_START = 1;
+    private static final byte WORD = 2;
+    private static final byte UPPER = 4;
+    private static final byte DIGIT = 8;
+    private static final byte PATH = 16;
+    /** ASCII 字符类表，与正则中的 \w 一致，不含非 ASCII 字符 */
+    private static final byte[] CHAR_CLASS = new byte[128];
+
+    static {
+        for (int c = 0; c < 128; c++) {
+            boolean upper = c >= 'A' && c <= 'Z';
+            boolean lower = c >= 'a' && c <= 'z';
+            boolean digit = c >= '0' && c <= '9';
+            int b = 0;
+            if (upper || lower || c == '_') b |= IDENT_START;
+            if (upper) b |= UPPER;
+            if (digit) b |= DIGIT;
+            if (upper || lower || digit || c == '_') b |= WORD;
+            if ((b & WORD) != 0 || c == '.' || c == '/' || c == '-') b |= PATH;
+            CHAR_CLASS[c] = (byte) b;
+        }
+    }
+
+    private MentionLexer() {
+    }
+
+    public enum Kind {
+        /** 类，name 为全限定名或简单名 */
+        CLASS,
+        /** 类中的方法，member 为方法名 */
+        CLASS_METHOD,
+        /** 文件，name 为路径或文件名 */
+        PATH,
+        /** 文件中的行范围，行号从 1 开始 */
+        PATH_RANGE
+    }
+
+    public static final class Mention {
+        public final Kind kind;
+        public final String name;
+        public final String member;
+        public final int startLine;
+        public final int endLine;
+        /** 以 @ 显式引用 */
+        public final boolean explicit;
+
+        Mention(Kind kind, String name, String member, int startLine, int endLine, boolean explicit) {
+            this.kind = kind;
+            this.name = name;
+            this.member = member;
+            this.startLine = startLine;
+            this.endLine = endLine;
+            this.explicit = explicit;
+        }
+
+        /**
+         * 与用户书写一致的形式，例如 com.foo.Bar#run、src/Foo.java:10-40
+         */
+        @Override
+        public String toString() {
+            switch (kind) {
+                case CLASS_METHOD:
+                    return name + "#" + member;
+                case PATH_RANGE:
+                    return name + ":" + startLine + (endLine != startLine ? "-" + endLine : "");
+                default:
+                    return name;
+            }
+        }
+    }
+
+    /**
+     * 提取输入中的全部引用
+     */
+    public static List<Mention> lex(CharSequence text) {
+        Map<String, Mention> found = new LinkedHashMap<>();
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            char c = text.charAt(i);
+            boolean boundary = i == 0 || !is(text.charAt(i - 1), WORD);
+            if (c == '@' && boundary) {
+                i = Math.max(i + 1, explicit(text, i + 1, found));
+            } else if (boundary && is(c, IDENT_START)) {
+                i = Math.max(i + 1, qualifiedName(text, i, false, found));
+            } else {
+                i++;
+            }
+        }
+        return new ArrayList<>(found.values());
+    }
+
+    /**
+     * 解析单独输入的一个引用（可省略 @）；不符合引用语法时按类名处理，Foo#bar 按类中方法处理
+     */
+    public static Mention parse(String target) {
+        String t = target.trim();
+        if (t.startsWith("@")) t = t.substring(1);
+        List<Mention> mentions = lex("@" + t);
+        if (mentions.size() == 1 && mentions.get(0).toString().equals(t)) {
+            return mentions.get(0);
+        }
+        int hash = t.indexOf('#');
+        if (hash > 0 && hash < t.length() - 1) {
+            return new Mention(Kind.CLASS_METHOD, t.substring(0, hash), t.substring(hash + 1), 0, 0, true);
+        }
+        return new Mention(Kind.CLASS, t, null, 0, 0, true);
+    }
+
+    /**
+     * @ 之后：先按路径匹配（[\w./-]+ 中以 .java 结尾的最长前缀，可带 :行号范围），否则按全限定类名匹配
+     */
+    private static int explicit(CharSequence text, int from, Map<String, Mention> found) {
+        int n = text.length();
+        int runEnd = from;
+        while (runEnd < n && is(text.charAt(runEnd), PATH)) runEnd++;
+        int javaEnd = lastJavaSuffix(text, from, runEnd);
+        if (javaEnd < 0) {
+            return qualifiedName(text, from, true, found);
+        }
+        String path = text.subSequence(from, javaEnd).toString();
+        int end = javaEnd;
+        if (end + 1 < n && text.charAt(end) == ':' && is(text.charAt(end + 1), DIGIT)) {
+            int p = end + 1;
+            int start = 0;
+            while (p < n && is(text.charAt(p), DIGIT) && start < 100_000_000) start = start * 10 + (text.charAt(p++) - '0');
+            int stop = start;
+            if (p + 1 < n && text.charAt(p) == '-' && is(text.charAt(p + 1), DIGIT)) {
+                p++;
+                stop = 0;
+                while (p < n && is(text.charAt(p), DIGIT) && stop < 100_000_000) stop = stop * 10 + (text.charAt(p++) - '0');
+            }
+            if (start > 0 && stop >= start) {
+                add(found, new Mention(Kind.PATH_RANGE, path, null, start, stop, true));
+                return p;
+            }
+        }
+        add(found, new Mention(Kind.PATH, path, null, 0, 0, true));
+        return end;
+    }
+
+    /**
+     * 区间内最后一个后面不紧跟单词字符的 .java 的结束位置，没有时返回 -1
+     */
+    private static int lastJavaSuffix(CharSequence text, int from, int to) {
+        for (int end = to; end - 5 > from; end--) {
+            if (end < text.length() && is(text.charAt(end), WORD)) continue;
+            if (text.charAt(end - 5) == '.' && text.charAt(end - 4) == 'j' && text.charAt(end - 3) == 'a'
+                    && text.charAt(end - 2) == 'v' && text.charAt(end - 1) == 'a') {
+                return end;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 点分标识符链：取最长的、以大写开头段（至少两个字符）结尾且至少两段的前缀作为类名，类名之后可跟 #方法；
+     * 正文中的 Xxx.java 作为文件名。返回整条链之后的位置
+     */
+    private static int qualifiedName(CharSequence text, int from, boolean explicit, Map<String, Mention> found) {
+        int n = text.length();
+        int p = from;
+        int segments = 0;
+        int classEnd = -1;
+        int lastStart = from;
+        int prevStart = from;
+        while (p < n && is(text.charAt(p), IDENT_START)) {
+            prevStart = lastStart;
+            lastStart = p;
+            p++;
+            while (p < n && is(text.charAt(p), WORD)) p++;
+            segments++;
+            if (segments >= 2 && p - lastStart >= 2 && is(text.charAt(lastStart), UPPER)) classEnd = p;
+            if (p + 1 < n && text.charAt(p) == '.' && is(text.charAt(p + 1), IDENT_START)) {
+                p++;
+            } else {
+                break;
+            }
+        }
+        if (segments == 0) return from;
+        if (!explicit && segments >= 2 && p - lastStart == 4 && "java".contentEquals(text.subSequence(lastStart, p))
+                && lastStart - 1 - prevStart >= 2 && is(text.charAt(prevStart), UPPER)) {
+            add(found, new Mention(Kind.PATH, text.subSequence(prevStart, p).toString(), null, 0, 0, false));
+            return p;
+        }
+        if (classEnd < 0) return p;
+        String name = text.subSequence(from, classEnd).toString();
+        if (classEnd == p && p + 1 < n && text.charAt(p) == '#' && is(text.charAt(p + 1), IDENT_START)) {
+            int m = p + 1;
+            while (m < n && is(text.charAt(m), WORD)) m++;
+            add(found, new Mention(Kind.CLASS_METHOD, name, text.subSequence(p + 1, m).toString(), 0, 0, explicit));
+            return m;
+        }
+        add(found, new Mention(Kind.CLASS, name, null, 0, 0, explicit));
+        return p;
+    }
+
+    /**
+     * 去重；同一引用既有显式又有正文出现时记为显式，位置取首次出现
+     */
+    private static void add(Map<String, Mention> found, Mention m) {
+        String key = m.kind + ":" + m;
+        Mention old = found.get(key);
+        if (old == null) {
+            found.put(key, m);
+        } else if (m.explicit && !old.explicit) {
+            found.put(key, m);
+        }
+    }
+
+    private static boolean is(char c, byte mask) {
+        return c < 128 && (CHAR_CLASS[c] & mask) != 0;
+    }
+}
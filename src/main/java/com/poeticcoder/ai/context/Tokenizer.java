@@ -0,0 +1,18 @@
+package com.poeticcoder.ai.context;
+
+/**
+ * Token 计数器
+ * 用于在发送前估算提示词长度，实现需线程安全
+ */
+public interface Tokenizer {
+
+    /**
+     * 统计文本的 token 数
+     */
+    int count(CharSequence text);
+
+    /**
+     * 名称，用于日志与界面显示
+     */
+    String name();
+}
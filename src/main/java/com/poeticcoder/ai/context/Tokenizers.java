@@ -0,0 +1,81 @@
+package com.poeticcoder.ai.context;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.poeticcoder.ai.settings.PandaCoderAISettings;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按模型选择 Tokenizer
+ * 在设置的 Tokenizer 目录中依次查找 &lt;模型名&gt;/tokenizer.json、&lt;模型名&gt;.json、tokenizer.json，
+ * 找不到或加载失败时使用 {@link HeuristicTokenizer}。词表文件可能有数 MB，在后台线程加载，加载完成前按启发式估算
+ */
+public final class Tokenizers {
+
+    private static final Map<String, Tokenizer> BY_MODEL = new ConcurrentHashMap<>();
+    private static final Set<String> LOADING = ConcurrentHashMap.newKeySet();
+
+    private Tokenizers() {
+    }
+
+    public static Tokenizer forModel(String model) {
+        String key = model == null ? "" : model;
+        Tokenizer t = BY_MODEL.get(key);
+        if (t != null) return t;
+        if (ApplicationManager.getApplication() == null) {
+            return BY_MODEL.computeIfAbsent(key, Tokenizers::load);
+        }
+        if (LOADING.add(key)) {
+            AppExecutorUtil.getAppExecutorService().execute(() -> {
+                try {
+                    BY_MODEL.put(key, load(key));
+                } finally {
+                    LOADING.remove(key);
+                }
+            });
+        }
+        return HeuristicTokenizer.INSTANCE;
+    }
+
+    /**
+     * 设置变更后清空缓存
+     */
+    public static void clear() {
+        BY_MODEL.clear();
+    }
+
+    private static Tokenizer load(String model) {
+        if (ApplicationManager.getApplication() == null) return HeuristicTokenizer.INSTANCE;
+        String dir = PandaCoderAISettings.getInstance().getTokenizerDir();
+        if (dir.isEmpty()) return HeuristicTokenizer.INSTANCE;
+        Path base = Paths.get(dir);
+        // ollama 的模型名形如 qwen2.5-coder:7b，去掉标签后再找一次
+        String family = model.contains(":") ? model.substring(0, model.indexOf(':')) : model;
+        for (String name : new String[]{model, family}) {
+            if (name.isEmpty()) continue;
+            String safe = name.replace('/', '_').replace(':', '_');
+            for (Path candidate : new Path[]{base.resolve(safe).resolve("tokenizer.json"), base.resolve(safe + ".json")}) {
+                Tokenizer t = tryLoad(candidate);
+                if (t != null) return t;
+            }
+        }
+        Tokenizer t = tryLoad(base.resolve("tokenizer.json"));
+        return t != null ? t : HeuristicTokenizer.INSTANCE;
+    }
+
+    private static Tokenizer tryLoad(Path file) {
+        if (!Files.isRegularFile(file)) return null;
+        try {
+            return BpeTokenizer.load(file);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.poeticcoder.ai.index;
+
+import java.io.IOException;
+
+/**
+ * 文本向量化
+ * 实现需线程安全；返回的向量无需归一化，由索引统一处理
+ */
+public interface EmbeddingProvider {
+
+    /**
+     * 计算文本向量
+     */
+    float[] embed(String text) throws IOException;
+
+    /**
+     * 提供者与模型的标识，变化后需要重建索引
+     */
+    String id();
+}
@@ -0,0 +1,51 @@
+package com.poeticcoder.ai.index;
+
+/**
+ * 本地哈希向量（无需模型服务）
+ * 把标识符按驼峰与下划线拆成小写词，连同相邻词对一起哈希到固定维度，按词频取对数加权。
+ * 语义能力有限，但能按命名相关性召回代码，适合离线环境或作为默认选项
+ */
+public final class HashingEmbeddingProvider implements EmbeddingProvider {
+
+    public static final int DIMENSION = 256;
+
+    @Override
+    public float[] embed(String text) {
+        float[] v = new float[DIMENSION];
+        String prev = null;
+        StringBuilder word = new StringBuilder();
+        int n = text == null ? 0 : text.length();
+        for (int i = 0; i <= n; i++) {
+            char c = i < n ? text.charAt(i) : ' ';
+            boolean boundary = !Character.isLetterOrDigit(c)
+                    || (Character.isUpperCase(c) && word.length() > 0
+                        && Character.isLowerCase(word.charAt(word.length() - 1)));
+            if (boundary && word.length() > 0) {
+                String w = word.toString();
+                if (w.length() > 1) {
+                    add(v, w.hashCode(), 1f);
+                    if (prev != null) add(v, (prev + ' ' + w).hashCode(), 0.5f);
+                    prev = w;
+                }
+                word.setLength(0);
+            }
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            }
+        }
+        for (int i = 0; i < v.length; i++) {
+            v[i] = v[i] == 0 ? 0 : (float) (Math.signum(v[i]) * Math.log1p(Math.abs(v[i])));
+        }
+        return v;
+    }
+
+    @Override
+    public String id() {
+        return "hash-" + DIMENSION;
+    }
+
+    private static void add(float[] v, int hash, float weight) {
+        int h = hash * 0x9E3779B9;
+        v[(h >>> 1) % DIMENSION] += (h & 1) == 0 ? weight : -weight;
+    }
+}
@@ -0,0 +1,252 @@
+package com.poeticcoder.ai.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * HNSW 近似最近邻图（余弦相似度）
+ * 向量本身存放在 {@link VectorStore} 中，这里只保存分层的邻接表。
+ * 删除采用墓碑标记：被删除的节点仍参与图遍历以保持连通，但不会出现在结果中
+ */
+final class HnswIndex {
+
+    private static final int M = 16;
+    private static final int M0 = 2 * M;
+    private static final int EF_CONSTRUCTION = 100;
+    private static final double LEVEL_FACTOR = 1 / Math.log(M);
+
+    private final VectorStore vectors;
+    private final Random random = new Random(42);
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** links[node][level] = {count, n1, n2, ...} */
+    private int[][][] links = new int[1024][][];
+    private final BitSet deleted = new BitSet();
+    private int nodeCount;
+    private int deletedCount;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    /** 向量已被移动，图中的 id 不再对应原向量 */
+    private boolean retired;
+
+    HnswIndex(VectorStore vectors) {
+        this.vectors = vectors;
+    }
+
+    /**
+     * 搜索结果
+     */
+    static final class Scored {
+        final int id;
+        final float score;
+
+        Scored(int id, float score) {
+            this.id = id;
+            this.score = score;
+        }
+    }
+
+    /**
+     * 插入已写入 VectorStore 的向量
+     */
+    void insert(int id) {
+        lock.writeLock().lock();
+        try {
+            if (id >= links.length) {
+                links = Arrays.copyOf(links, Math.max(id + 1, links.length * 2));
+            }
+            int level = (int) (-Math.log(1 - random.nextDouble()) * LEVEL_FACTOR);
+            int[][] nodeLinks = new int[level + 1][];
+            for (int l = 0; l <= level; l++) {
+                nodeLinks[l] = new int[(l == 0 ? M0 : M) + 1];
+            }
+            links[id] = nodeLinks;
+            nodeCount = Math.max(nodeCount, id + 1);
+            if (entryPoint < 0) {
+                entryPoint = id;
+                maxLevel = level;
+                return;
+            }
+            int ep = entryPoint;
+            for (int l = maxLevel; l > level; l--) {
+                ep = greedy(ep, l, other -> vectors.similarity(id, other));
+            }
+            for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+                List<Scored> found = searchLayer(ep, l, EF_CONSTRUCTION, other -> vectors.similarity(id, other), false);
+                int maxLinks = l == 0 ? M0 : M;
+                List<Scored> selected = found.subList(0, Math.min(M, found.size()));
+                for (Scored s : selected) {
+                    if (s.id == id) continue;
+                    addLink(id, s.id, l, maxLinks);
+                    addLink(s.id, id, l, maxLinks);
+                }
+                if (!found.isEmpty()) ep = found.get(0).id;
+            }
+            if (level > maxLevel) {
+                maxLevel = level;
+                entryPoint = id;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 标记删除
+     */
+    void delete(int id) {
+        lock.writeLock().lock();
+        try {
+            if (id < nodeCount && links[id] != null && !deleted.get(id)) {
+                deleted.set(id);
+                deletedCount++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 在写锁内执行会移动向量的操作（压缩），之后本图停用，查询返回空结果。
+     * 进行中的查询先完成，仍持有本图的查询不会按已移动的向量计算相似度
+     */
+    void retire(Runnable moveVectors) {
+        lock.writeLock().lock();
+        try {
+            retired = true;
+            moveVectors.run();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 墓碑占比，过高时应重建
+     */
+    double deletedRatio() {
+        lock.readLock().lock();
+        try {
+            return nodeCount == 0 ? 0 : (double) deletedCount / nodeCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 查询与 query（已归一化）最相似的 k 个未删除节点
+     */
+    List<Scored> search(float[] query, int k, int ef) {
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0 || retired) return new ArrayList<>();
+            int ep = entryPoint;
+            for (int l = maxLevel; l > 0; l--) {
+                ep = greedy(ep, l, other -> vectors.similarity(query, other));
+            }
+            List<Scored> found = searchLayer(ep, 0, Math.max(ef, k), other -> vectors.similarity(query, other), true);
+            return new ArrayList<>(found.subList(0, Math.min(k, found.size())));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private interface Similarity {
+        float to(int other);
+    }
+
+    private int greedy(int ep, int level, Similarity sim) {
+        int current = ep;
+        float best = sim.to(current);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] neighbors = neighbors(current, level);
+            if (neighbors == null) break;
+            for (int i = 1; i <= neighbors[0]; i++) {
+                float s = sim.to(neighbors[i]);
+                if (s > best) {
+                    best = s;
+                    current = neighbors[i];
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 在某一层做 beam 搜索，返回按相似度降序的结果
+     */
+    private List<Scored> searchLayer(int ep, int level, int ef, Similarity sim, boolean skipDeleted) {
+        BitSet visited = new BitSet(nodeCount);
+        PriorityQueue<Scored> candidates = new PriorityQueue<>(Comparator.comparingDouble((Scored s) -> -s.score));
+        PriorityQueue<Scored> results = new PriorityQueue<>(Comparator.comparingDouble((Scored s) -> s.score));
+        Scored start = new Scored(ep, sim.to(ep));
+        visited.set(ep);
+        candidates.add(start);
+        results.add(start);
+        while (!candidates.isEmpty()) {
+            Scored c = candidates.poll();
+            if (results.size() >= ef && c.score < results.peek().score) break;
+            int[] neighbors = neighbors(c.id, level);
+            if (neighbors == null) continue;
+            for (int i = 1; i <= neighbors[0]; i++) {
+                int n = neighbors[i];
+                if (visited.get(n)) continue;
+                visited.set(n);
+                float s = sim.to(n);
+                if (results.size() < ef || s > results.peek().score) {
+                    Scored scored = new Scored(n, s);
+                    candidates.add(scored);
+                    results.add(scored);
+                    if (results.size() > ef) results.poll();
+                }
+            }
+        }
+        List<Scored> out = new ArrayList<>(results.size());
+        for (Scored s : results) {
+            if (!skipDeleted || !deleted.get(s.id)) out.add(s);
+        }
+        out.sort(Comparator.comparingDouble((Scored s) -> -s.score));
+        return out;
+    }
+
+    private int[] neighbors(int node, int level) {
+        int[][] nodeLinks = links[node];
+        return nodeLinks != null && level < nodeLinks.length ? nodeLinks[level] : null;
+    }
+
+    /**
+     * 添加一条有向边；邻居已满时保留与该节点最相似的 maxLinks 个
+     */
+    private void addLink(int from, int to, int level, int maxLinks) {
+        int[] list = neighbors(from, level);
+        if (list == null) return;
+        int count = list[0];
+        for (int i = 1; i <= count; i++) {
+            if (list[i] == to) return;
+        }
+        if (count < maxLinks) {
+            list[count + 1] = to;
+            list[0] = count + 1;
+            return;
+        }
+        int worst = -1;
+        float worstScore = vectors.similarity(from, to);
+        for (int i = 1; i <= count; i++) {
+            float s = vectors.similarity(from, list[i]);
+            if (s < worstScore) {
+                worstScore = s;
+                worst = i;
+            }
+        }
+        if (worst > 0) list[worst] = to;
+    }
+}
@@ -0,0 +1,250 @@
+package com.poeticcoder.ai.index;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileCopyEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiTreeChangeAdapter;
+import com.intellij.psi.PsiTreeChangeEvent;
+import com.intellij.util.messages.MessageBusConnection;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 语义索引的增量更新器
+ * 监听 VFS 与 PSI 变更，事件回调中只记录被改动的文件；最后一次变更后静默一段时间再统一处理，
+ * 切换分支、批量格式化等突发变更因此合并为一批。处理在单线程、最低优先级的后台执行器上进行，
+ * 只重新索引被改动的文件，进入 dumb mode 时暂停，索引完成后继续
+ */
+final class IncrementalIndexer implements Disposable {
+
+    private static final Logger LOG = Logger.getInstance(IncrementalIndexer.class);
+    /** 最后一次变更之后等待的静默时间 */
+    private static final long DEBOUNCE_MS = 1500;
+    /** 变更持续不断时，距第一次变更的最长等待时间 */
+    private static final long MAX_DELAY_MS = 15000;
+
+    private final Project project;
+    private final SemanticCodeIndex index;
+    private final ScheduledThreadPoolExecutor executor;
+    private final Set<VirtualFile> dirty = ConcurrentHashMap.newKeySet();
+    private final Set<String> removed = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private ScheduledFuture<?> pending;
+    private long firstChangeAt;
+    private volatile boolean disposed;
+
+    IncrementalIndexer(Project project, SemanticCodeIndex index) {
+        this.project = project;
+        this.index = index;
+        this.executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "PandaCoder-AI-Indexer");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * 开始监听变更，重复调用无效
+     */
+    void start() {
+        if (disposed || !started.compareAndSet(false, true)) return;
+        MessageBusConnection bus = project.getMessageBus().connect(this);
+        bus.subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+            @Override
+            public void after(@NotNull List<? extends VFileEvent> events) {
+                onVfsEvents(events);
+            }
+        });
+        bus.subscribe(DumbService.DUMB_MODE, new DumbService.DumbModeListener() {
+            @Override
+            public void exitDumbMode() {
+                if (!dirty.isEmpty() || !removed.isEmpty()) schedule();
+            }
+        });
+        PsiManager.getInstance(project).addPsiTreeChangeListener(new PsiTreeChangeAdapter() {
+            @Override
+            public void childrenChanged(@NotNull PsiTreeChangeEvent event) {
+                onPsiChange(event.getFile());
+            }
+
+            @Override
+            public void childAdded(@NotNull PsiTreeChangeEvent event) {
+                onPsiChange(event.getFile());
+            }
+
+            @Override
+            public void childRemoved(@NotNull PsiTreeChangeEvent event) {
+                onPsiChange(event.getFile());
+            }
+
+            @Override
+            public void childReplaced(@NotNull PsiTreeChangeEvent event) {
+                onPsiChange(event.getFile());
+            }
+        }, this);
+    }
+
+    /**
+     * 在写操作中回调，只做记录
+     */
+    private void onVfsEvents(List<? extends VFileEvent> events) {
+        boolean changed = false;
+        for (VFileEvent e : events) {
+            if (e instanceof VFileDeleteEvent) {
+                removed.add(VfsUtilCore.pathToUrl(e.getPath()));
+                changed = true;
+                continue;
+            }
+            if (e instanceof VFileMoveEvent) {
+                removed.add(VfsUtilCore.pathToUrl(((VFileMoveEvent) e).getOldPath()));
+                changed = true;
+            } else if (e instanceof VFilePropertyChangeEvent && ((VFilePropertyChangeEvent) e).isRename()) {
+                removed.add(VfsUtilCore.pathToUrl(((VFilePropertyChangeEvent) e).getOldPath()));
+                changed = true;
+            } else if (e instanceof VFilePropertyChangeEvent) {
+                continue;
+            }
+            VirtualFile vf = e instanceof VFileCopyEvent ? ((VFileCopyEvent) e).findCreatedFile() : e.getFile();
+            // 目录（新建、移动、重命名）在后台展开
+            if (vf != null && (vf.isDirectory() || SemanticCodeIndex.isIndexable(vf))) {
+                dirty.add(vf);
+                changed = true;
+            }
+        }
+        if (changed) schedule();
+    }
+
+    /**
+     * 未保存的编辑只改变 PSI，同样需要重新索引
+     */
+    private void onPsiChange(PsiFile file) {
+        VirtualFile vf = file == null ? null : file.getVirtualFile();
+        if (vf == null || !SemanticCodeIndex.isIndexable(vf)) return;
+        dirty.add(vf);
+        schedule();
+    }
+
+    /**
+     * 防抖：每次变更把处理时间推迟到静默期之后，但不超过第一次变更后的最长等待时间
+     */
+    private synchronized void schedule() {
+        if (disposed) return;
+        long now = System.currentTimeMillis();
+        if (pending != null) {
+            if (now - firstChangeAt >= MAX_DELAY_MS) return;
+            pending.cancel(false);
+        } else {
+            firstChangeAt = now;
+        }
+        long delay = Math.min(DEBOUNCE_MS, Math.max(0, firstChangeAt + MAX_DELAY_MS - now));
+        pending = executor.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        synchronized (this) {
+            pending = null;
+        }
+        if (disposed) return;
+        if (!index.isEnabled() || (!index.isReady() && !index.isBuilding())) {
+            // 索引未启用或未构建：下一次全量构建会按时间戳处理磁盘上的变化
+            dirty.clear();
+            removed.clear();
+            return;
+        }
+        if (index.isBuilding()) {
+            // 构建完成后再应用，期间的未保存编辑不会丢失
+            schedule();
+            return;
+        }
+        // dumb mode 下暂停，退出后由监听器重新调度
+        if (DumbService.isDumb(project)) return;
+
+        List<String> gone = drain(removed);
+        for (String url : gone) {
+            index.remove(url);
+        }
+        List<VirtualFile> touched = drain(dirty);
+        List<VirtualFile> files = touched.isEmpty() ? touched
+                : ReadAction.nonBlocking(() -> expand(touched)).expireWith(this).executeSynchronously();
+        for (int i = 0; i < files.size(); i++) {
+            if (disposed) return;
+            if (DumbService.isDumb(project) || index.isBuilding()) {
+                dirty.addAll(files.subList(i, files.size()));
+                if (index.isBuilding()) schedule();
+                break;
+            }
+            try {
+                index.reindex(files.get(i));
+            } catch (IOException e) {
+                // 嵌入服务不可用：保留剩余文件，下一次变更时重试
+                LOG.debug("语义索引增量更新失败", e);
+                dirty.addAll(files.subList(i, files.size()));
+                break;
+            }
+        }
+        index.commitUpdates();
+    }
+
+    /**
+     * 过滤出项目内容中的 Java 文件，目录展开为其下的全部 Java 文件
+     */
+    private List<VirtualFile> expand(List<VirtualFile> touched) {
+        ProjectFileIndex fileIndex = ProjectFileIndex.getInstance(project);
+        Set<VirtualFile> result = new LinkedHashSet<>();
+        for (VirtualFile vf : touched) {
+            if (!vf.isValid() || !fileIndex.isInContent(vf)) continue;
+            if (vf.isDirectory()) {
+                fileIndex.iterateContentUnderDirectory(vf, f -> {
+                    if (SemanticCodeIndex.isIndexable(f)) result.add(f);
+                    return !disposed;
+                });
+            } else {
+                result.add(vf);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    private static <T> List<T> drain(Set<T> set) {
+        List<T> items = new ArrayList<>(set);
+        set.removeAll(items);
+        return items;
+    }
+
+    @Override
+    public void dispose() {
+        disposed = true;
+        synchronized (this) {
+            if (pending != null) pending.cancel(false);
+            pending = null;
+        }
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,67 @@
+package com.poeticcoder.ai.index;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.poeticcoder.ai.chat.ChatHttpTransport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+/**
+ * 通过 Ollama /api/embeddings 计算向量，复用聊天的 HTTP 传输层
+ */
+public final class OllamaEmbeddingProvider implements EmbeddingProvider {
+
+    private final String endpoint;
+    private final String model;
+    private final Duration timeout;
+
+    public OllamaEmbeddingProvider(String baseUrl, String model, Duration timeout) {
+        String base = baseUrl == null ? "" : baseUrl.trim();
+        while (base.endsWith("/")) base = base.substring(0, base.length() - 1);
+        this.endpoint = base + "/api/embeddings";
+        this.model = model;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public float[] embed(String text) throws IOException {
+        JsonObject req = new JsonObject();
+        req.addProperty("model", model);
+        req.addProperty("prompt", text);
+        HttpResponse<InputStream> resp;
+        try {
+            resp = ChatHttpTransport.getInstance().postJson(endpoint, null, req.toString(), timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("请求被中断", e);
+        }
+        String body = ChatHttpTransport.readBody(resp.body());
+        if (resp.statusCode() / 100 != 2) {
+            throw new IOException("Embedding API 错误: HTTP " + resp.statusCode() + " - " + body);
+        }
+        JsonObject root;
+        try {
+            root = JsonParser.parseString(body).getAsJsonObject();
+        } catch (RuntimeException e) {
+            throw new IOException("Embedding API 响应无法解析", e);
+        }
+        JsonArray arr = root.has("embedding") ? root.getAsJsonArray("embedding") : null;
+        if (arr == null || arr.isEmpty()) {
+            throw new IOException("Embedding API 未返回向量，请确认模型 " + model + " 支持 embedding");
+        }
+        float[] v = new float[arr.size()];
+        for (int i = 0; i < v.length; i++) {
+            v[i] = arr.get(i).getAsFloat();
+        }
+        return v;
+    }
+
+    @Override
+    public String id() {
+        return "ollama-" + model + "@" + endpoint;
+    }
+}
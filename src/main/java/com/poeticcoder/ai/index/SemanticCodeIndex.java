@@ -0,0 +1,568 @@
+package com.poeticcoder.ai.index;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.psi.PsiAnonymousClass;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiMember;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.poeticcoder.ai.settings.PandaCoderAISettings;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 项目级语义代码索引
+ * 后台遍历项目中的 Java 类与方法，计算向量后写入内存映射的向量文件，并维护 HNSW 图用于近似最近邻查询。
+ * 查询只需一次向量计算和一次图搜索，不扫描源文件；索引与元数据保存在 IDE 系统目录，重启后只处理变化的文件。
+ * 构建完成后由 {@link IncrementalIndexer} 根据 VFS/PSI 变更增量更新，不再做周期性的全量重建
+ */
+public final class SemanticCodeIndex implements Disposable {
+
+    private static final Logger LOG = Logger.getInstance(SemanticCodeIndex.class);
+    /** 单个代码块送去计算向量的最大长度 */
+    private static final int MAX_CHUNK_CHARS = 2000;
+    private static final int EF_SEARCH = 128;
+    private static final int META_VERSION = 2;
+    /** 墓碑占比超过该值时压缩向量文件 */
+    private static final double COMPACT_RATIO = 0.3;
+    /** 代码块来自未保存的编辑，与任何文件时间戳都不相等 */
+    private static final long UNSAVED_STAMP = -1;
+
+    private final Project project;
+    private final Object buildLock = new Object();
+    /** 全量构建与增量更新互斥，同一时刻只有一方写入向量文件 */
+    private final Object writeLock = new Object();
+    private final IncrementalIndexer updater;
+    private volatile Index index;
+    private ProgressIndicator buildIndicator;
+    private volatile String lastError;
+
+    public SemanticCodeIndex(Project project) {
+        this.project = project;
+        this.updater = new IncrementalIndexer(project, this);
+        Disposer.register(this, updater);
+    }
+
+    public static SemanticCodeIndex getInstance(Project project) {
+        return project.getService(SemanticCodeIndex.class);
+    }
+
+    /**
+     * 查询命中
+     */
+    public static final class Hit {
+        public final String fileUrl;
+        /** 类的全限定名，或 类名#方法名 */
+        public final String label;
+        /** 名称标识符在文件中的偏移 */
+        public final int offset;
+        public final float score;
+
+        Hit(Entry e, float score) {
+            this.fileUrl = e.fileUrl;
+            this.label = e.label;
+            this.offset = e.offset;
+            this.score = score;
+        }
+    }
+
+    /**
+     * 已索引的代码块
+     */
+    static final class Entry {
+        final String fileUrl;
+        final String label;
+        final int offset;
+        final long fileStamp;
+        /** 代码块文本的哈希，文本未变时沿用原向量 */
+        final int textHash;
+        boolean deleted;
+
+        Entry(String fileUrl, String label, int offset, long fileStamp, int textHash) {
+            this.fileUrl = fileUrl;
+            this.label = label;
+            this.offset = offset;
+            this.fileStamp = fileStamp;
+            this.textHash = textHash;
+        }
+    }
+
+    /**
+     * 待计算向量的代码块
+     */
+    private static final class Chunk {
+        final String label;
+        final String text;
+        final int offset;
+
+        Chunk(String label, String text, int offset) {
+            this.label = label;
+            this.text = text;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * 一次构建产生的索引数据
+     */
+    private static final class Index {
+        final EmbeddingProvider provider;
+        final VectorStore store;
+        final HnswIndex graph;
+        final Path metaFile;
+        /** 按向量 id 排列 */
+        final List<Entry> entries = new ArrayList<>();
+        final Map<String, List<Integer>> idsByFile = new HashMap<>();
+
+        Index(EmbeddingProvider provider, VectorStore store, Path metaFile) {
+            this.provider = provider;
+            this.store = store;
+            this.graph = new HnswIndex(store);
+            this.metaFile = metaFile;
+        }
+    }
+
+    public boolean isEnabled() {
+        return PandaCoderAISettings.getInstance().isSemanticIndexEnabled();
+    }
+
+    public boolean isReady() {
+        return index != null;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    boolean isBuilding() {
+        synchronized (buildLock) {
+            return buildIndicator != null && buildIndicator.isRunning();
+        }
+    }
+
+    /**
+     * 参与索引的文件类型
+     */
+    static boolean isIndexable(VirtualFile vf) {
+        return !vf.isDirectory() && "java".equalsIgnoreCase(vf.getExtension());
+    }
+
+    /**
+     * 未构建或嵌入配置变化时在后台（重新）构建索引
+     */
+    public void ensureBuilt() {
+        if (!isEnabled()) return;
+        updater.start();
+        EmbeddingProvider provider = createProvider();
+        Index current = index;
+        synchronized (buildLock) {
+            if (buildIndicator != null && buildIndicator.isRunning()) return;
+            if (current != null && current.provider.id().equals(provider.id())) return;
+        }
+        new Task.Backgroundable(project, "PandaCoder AI: 构建语义索引", true) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                synchronized (buildLock) {
+                    if (buildIndicator != null && buildIndicator.isRunning()) return;
+                    buildIndicator = indicator;
+                }
+                try {
+                    build(provider, indicator);
+                    lastError = null;
+                } catch (IOException e) {
+                    lastError = e.getMessage();
+                    LOG.warn("语义索引构建失败", e);
+                } finally {
+                    synchronized (buildLock) {
+                        buildIndicator = null;
+                    }
+                }
+            }
+        }.queue();
+    }
+
+    /**
+     * 查询与文本最相关的 k 个类或方法；索引尚未就绪时返回空列表
+     */
+    public List<Hit> search(String query, int k) throws IOException {
+        Index idx = index;
+        if (idx == null || query == null || query.isBlank()) return Collections.emptyList();
+        float[] q = VectorStore.normalize(idx.provider.embed(query));
+        if (q.length != idx.store.dimension()) return Collections.emptyList();
+        List<HnswIndex.Scored> found = idx.graph.search(q, k, EF_SEARCH);
+        List<Hit> hits = new ArrayList<>(found.size());
+        synchronized (idx.entries) {
+            for (HnswIndex.Scored s : found) {
+                Entry e = idx.entries.get(s.id);
+                if (!e.deleted) hits.add(new Hit(e, s.score));
+            }
+        }
+        return hits;
+    }
+
+    private void build(EmbeddingProvider provider, ProgressIndicator indicator) throws IOException {
+        synchronized (writeLock) {
+            doBuild(provider, indicator);
+        }
+    }
+
+    private void doBuild(EmbeddingProvider provider, ProgressIndicator indicator) throws IOException {
+        indicator.setText("收集源文件");
+        List<VirtualFile> files = ReadAction.compute(() -> {
+            List<VirtualFile> list = new ArrayList<>();
+            ProjectFileIndex.getInstance(project).iterateContent(vf -> {
+                if (isIndexable(vf)) list.add(vf);
+                return true;
+            });
+            return list;
+        });
+
+        int dimension = provider.embed("dimension probe").length;
+        Path dir = Paths.get(PathManager.getSystemPath(), "pandacoder-ai", "index", project.getLocationHash());
+        String name = Integer.toHexString(provider.id().hashCode());
+        Index previous = index;
+        if (previous != null) {
+            // 嵌入配置变化：旧索引下线后再打开新文件
+            index = null;
+            closeQuietly(previous);
+        }
+        Index idx = new Index(provider, VectorStore.open(dir.resolve(name + ".vec"), dimension), dir.resolve(name + ".meta"));
+        try {
+            Map<String, Long> upToDate = restore(idx, indicator);
+            indicator.setText("计算代码向量");
+            for (int i = 0; i < files.size(); i++) {
+                indicator.checkCanceled();
+                VirtualFile vf = files.get(i);
+                indicator.setFraction((double) i / files.size());
+                indicator.setText2(vf.getName());
+                Long stamp = upToDate.get(vf.getUrl());
+                if (stamp != null && stamp == vf.getTimeStamp()) continue;
+                indexFile(idx, vf);
+            }
+            idx.store.force();
+            saveMeta(idx);
+        } catch (IOException | RuntimeException e) {
+            // 包括取消构建：已计算的向量随元数据保存，下次构建时复用
+            closeQuietly(idx);
+            throw e;
+        }
+        index = idx;
+    }
+
+    /**
+     * 读取上次保存的元数据，时间戳未变的文件直接复用已有向量，返回这些文件及其时间戳
+     */
+    private Map<String, Long> restore(Index idx, ProgressIndicator indicator) {
+        Map<String, Long> upToDate = new HashMap<>();
+        List<Entry> saved = readMeta(idx.metaFile);
+        if (saved == null || saved.size() != idx.store.size()) {
+            idx.store.clear();
+            return upToDate;
+        }
+        indicator.setText("加载已有索引");
+        VirtualFileManager vfm = VirtualFileManager.getInstance();
+        Map<String, Boolean> valid = new HashMap<>();
+        boolean[] ok = new boolean[saved.size()];
+        int live = 0;
+        for (int id = 0; id < saved.size(); id++) {
+            Entry e = saved.get(id);
+            ok[id] = !e.deleted && valid.computeIfAbsent(e.fileUrl, url -> {
+                VirtualFile vf = vfm.findFileByUrl(url);
+                return vf != null && vf.isValid() && vf.getTimeStamp() == e.fileStamp;
+            });
+            if (ok[id]) live++;
+        }
+        if (live < saved.size() * (1 - COMPACT_RATIO)) {
+            // 失效的向量过多：前移仍有效的向量并丢弃墓碑，不需要重新计算
+            int[] keep = new int[live];
+            List<Entry> kept = new ArrayList<>(live);
+            for (int id = 0, j = 0; id < saved.size(); id++) {
+                if (!ok[id]) continue;
+                keep[j++] = id;
+                kept.add(saved.get(id));
+            }
+            idx.store.compact(keep);
+            saved = kept;
+            ok = new boolean[live];
+            Arrays.fill(ok, true);
+        }
+        for (int id = 0; id < saved.size(); id++) {
+            indicator.checkCanceled();
+            Entry e = saved.get(id);
+            idx.entries.add(e);
+            idx.graph.insert(id);
+            if (ok[id]) {
+                idx.idsByFile.computeIfAbsent(e.fileUrl, k -> new ArrayList<>()).add(id);
+                upToDate.put(e.fileUrl, e.fileStamp);
+            } else {
+                e.deleted = true;
+                idx.graph.delete(id);
+            }
+        }
+        return upToDate;
+    }
+
+    /**
+     * 重新索引一个文件：文本未变的代码块沿用原向量，只更新偏移；变化的代码块重新计算并追加到末尾，旧向量打墓碑。
+     * 代码块来自尚未保存的编辑时记录 {@link #UNSAVED_STAMP}，重启后这些编辑可能已被丢弃，需按磁盘内容重新索引
+     */
+    private void indexFile(Index idx, VirtualFile vf) throws IOException {
+        List<Chunk> chunks = ReadAction.nonBlocking(() -> extractChunks(vf)).executeSynchronously();
+        String url = vf.getUrl();
+        // 在读取代码块之后判断：此时已保存说明磁盘内容不旧于所读内容，之后的保存会再触发一次更新
+        long stamp = ReadAction.compute(() -> FileDocumentManager.getInstance().isFileModified(vf))
+                ? UNSAVED_STAMP : vf.getTimeStamp();
+        Map<String, Integer> reusable = new HashMap<>();
+        synchronized (idx.entries) {
+            List<Integer> old = idx.idsByFile.remove(url);
+            if (old != null) {
+                for (int id : old) {
+                    Entry e = idx.entries.get(id);
+                    if (reusable.putIfAbsent(e.label + '\0' + e.textHash, id) != null) tombstone(idx, id);
+                }
+            }
+        }
+        List<Integer> ids = new ArrayList<>(chunks.size());
+        try {
+            for (Chunk c : chunks) {
+                int hash = c.text.hashCode();
+                Integer kept = reusable.remove(c.label + '\0' + hash);
+                if (kept != null) {
+                    synchronized (idx.entries) {
+                        idx.entries.set(kept, new Entry(url, c.label, c.offset, stamp, hash));
+                    }
+                    ids.add(kept);
+                    continue;
+                }
+                float[] v = idx.provider.embed(c.text);
+                int id;
+                synchronized (idx.entries) {
+                    id = idx.store.add(v);
+                    idx.entries.add(new Entry(url, c.label, c.offset, stamp, hash));
+                }
+                idx.graph.insert(id);
+                ids.add(id);
+            }
+            synchronized (idx.entries) {
+                for (int id : reusable.values()) tombstone(idx, id);
+                reusable.clear();
+            }
+        } finally {
+            synchronized (idx.entries) {
+                // 中途失败时尚未处理的旧向量仍归属该文件，下次更新时再处理
+                ids.addAll(reusable.values());
+                if (!ids.isEmpty()) idx.idsByFile.put(url, ids);
+            }
+        }
+    }
+
+    /**
+     * 增量更新：重新索引一个文件；索引未就绪或正在全量构建时忽略
+     */
+    void reindex(VirtualFile vf) throws IOException {
+        synchronized (writeLock) {
+            Index idx = index;
+            if (idx == null) return;
+            if (vf.isValid()) {
+                indexFile(idx, vf);
+            } else {
+                remove(vf.getUrl());
+            }
+        }
+    }
+
+    /**
+     * 增量更新：文件或目录被删除、移动或重命名后，给原路径下的全部向量打墓碑
+     */
+    void remove(String url) {
+        synchronized (writeLock) {
+            Index idx = index;
+            if (idx == null) return;
+            String dirPrefix = url.endsWith("/") ? url : url + "/";
+            synchronized (idx.entries) {
+                idx.idsByFile.entrySet().removeIf(en -> {
+                    if (!en.getKey().equals(url) && !en.getKey().startsWith(dirPrefix)) return false;
+                    for (int id : en.getValue()) tombstone(idx, id);
+                    return true;
+                });
+            }
+        }
+    }
+
+    /**
+     * 一批增量更新结束：落盘，墓碑过多时压缩
+     */
+    void commitUpdates() {
+        synchronized (writeLock) {
+            Index idx = index;
+            if (idx == null) return;
+            try {
+                if (idx.graph.deletedRatio() > COMPACT_RATIO) {
+                    idx = compact(idx);
+                }
+                idx.store.force();
+                saveMeta(idx);
+            } catch (IOException e) {
+                LOG.warn("保存语义索引失败", e);
+            }
+        }
+    }
+
+    /**
+     * 前移有效向量、丢弃墓碑并重建图；只做图插入，不重新计算向量
+     */
+    private Index compact(Index idx) {
+        int[] keep;
+        List<Entry> live = new ArrayList<>();
+        synchronized (idx.entries) {
+            keep = new int[idx.entries.size()];
+            for (int id = 0; id < idx.entries.size(); id++) {
+                Entry e = idx.entries.get(id);
+                if (e.deleted) continue;
+                keep[live.size()] = id;
+                live.add(e);
+            }
+        }
+        // 压缩时向量位置会移动：在旧图的写锁内进行，等进行中的查询结束，之后仍持有旧索引的查询返回空结果
+        index = null;
+        int[] kept = Arrays.copyOf(keep, live.size());
+        idx.graph.retire(() -> idx.store.compact(kept));
+        Index fresh = new Index(idx.provider, idx.store, idx.metaFile);
+        for (int id = 0; id < live.size(); id++) {
+            Entry e = live.get(id);
+            fresh.entries.add(e);
+            fresh.graph.insert(id);
+            fresh.idsByFile.computeIfAbsent(e.fileUrl, k -> new ArrayList<>()).add(id);
+        }
+        index = fresh;
+        return fresh;
+    }
+
+    private static void tombstone(Index idx, int id) {
+        idx.entries.get(id).deleted = true;
+        idx.graph.delete(id);
+    }
+
+    /**
+     * 每个具名类一个代码块（声明、Javadoc 与成员列表），每个方法一个代码块
+     */
+    private List<Chunk> extractChunks(VirtualFile vf) {
+        if (!vf.isValid()) return Collections.emptyList();
+        PsiFile file = PsiManager.getInstance(project).findFile(vf);
+        if (!(file instanceof PsiJavaFile)) return Collections.emptyList();
+        List<Chunk> chunks = new ArrayList<>();
+        for (PsiClass cls : PsiTreeUtil.findChildrenOfType(file, PsiClass.class)) {
+            String qname = cls.getQualifiedName();
+            if (qname == null || cls instanceof PsiAnonymousClass) continue;
+            StringBuilder sb = new StringBuilder();
+            sb.append("class ").append(qname).append('\n');
+            if (cls.getDocComment() != null) sb.append(cls.getDocComment().getText()).append('\n');
+            for (PsiMember m : cls.getFields()) sb.append(m.getName()).append(' ');
+            for (PsiMethod m : cls.getMethods()) sb.append(m.getName()).append(' ');
+            chunks.add(new Chunk(qname, cap(sb), cls.getTextOffset()));
+            for (PsiMethod m : cls.getMethods()) {
+                StringBuilder mb = new StringBuilder();
+                mb.append("// ").append(qname).append('#').append(m.getName()).append('\n').append(m.getText());
+                chunks.add(new Chunk(qname + "#" + m.getName(), cap(mb), m.getTextOffset()));
+            }
+        }
+        return chunks;
+    }
+
+    private static String cap(CharSequence text) {
+        return text.length() > MAX_CHUNK_CHARS ? text.subSequence(0, MAX_CHUNK_CHARS).toString() : text.toString();
+    }
+
+    private EmbeddingProvider createProvider() {
+        PandaCoderAISettings s = PandaCoderAISettings.getInstance();
+        if ("ollama".equals(s.getEmbeddingProvider())) {
+            return new OllamaEmbeddingProvider(s.getEmbeddingBaseUrl(), s.getEmbeddingModel(),
+                    Duration.ofSeconds(s.getOllamaTimeoutSeconds()));
+        }
+        return new HashingEmbeddingProvider();
+    }
+
+    private static List<Entry> readMeta(Path file) {
+        if (!Files.isRegularFile(file)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != META_VERSION) return null;
+            int count = in.readInt();
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Entry e = new Entry(in.readUTF(), in.readUTF(), in.readInt(), in.readLong(), in.readInt());
+                e.deleted = in.readBoolean();
+                entries.add(e);
+            }
+            return entries;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void saveMeta(Index idx) throws IOException {
+        Path tmp = idx.metaFile.resolveSibling(idx.metaFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            synchronized (idx.entries) {
+                out.writeInt(META_VERSION);
+                out.writeInt(idx.entries.size());
+                for (Entry e : idx.entries) {
+                    out.writeUTF(e.fileUrl);
+                    out.writeUTF(e.label);
+                    out.writeInt(e.offset);
+                    out.writeLong(e.fileStamp);
+                    out.writeInt(e.textHash);
+                    out.writeBoolean(e.deleted);
+                }
+            }
+        }
+        Files.move(tmp, idx.metaFile, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void closeQuietly(Index idx) {
+        try {
+            saveMeta(idx);
+            idx.store.close();
+        } catch (IOException e) {
+            LOG.warn("保存语义索引失败", e);
+        }
+    }
+
+    @Override
+    public void dispose() {
+        synchronized (buildLock) {
+            if (buildIndicator != null) buildIndicator.cancel();
+        }
+        Index idx = index;
+        index = null;
+        if (idx != null) closeQuietly(idx);
+    }
+}
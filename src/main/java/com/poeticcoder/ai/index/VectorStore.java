@@ -0,0 +1,185 @@
+package com.poeticcoder.ai.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 内存映射的定长向量文件
+ * 文件头 16 字节（魔数、版本、维度、条数），之后按 id 顺序连续存放归一化后的 float 向量。
+ * 向量数据位于堆外，由操作系统按需换页，索引规模不受 JVM 堆大小限制
+ */
+final class VectorStore implements Closeable {
+
+    private static final int MAGIC = 0x50435649; // "PCVI"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final long MAX_BYTES = Integer.MAX_VALUE;
+
+    private final FileChannel channel;
+    private final int dimension;
+    private volatile MappedByteBuffer buffer;
+    private volatile FloatBuffer floats;
+    private volatile int size;
+
+    private VectorStore(FileChannel channel, int dimension, int size) throws IOException {
+        this.channel = channel;
+        this.dimension = dimension;
+        this.size = size;
+        remap(Math.max(HEADER_BYTES + (long) Math.max(size, 1024) * dimension * 4, channel.size()));
+    }
+
+    /**
+     * 打开向量文件；文件不存在或维度不一致时重新创建
+     */
+    static VectorStore open(Path file, int dimension) throws IOException {
+        Files.createDirectories(file.getParent());
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int size = 0;
+        if (ch.size() >= HEADER_BYTES) {
+            MappedByteBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) == MAGIC && header.getInt(4) == VERSION && header.getInt(8) == dimension) {
+                size = header.getInt(12);
+                if (HEADER_BYTES + (long) size * dimension * 4 > ch.size()) size = 0;
+            }
+        }
+        if (size == 0) {
+            ch.truncate(0);
+        }
+        VectorStore store = new VectorStore(ch, dimension, size);
+        store.writeHeader();
+        return store;
+    }
+
+    int dimension() {
+        return dimension;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 追加一个向量（写入前归一化），返回其 id
+     */
+    synchronized int add(float[] vector) throws IOException {
+        if (vector.length != dimension) {
+            throw new IOException("向量维度不一致: " + vector.length + " != " + dimension);
+        }
+        int id = size;
+        long needed = HEADER_BYTES + (long) (id + 1) * dimension * 4;
+        if (needed > buffer.capacity()) {
+            if (needed > MAX_BYTES) throw new IOException("向量索引已超过 2GB 上限");
+            remap(Math.min(MAX_BYTES, Math.max(needed, (long) buffer.capacity() * 2)));
+        }
+        float norm = norm(vector);
+        FloatBuffer f = floats;
+        int base = id * dimension;
+        for (int i = 0; i < dimension; i++) {
+            f.put(base + i, norm == 0 ? 0 : vector[i] / norm);
+        }
+        size = id + 1;
+        buffer.putInt(12, size);
+        return id;
+    }
+
+    /**
+     * 两个已存向量的余弦相似度（向量已归一化，即点积）
+     */
+    float similarity(int a, int b) {
+        FloatBuffer f = floats;
+        int ba = a * dimension;
+        int bb = b * dimension;
+        float sum = 0;
+        for (int i = 0; i < dimension; i++) {
+            sum += f.get(ba + i) * f.get(bb + i);
+        }
+        return sum;
+    }
+
+    /**
+     * 查询向量（需已归一化）与已存向量的相似度
+     */
+    float similarity(float[] query, int id) {
+        FloatBuffer f = floats;
+        int base = id * dimension;
+        float sum = 0;
+        for (int i = 0; i < dimension; i++) {
+            sum += query[i] * f.get(base + i);
+        }
+        return sum;
+    }
+
+    static float[] normalize(float[] v) {
+        float norm = norm(v);
+        float[] out = new float[v.length];
+        if (norm == 0) return out;
+        for (int i = 0; i < v.length; i++) out[i] = v[i] / norm;
+        return out;
+    }
+
+    /**
+     * 压缩：把 keep（升序）中的向量依次前移到 0..keep.length-1，丢弃其余向量。
+     * 目标位置不会超过来源位置，原地顺序复制即可
+     */
+    synchronized void compact(int[] keep) {
+        FloatBuffer f = floats;
+        for (int j = 0; j < keep.length; j++) {
+            int from = keep[j] * dimension;
+            int to = j * dimension;
+            if (from == to) continue;
+            for (int i = 0; i < dimension; i++) {
+                f.put(to + i, f.get(from + i));
+            }
+        }
+        size = keep.length;
+        buffer.putInt(12, size);
+    }
+
+    /**
+     * 清空全部向量
+     */
+    synchronized void clear() {
+        size = 0;
+        buffer.putInt(12, 0);
+    }
+
+    synchronized void force() {
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    private void writeHeader() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, dimension);
+        buffer.putInt(12, size);
+    }
+
+    private void remap(long bytes) throws IOException {
+        MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        FloatBuffer f = b.slice(HEADER_BYTES, (int) bytes - HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        // 先发布新的 float 视图，再替换 buffer；旧映射在被回收前仍然有效，读者不会读到未映射区域
+        floats = f;
+        buffer = b;
+    }
+
+    private static float norm(float[] v) {
+        double sum = 0;
+        for (float x : v) sum += (double) x * x;
+        return (float) Math.sqrt(sum);
+    }
+}
@@ -0,0 +1,409 @@
+package com.poeticcoder.ai.session;
+
+import com.poeticcoder.ai.context.ContextAttachment;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 单个会话的追加式日志文件
+ * 文件头 8 字节（魔数、版本），之后每条记录为 长度、CRC32、标志 共 9 字节的头部加记录内容，较长的记录用 Deflate 压缩。
+ * 读取时遇到不完整或校验失败的记录即停止，下次追加从该位置覆盖，进程中途退出最多丢失最后一条记录。
+ * 只在 {@link SessionStore} 的 IO 线程中访问
+ */
+final class SessionLog implements Closeable {
+
+    static final byte MESSAGE = 1;
+    static final byte PINS = 2;
+    static final byte CLEAR = 3;
+    static final byte COMPACT = 4;
+
+    private static final int MAGIC = 0x50435353; // "PCSS"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int RECORD_HEADER_BYTES = 9;
+    private static final byte FLAG_DEFLATE = 1;
+    /** 记录内容超过该长度才尝试压缩 */
+    private static final int COMPRESS_MIN_BYTES = 512;
+    /** 失效记录占比超过该值且文件不小于 MIN_COMPACT_BYTES 时压缩文件 */
+    private static final double COMPACT_RATIO = 0.5;
+    private static final long MIN_COMPACT_BYTES = 64 * 1024;
+
+    private final Path file;
+    private FileChannel channel;
+    private boolean replayed;
+    /** 有效内容的长度，之后的字节是上次未写完的记录 */
+    private long size;
+    /** 已被之后的 CLEAR、PINS 或 COMPACT 覆盖的字节数 */
+    private long deadBytes;
+    /** 最后一条 PINS 记录的长度 */
+    private long pinsBytes;
+    /** 最后一条 COMPACT 记录的长度 */
+    private long compactBytes;
+
+    SessionLog(Path file) {
+        this.file = file;
+    }
+
+    boolean isReplayed() {
+        return replayed;
+    }
+
+    /**
+     * 读取并重放全部有效记录
+     */
+    SessionStore.Snapshot replay() throws IOException {
+        Replay state = new Replay();
+        size = 0;
+        deadBytes = 0;
+        pinsBytes = 0;
+        compactBytes = 0;
+        replayed = true;
+        if (!Files.isRegularFile(file)) {
+            return state.snapshot();
+        }
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (buf.remaining() < HEADER_BYTES || buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+            return state.snapshot();
+        }
+        size = HEADER_BYTES;
+        CRC32 crc = new CRC32();
+        while (buf.remaining() >= RECORD_HEADER_BYTES) {
+            int length = buf.getInt();
+            int checksum = buf.getInt();
+            byte flags = buf.get();
+            if (length < 0 || length > buf.remaining()) break;
+            crc.reset();
+            crc.update(buf.array(), buf.position(), length);
+            if ((int) crc.getValue() != checksum) break;
+            byte[] data = new byte[length];
+            buf.get(data);
+            int recordBytes = RECORD_HEADER_BYTES + length;
+            byte type;
+            try {
+                type = state.apply((flags & FLAG_DEFLATE) != 0 ? inflate(data) : data);
+            } catch (IOException | DataFormatException e) {
+                break;
+            }
+            size += recordBytes;
+            account(type, recordBytes);
+        }
+        return state.snapshot();
+    }
+
+    /**
+     * 追加一条记录；文件末尾有未写完的记录时先截掉
+     */
+    void append(byte[] payload) throws IOException {
+        if (channel == null) {
+            Files.createDirectories(file.getParent());
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (size < HEADER_BYTES) {
+                channel.truncate(0);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION);
+                header.flip();
+                writeFully(header, 0);
+                size = HEADER_BYTES;
+            } else if (channel.size() > size) {
+                channel.truncate(size);
+            }
+        }
+        ByteBuffer record = encodeRecord(payload);
+        int recordBytes = record.remaining();
+        writeFully(record, size);
+        size += recordBytes;
+        account(payload[0], recordBytes);
+    }
+
+    /**
+     * 统计被覆盖的字节数，size 已包含该记录
+     */
+    private void account(byte type, int recordBytes) {
+        if (type == CLEAR) {
+            deadBytes = size - HEADER_BYTES;
+            pinsBytes = 0;
+            compactBytes = 0;
+        } else if (type == PINS) {
+            deadBytes += pinsBytes;
+            pinsBytes = recordBytes;
+        } else if (type == COMPACT) {
+            deadBytes += compactBytes;
+            compactBytes = recordBytes;
+        }
+    }
+
+    boolean needsCompaction() {
+        return size >= MIN_COMPACT_BYTES && deadBytes > size * COMPACT_RATIO;
+    }
+
+    /**
+     * 只写入仍然有效的内容生成新文件，再原子替换旧文件
+     */
+    void compact(SessionStore.Snapshot live) throws IOException {
+        close();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        SessionLog fresh = new SessionLog(tmp);
+        fresh.replayed = true;
+        try {
+            for (SessionStore.Entry e : live.entries) {
+                fresh.append(message(e.role, e.content));
+            }
+            if (live.folded > 0) {
+                fresh.append(compacted(live.folded, live.summary));
+            }
+            if (!live.pinned.isEmpty()) {
+                fresh.append(pins(live.pinned));
+            }
+            if (fresh.channel != null) fresh.channel.force(false);
+        } finally {
+            fresh.close();
+        }
+        if (fresh.size == 0) {
+            Files.deleteIfExists(file);
+        } else {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        size = fresh.size;
+        deadBytes = 0;
+        pinsBytes = fresh.pinsBytes;
+        compactBytes = fresh.compactBytes;
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file);
+        size = 0;
+        deadBytes = 0;
+        pinsBytes = 0;
+        compactBytes = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel == null) return;
+        try {
+            channel.force(false);
+            channel.close();
+        } finally {
+            channel = null;
+        }
+    }
+
+    private void writeFully(ByteBuffer buf, long position) throws IOException {
+        long pos = position;
+        while (buf.hasRemaining()) {
+            pos += channel.write(buf, pos);
+        }
+    }
+
+    // ---------------------------------------------------------------- 记录编码
+
+    static byte[] message(String role, String content) {
+        return encode(out -> {
+            out.writeByte(MESSAGE);
+            writeString(out, role);
+            writeString(out, content);
+        });
+    }
+
+    static byte[] pins(List<ContextAttachment> pinned) {
+        return encode(out -> {
+            out.writeByte(PINS);
+            out.writeInt(pinned.size());
+            for (ContextAttachment att : pinned) {
+                writeString(out, att.key);
+                writeString(out, att.label);
+                writeString(out, att.path);
+                writeString(out, att.lang);
+                writeString(out, att.head);
+                out.writeInt(att.body.size());
+                for (String part : att.body) {
+                    writeString(out, part);
+                }
+                writeString(out, att.tail);
+            }
+        });
+    }
+
+    static byte[] clear() {
+        return new byte[]{CLEAR};
+    }
+
+    /**
+     * 历史压缩：从头起累计 folded 条消息（不含上下文气泡）已由 summary 代替
+     */
+    static byte[] compacted(int folded, String summary) {
+        return encode(out -> {
+            out.writeByte(COMPACT);
+            out.writeInt(folded);
+            writeString(out, summary);
+        });
+    }
+
+    /**
+     * 重放过程中的会话状态
+     */
+    private static final class Replay {
+        final List<SessionStore.Entry> entries = new ArrayList<>();
+        final List<ContextAttachment> pinned = new ArrayList<>();
+        int folded;
+        String summary = "";
+
+        SessionStore.Snapshot snapshot() {
+            return new SessionStore.Snapshot(entries, pinned, folded, summary);
+        }
+
+        /**
+         * 应用一条记录，返回记录类型
+         */
+        byte apply(byte[] payload) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            byte type = in.readByte();
+            switch (type) {
+                case MESSAGE:
+                    entries.add(new SessionStore.Entry(readString(in), readString(in)));
+                    break;
+                case PINS:
+                    pinned.clear();
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        pinned.add(readAttachment(in));
+                    }
+                    break;
+                case CLEAR:
+                    entries.clear();
+                    pinned.clear();
+                    folded = 0;
+                    summary = "";
+                    break;
+                case COMPACT:
+                    folded = in.readInt();
+                    summary = readString(in);
+                    break;
+                default:
+                    throw new IOException("未知的会话记录类型: " + type);
+            }
+            return type;
+        }
+    }
+
+    private static ContextAttachment readAttachment(DataInputStream in) throws IOException {
+        String key = readString(in);
+        String label = readString(in);
+        String path = readString(in);
+        String lang = readString(in);
+        String head = readString(in);
+        int parts = in.readInt();
+        List<String> body = new ArrayList<>(parts);
+        for (int j = 0; j < parts; j++) {
+            body.add(readString(in));
+        }
+        String tail = readString(in);
+        // 只保存内容快照，不关联 PSI
+        return new ContextAttachment(UUID.randomUUID().toString(), label, path, lang, head, body, tail, null, key);
+    }
+
+    private static ByteBuffer encodeRecord(byte[] payload) {
+        byte[] data = payload;
+        byte flags = 0;
+        if (payload.length >= COMPRESS_MIN_BYTES) {
+            byte[] packed = deflate(payload);
+            if (packed.length < payload.length) {
+                data = packed;
+                flags = FLAG_DEFLATE;
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_HEADER_BYTES + data.length);
+        buf.putInt(data.length).putInt((int) crc.getValue()).put(flags).put(data);
+        buf.flip();
+        return buf;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 3);
+            byte[] chunk = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("压缩记录不完整");
+                }
+                out.write(chunk, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] encode(Writer writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writer.write(out);
+        } catch (IOException e) {
+            // 写入内存不会失败
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 长度加 UTF-8 字节，不受 writeUTF 的 64KB 限制
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) throw new IOException("会话记录已损坏");
+        byte[] b = new byte[length];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
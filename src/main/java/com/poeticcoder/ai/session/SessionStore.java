@@ -0,0 +1,295 @@
+package com.poeticcoder.ai.session;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.poeticcoder.ai.context.ContextAttachment;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 项目级会话存储
+ * 每个会话一个追加式日志文件（{@link SessionLog}），另有一个只记录会话名称与文件编号的清单。
+ * 打开项目时只读取清单，会话内容在第一次选中时才加载；所有文件读写都在单线程的后台执行器中按提交顺序进行，
+ * 调用方（EDT）不做任何 IO：清单由 {@link #listSessions()} 在后台读取，其余方法只访问内存中的清单，
+ * 应在它完成后调用。文件保存在 IDE 系统目录，按项目区分
+ */
+public final class SessionStore implements Disposable {
+
+    private static final Logger LOG = Logger.getInstance(SessionStore.class);
+    private static final int MANIFEST_VERSION = 1;
+    /** 上下文气泡的角色名，与 user / assistant 消息一起按顺序保存 */
+    public static final String CONTEXT = "context";
+
+    private final Path dir;
+    private final ExecutorService io = AppExecutorUtil.createBoundedApplicationPoolExecutor("PandaCoder AI Sessions", 1);
+    /** 会话名称 -> 日志文件编号，按创建顺序 */
+    private final Map<String, Integer> manifest = new LinkedHashMap<>();
+    private boolean manifestLoaded;
+    private int nextFileId = 1;
+    /** 已打开的日志，只在 io 线程访问 */
+    private final Map<String, SessionLog> logs = new HashMap<>();
+
+    public SessionStore(Project project) {
+        this.dir = Paths.get(PathManager.getSystemPath(), "pandacoder-ai", "sessions", project.getLocationHash());
+    }
+
+    public static SessionStore getInstance(Project project) {
+        return project.getService(SessionStore.class);
+    }
+
+    /**
+     * 一条保存的消息
+     */
+    public static final class Entry {
+        /** user、assistant、system（当轮发送的项目上下文）或 {@link #CONTEXT} */
+        public final String role;
+        public final String content;
+
+        public Entry(String role, String content) {
+            this.role = role;
+            this.content = content;
+        }
+    }
+
+    /**
+     * 重放日志得到的会话内容
+     */
+    public static final class Snapshot {
+        public final List<Entry> entries;
+        /** 固定的上下文；只保存了内容，不关联 PSI */
+        public final List<ContextAttachment> pinned;
+        /** 从头起已被摘要代替的消息数，不计上下文气泡 */
+        public final int folded;
+        public final String summary;
+
+        Snapshot(List<Entry> entries, List<ContextAttachment> pinned, int folded, String summary) {
+            this.entries = entries;
+            this.pinned = pinned;
+            this.folded = folded;
+            this.summary = summary;
+        }
+    }
+
+    /**
+     * 在后台读取清单，返回已保存的会话名称，按创建顺序
+     */
+    public CompletableFuture<List<String>> listSessions() {
+        return CompletableFuture.supplyAsync(() -> {
+            synchronized (this) {
+                loadManifest();
+                return new ArrayList<>(manifest.keySet());
+            }
+        }, io);
+    }
+
+    public synchronized boolean contains(String name) {
+        loadManifest();
+        return manifest.containsKey(name);
+    }
+
+    public synchronized void create(String name) {
+        loadManifest();
+        if (manifest.containsKey(name)) return;
+        int fileId = nextFileId++;
+        manifest.put(name, fileId);
+        Path file = logFile(fileId);
+        submit(() -> {
+            // 清单未保存前进程退出可能留下同编号的旧文件
+            Files.deleteIfExists(file);
+            saveManifest();
+        });
+    }
+
+    public synchronized void delete(String name) {
+        loadManifest();
+        if (manifest.remove(name) == null) return;
+        submit(() -> {
+            SessionLog log = logs.remove(name);
+            if (log != null) log.delete();
+            saveManifest();
+        });
+    }
+
+    /**
+     * 在后台读取会话内容；读取失败时返回空会话
+     */
+    public CompletableFuture<Snapshot> load(String name) {
+        return CompletableFuture.supplyAsync(() -> {
+            SessionLog log = log(name);
+            if (log == null) return new Snapshot(new ArrayList<>(), new ArrayList<>(), 0, "");
+            try {
+                Snapshot snapshot = log.replay();
+                if (log.needsCompaction()) log.compact(snapshot);
+                return snapshot;
+            } catch (IOException e) {
+                LOG.warn("读取会话失败: " + name, e);
+                return new Snapshot(new ArrayList<>(), new ArrayList<>(), 0, "");
+            }
+        }, io);
+    }
+
+    public void appendMessage(String name, String role, String content) {
+        byte[] record = SessionLog.message(role, content);
+        submit(() -> append(name, record));
+    }
+
+    /**
+     * 清空会话的消息与固定上下文
+     */
+    public void clear(String name) {
+        submit(() -> append(name, SessionLog.clear()));
+    }
+
+    /**
+     * 记录历史压缩
+     * @param folded 从头起累计被摘要代替的消息数，不计上下文气泡
+     */
+    public void saveSummary(String name, int folded, String summary) {
+        submit(() -> append(name, SessionLog.compacted(folded, summary)));
+    }
+
+    /**
+     * 保存当前固定的上下文，覆盖之前保存的列表
+     */
+    public void savePinned(String name, List<ContextAttachment> pinned) {
+        List<ContextAttachment> copy = new ArrayList<>(pinned);
+        submit(() -> append(name, SessionLog.pins(copy)));
+    }
+
+    private void append(String name, byte[] record) throws IOException {
+        SessionLog log = log(name);
+        if (log == null) return;
+        if (!log.isReplayed()) {
+            // 追加前需要知道有效内容的结尾
+            log.replay();
+        }
+        log.append(record);
+        if (log.needsCompaction()) {
+            log.compact(log.replay());
+        }
+    }
+
+    /**
+     * 会话对应的日志，会话已删除时返回 null；只在 io 线程调用
+     */
+    private SessionLog log(String name) {
+        Integer fileId;
+        synchronized (this) {
+            loadManifest();
+            fileId = manifest.get(name);
+        }
+        if (fileId == null) return null;
+        return logs.computeIfAbsent(name, k -> new SessionLog(logFile(fileId)));
+    }
+
+    private Path logFile(int fileId) {
+        return dir.resolve(fileId + ".log");
+    }
+
+    private interface IoTask {
+        void run() throws IOException;
+    }
+
+    private void submit(IoTask task) {
+        io.execute(() -> {
+            try {
+                task.run();
+            } catch (IOException e) {
+                LOG.warn("保存会话失败", e);
+            }
+        });
+    }
+
+    private void loadManifest() {
+        if (manifestLoaded) return;
+        manifestLoaded = true;
+        Path file = dir.resolve("sessions.idx");
+        if (!Files.isRegularFile(file)) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MANIFEST_VERSION) return;
+            nextFileId = in.readInt();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                int fileId = in.readInt();
+                manifest.put(name, fileId);
+                nextFileId = Math.max(nextFileId, fileId + 1);
+            }
+        } catch (IOException e) {
+            LOG.warn("读取会话清单失败", e);
+        }
+    }
+
+    /**
+     * 先写临时文件再替换，只在 io 线程调用
+     */
+    private void saveManifest() throws IOException {
+        Map<String, Integer> copy;
+        int next;
+        synchronized (this) {
+            copy = new LinkedHashMap<>(manifest);
+            next = nextFileId;
+        }
+        Files.createDirectories(dir);
+        Path file = dir.resolve("sessions.idx");
+        Path tmp = dir.resolve("sessions.idx.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MANIFEST_VERSION);
+            out.writeInt(next);
+            out.writeInt(copy.size());
+            for (Map.Entry<String, Integer> e : copy.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue());
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * 等待已提交的写入完成后关闭文件
+     */
+    @Override
+    public void dispose() {
+        Future<?> closed = io.submit(() -> {
+            for (SessionLog log : logs.values()) {
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    LOG.warn("关闭会话文件失败", e);
+                }
+            }
+            logs.clear();
+        });
+        try {
+            closed.get(3, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            LOG.warn("会话写入未在关闭项目前完成");
+        } catch (ExecutionException e) {
+            LOG.warn("关闭会话文件失败", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
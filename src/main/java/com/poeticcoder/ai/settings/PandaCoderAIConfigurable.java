@@ -1,13 +1,25 @@
 package com.poeticcoder.ai.settings;
 
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.options.Configurable;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
 import com.intellij.openapi.ui.Messages;
-import com.poeticcoder.ai.chat.OpenAICompatibleChatClient;
+import com.poeticcoder.ai.chat.ChatEndpoint;
+import com.poeticcoder.ai.chat.ChatHttpTransport;
+import com.poeticcoder.ai.chat.ChatMessage;
+import com.poeticcoder.ai.chat.ModelWarmupService;
+import com.poeticcoder.ai.context.Tokenizers;
+import com.poeticcoder.ai.index.SemanticCodeIndex;
 import org.jetbrains.annotations.Nls;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
 import java.awt.*;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 /**
  * PandaCoder AI 设置界面
@@ -18,9 +30,28 @@ public class PandaCoderAIConfigurable implements Configurable {
     private JCheckBox enableAiChatCheckBox;
     private JComboBox<String> providerTypeCombo;
     private JTextField baseUrlField;
+    private JTextField extraBaseUrlsField;
     private JPasswordField apiKeyField;
     private JTextField modelField;
     private JButton testConnectionButton;
+    private JSpinner connectTimeoutSpinner;
+    private JSpinner ollamaTimeoutSpinner;
+    private JSpinner openaiTimeoutSpinner;
+    private JTextField ollamaKeepAliveField;
+    private JCheckBox ollamaWarmupCheckBox;
+    private JSpinner httpPoolSizeSpinner;
+    private JSpinner maxRequestsPerEndpointSpinner;
+    private JCheckBox http2CheckBox;
+    private JSpinner contextTokenBudgetSpinner;
+    private JTextField tokenizerDirField;
+    private JSpinner historyTokenBudgetSpinner;
+    private JSpinner historyKeepTurnsSpinner;
+    private JCheckBox speculativePrefillCheckBox;
+    private JCheckBox semanticIndexCheckBox;
+    private JComboBox<String> embeddingProviderCombo;
+    private JTextField embeddingBaseUrlField;
+    private JTextField embeddingModelField;
+    private JSpinner semanticTopKSpinner;
 
     @Nls(capitalization = Nls.Capitalization.Title)
     @Override
@@ -58,6 +89,13 @@ public class PandaCoderAIConfigurable implements Configurable {
         baseUrlField = new JTextField(30);
         formPanel.add(baseUrlField, gbc);
 
+        gbc.gridx = 0; gbc.gridy++;
+        formPanel.add(new JLabel("其他服务地址 (可选):"), gbc);
+        gbc.gridx = 1;
+        extraBaseUrlsField = new JTextField(30);
+        extraBaseUrlsField.setToolTipText("多个地址以逗号分隔，使用相同的服务类型、模型与 API Key；每次请求选择负载低、响应快的地址，同一会话尽量留在同一地址");
+        formPanel.add(extraBaseUrlsField, gbc);
+
         // API Key
         gbc.gridx = 0; gbc.gridy++;
         formPanel.add(new JLabel("API Key (可选):"), gbc);
@@ -72,8 +110,118 @@ public class PandaCoderAIConfigurable implements Configurable {
         modelField = new JTextField(30);
         formPanel.add(modelField, gbc);
 
-        // 测试连接按钮
+        // 连接配置
+        gbc.gridx = 0; gbc.gridy++;
+        formPanel.add(new JLabel("连接超时 (秒):"), gbc);
+        gbc.gridx = 1;
+        connectTimeoutSpinner = new JSpinner(new SpinnerNumberModel(10, 1, 300, 1));
+        formPanel.add(connectTimeoutSpinner, gbc);
+
+        gbc.gridx = 0; gbc.gridy++;
+        formPanel.add(new JLabel("Ollama 响应超时 (秒):"), gbc);
+        gbc.gridx = 1;
+        ollamaTimeoutSpinner = new JSpinner(new SpinnerNumberModel(120, 1, 3600, 1));
+        formPanel.add(ollamaTimeoutSpinner, gbc);
+
+        gbc.gridx = 0; gbc.gridy++;
+        formPanel.add(new JLabel("Ollama 模型保留时长:"), gbc);
+        gbc.gridx = 1;
+        ollamaKeepAliveField = new JTextField(30);
+        ollamaKeepAliveField.setToolTipText("keep_alive 参数，如 30m、2h，-1 表示常驻；期间模型与对话前缀的 KV 缓存保留在内存中，留空使用服务端默认值");
+        formPanel.add(ollamaKeepAliveField, gbc);
+
+        gbc.gridx = 0; gbc.gridy++; gbc.gridwidth = 2;
+        ollamaWarmupCheckBox = new JCheckBox("打开聊天窗口或切回 IDE 时预加载 Ollama 模型，使用期间定时续期");
+        formPanel.add(ollamaWarmupCheckBox, gbc);
+        gbc.gridwidth = 1;
+
+        gbc.gridx = 0; gbc.gridy++;
+        formPanel.add(new JLabel("OpenAI 兼容响应超时 (秒):"), gbc);
+        gbc.gridx = 1;
+        openaiTimeoutSpinner = new JSpinner(new SpinnerNumberModel(60, 1, 3600, 1));
+        formPanel.add(openaiTimeoutSpinner, gbc);
+
+        gbc.gridx = 0; gbc.gridy++;
+        formPanel.add(new JLabel("连接池线程数:"), gbc);
+        gbc.gridx = 1;
+        httpPoolSizeSpinner = new JSpinner(new SpinnerNumberModel(8, 1, 64, 1));
+        formPanel.add(httpPoolSizeSpinner, gbc);
+
+        gbc.gridx = 0; gbc.gridy++;
+        formPanel.add(new JLabel("每个服务地址的并发请求数:"), gbc);
+        gbc.gridx = 1;
+        maxRequestsPerEndpointSpinner = new JSpinner(new SpinnerNumberModel(2, 1, 32, 1));
+        maxRequestsPerEndpointSpinner.setToolTipText("所有项目窗口合计；超出的请求在插件内排队，按项目与会话轮流发出。本地 Ollama 建议与 OLLAMA_NUM_PARALLEL 一致");
+        formPanel.add(maxRequestsPerEndpointSpinner, gbc);
+
         gbc.gridx = 0; gbc.gridy++; gbc.gridwidth = 2;
+        http2CheckBox = new JCheckBox("HTTPS 端点启用 HTTP/2");
+        formPanel.add(http2CheckBox, gbc);
+
+        // 上下文配置
+        gbc.gridx = 0; gbc.gridy++; gbc.gridwidth = 1;
+        formPanel.add(new JLabel("上下文 Token 上限:"), gbc);
+        gbc.gridx = 1;
+        contextTokenBudgetSpinner = new JSpinner(new SpinnerNumberModel(4096, 256, 262144, 256));
+        formPanel.add(contextTokenBudgetSpinner, gbc);
+
+        gbc.gridx = 0; gbc.gridy++;
+        formPanel.add(new JLabel("Tokenizer 目录 (可选):"), gbc);
+        gbc.gridx = 1;
+        tokenizerDirField = new JTextField(30);
+        tokenizerDirField.setToolTipText("包含 <模型名>/tokenizer.json 或 <模型名>.json 的目录，未找到时按字符估算");
+        formPanel.add(tokenizerDirField, gbc);
+
+        gbc.gridx = 0; gbc.gridy++;
+        formPanel.add(new JLabel("对话历史 Token 上限:"), gbc);
+        gbc.gridx = 1;
+        historyTokenBudgetSpinner = new JSpinner(new SpinnerNumberModel(8192, 1024, 1048576, 1024));
+        historyTokenBudgetSpinner.setToolTipText("超出后在两轮对话之间由模型把较早的轮次压缩为摘要");
+        formPanel.add(historyTokenBudgetSpinner, gbc);
+
+        gbc.gridx = 0; gbc.gridy++;
+        formPanel.add(new JLabel("原样保留的最近轮数:"), gbc);
+        gbc.gridx = 1;
+        historyKeepTurnsSpinner = new JSpinner(new SpinnerNumberModel(4, 1, 50, 1));
+        formPanel.add(historyKeepTurnsSpinner, gbc);
+
+        gbc.gridx = 0; gbc.gridy++; gbc.gridwidth = 2;
+        speculativePrefillCheckBox = new JCheckBox("输入停顿时预先发送对话历史，让服务端提前缓存前缀（每轮多一次只生成 1 个 token 的请求）");
+        formPanel.add(speculativePrefillCheckBox, gbc);
+        gbc.gridwidth = 1;
+
+        // 语义检索配置
+        gbc.gridx = 0; gbc.gridy++; gbc.gridwidth = 2;
+        semanticIndexCheckBox = new JCheckBox("启用语义检索（后台构建本地向量索引，自动补充相关代码）");
+        formPanel.add(semanticIndexCheckBox, gbc);
+
+        gbc.gridy++; gbc.gridwidth = 1;
+        formPanel.add(new JLabel("向量模型来源:"), gbc);
+        gbc.gridx = 1;
+        embeddingProviderCombo = new JComboBox<>(new String[]{"本地哈希（无需模型）", "Ollama"});
+        formPanel.add(embeddingProviderCombo, gbc);
+
+        gbc.gridx = 0; gbc.gridy++;
+        formPanel.add(new JLabel("Ollama 向量服务地址:"), gbc);
+        gbc.gridx = 1;
+        embeddingBaseUrlField = new JTextField(30);
+        formPanel.add(embeddingBaseUrlField, gbc);
+
+        gbc.gridx = 0; gbc.gridy++;
+        formPanel.add(new JLabel("向量模型名称:"), gbc);
+        gbc.gridx = 1;
+        embeddingModelField = new JTextField(30);
+        formPanel.add(embeddingModelField, gbc);
+
+        gbc.gridx = 0; gbc.gridy++;
+        formPanel.add(new JLabel("自动检索条数:"), gbc);
+        gbc.gridx = 1;
+        semanticTopKSpinner = new JSpinner(new SpinnerNumberModel(5, 1, 50, 1));
+        formPanel.add(semanticTopKSpinner, gbc);
+        gbc.gridx = 0; gbc.gridwidth = 2;
+
+        // 测试连接按钮
+        gbc.gridy++;
         testConnectionButton = new JButton("测试连接");
         testConnectionButton.addActionListener(e -> testConnection());
         formPanel.add(testConnectionButton, gbc);
@@ -83,7 +231,7 @@ public class PandaCoderAIConfigurable implements Configurable {
         JTextArea helpText = new JTextArea(
             "配置说明：\n" +
             "1. 服务类型：选择 OpenAI 兼容（支持 DeepSeek、Qwen 等）或 Ollama\n" +
-            "2. 服务地址：本地部署地址，如 http://localhost:11434\n" +
+            "2. 服务地址：本地部署地址，如 http://localhost:11434；部署了多台时可在其他服务地址中列出\n" +
             "3. API Key：云服务需要，本地部署可留空\n" +
             "4. 模型名称：如 codellama、qwen-coder、deepseek-coder 等\n\n" +
             "推荐本地模型：\n" +
@@ -102,22 +250,63 @@ public class PandaCoderAIConfigurable implements Configurable {
         return mainPanel;
     }
 
+    /**
+     * 在后台按当前选择的服务类型逐个探测地址，并向主地址发送一条测试消息；设置对话框保持可操作
+     */
     private void testConnection() {
-        try {
-            String baseUrl = baseUrlField.getText().trim();
-            String apiKey = new String(apiKeyField.getPassword()).trim();
-            String model = modelField.getText().trim();
-            
-            if (baseUrl.isEmpty() || model.isEmpty()) {
-                Messages.showWarningDialog("请填写服务地址和模型名称", "配置不完整");
-                return;
-            }
-
-            String result = OpenAICompatibleChatClient.quickTest(baseUrl, apiKey, model, "Hello");
-            Messages.showInfoMessage("连接成功！\n\n回复: " + result, "测试成功");
-        } catch (Exception ex) {
-            Messages.showErrorDialog("连接失败：\n" + ex.getMessage(), "测试失败");
+        String type = getProviderType();
+        String apiKey = new String(apiKeyField.getPassword()).trim();
+        String model = modelField.getText().trim();
+        PandaCoderAISettings draft = new PandaCoderAISettings();
+        draft.setAiBaseUrl(baseUrlField.getText().trim());
+        draft.setAiExtraBaseUrls(extraBaseUrlsField.getText().trim());
+        List<String> urls = draft.getAiBaseUrls();
+        if (urls.isEmpty() || model.isEmpty()) {
+            Messages.showWarningDialog("请填写服务地址和模型名称", "配置不完整");
+            return;
         }
+
+        testConnectionButton.setEnabled(false);
+        testConnectionButton.setText("测试中…");
+        ModalityState modality = ModalityState.stateForComponent(mainPanel);
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            StringBuilder report = new StringBuilder();
+            boolean ok = true;
+            for (String url : urls) {
+                ChatEndpoint endpoint = new ChatEndpoint(type, url, apiKey, model);
+                try {
+                    endpoint.provider().probe(endpoint, Duration.ofSeconds(5));
+                    report.append("✓ ").append(url).append('\n');
+                } catch (Exception ex) {
+                    ok = false;
+                    report.append("✗ ").append(url).append(": ").append(ex.getMessage()).append('\n');
+                }
+            }
+            String reply = null;
+            if (ok) {
+                ChatEndpoint primary = new ChatEndpoint(type, urls.get(0), apiKey, model);
+                try {
+                    reply = primary.provider().chat(primary, List.of(new ChatMessage("user", "Hello"))).result().get();
+                } catch (ExecutionException ex) {
+                    ok = false;
+                    report.append("\n模型调用失败: ").append(ex.getCause().getMessage());
+                } catch (Exception ex) {
+                    ok = false;
+                    report.append("\n模型调用失败: ").append(ex.getMessage());
+                }
+            }
+            boolean success = ok;
+            String message = reply == null ? report.toString() : report + "\n回复: " + reply;
+            ApplicationManager.getApplication().invokeLater(() -> {
+                testConnectionButton.setEnabled(true);
+                testConnectionButton.setText("测试连接");
+                if (success) {
+                    Messages.showInfoMessage(mainPanel, "连接成功！\n\n" + message, "测试成功");
+                } else {
+                    Messages.showErrorDialog(mainPanel, "连接失败：\n\n" + message, "测试失败");
+                }
+            }, modality);
+        });
     }
 
     @Override
@@ -127,8 +316,27 @@ public class PandaCoderAIConfigurable implements Configurable {
         boolean modified = enableAiChatCheckBox.isSelected() != settings.isEnableAiChat();
         modified |= !getProviderType().equals(settings.getAiProviderType());
         modified |= !baseUrlField.getText().trim().equals(settings.getAiBaseUrl());
+        modified |= !extraBaseUrlsField.getText().trim().equals(settings.getAiExtraBaseUrls());
         modified |= !new String(apiKeyField.getPassword()).trim().equals(settings.getAiApiKey());
         modified |= !modelField.getText().trim().equals(settings.getAiModel());
+        modified |= (Integer) connectTimeoutSpinner.getValue() != settings.getConnectTimeoutSeconds();
+        modified |= (Integer) ollamaTimeoutSpinner.getValue() != settings.getOllamaTimeoutSeconds();
+        modified |= !ollamaKeepAliveField.getText().trim().equals(settings.getOllamaKeepAlive());
+        modified |= ollamaWarmupCheckBox.isSelected() != settings.isOllamaWarmupEnabled();
+        modified |= (Integer) openaiTimeoutSpinner.getValue() != settings.getOpenaiTimeoutSeconds();
+        modified |= (Integer) httpPoolSizeSpinner.getValue() != settings.getHttpPoolSize();
+        modified |= (Integer) maxRequestsPerEndpointSpinner.getValue() != settings.getMaxRequestsPerEndpoint();
+        modified |= http2CheckBox.isSelected() != settings.isHttp2Enabled();
+        modified |= (Integer) contextTokenBudgetSpinner.getValue() != settings.getContextTokenBudget();
+        modified |= !tokenizerDirField.getText().trim().equals(settings.getTokenizerDir());
+        modified |= (Integer) historyTokenBudgetSpinner.getValue() != settings.getHistoryTokenBudget();
+        modified |= (Integer) historyKeepTurnsSpinner.getValue() != settings.getHistoryKeepTurns();
+        modified |= speculativePrefillCheckBox.isSelected() != settings.isSpeculativePrefillEnabled();
+        modified |= semanticIndexCheckBox.isSelected() != settings.isSemanticIndexEnabled();
+        modified |= !getEmbeddingProvider().equals(settings.getEmbeddingProvider());
+        modified |= !embeddingBaseUrlField.getText().trim().equals(settings.getEmbeddingBaseUrl());
+        modified |= !embeddingModelField.getText().trim().equals(settings.getEmbeddingModel());
+        modified |= (Integer) semanticTopKSpinner.getValue() != settings.getSemanticTopK();
         
         return modified;
     }
@@ -140,8 +348,38 @@ public class PandaCoderAIConfigurable implements Configurable {
         settings.setEnableAiChat(enableAiChatCheckBox.isSelected());
         settings.setAiProviderType(getProviderType());
         settings.setAiBaseUrl(baseUrlField.getText().trim());
+        settings.setAiExtraBaseUrls(extraBaseUrlsField.getText().trim());
         settings.setAiApiKey(new String(apiKeyField.getPassword()).trim());
         settings.setAiModel(modelField.getText().trim());
+        settings.setConnectTimeoutSeconds((Integer) connectTimeoutSpinner.getValue());
+        settings.setOllamaTimeoutSeconds((Integer) ollamaTimeoutSpinner.getValue());
+        settings.setOllamaKeepAlive(ollamaKeepAliveField.getText().trim());
+        settings.setOllamaWarmupEnabled(ollamaWarmupCheckBox.isSelected());
+        settings.setOpenaiTimeoutSeconds((Integer) openaiTimeoutSpinner.getValue());
+        settings.setHttpPoolSize((Integer) httpPoolSizeSpinner.getValue());
+        settings.setMaxRequestsPerEndpoint((Integer) maxRequestsPerEndpointSpinner.getValue());
+        settings.setHttp2Enabled(http2CheckBox.isSelected());
+        settings.setContextTokenBudget((Integer) contextTokenBudgetSpinner.getValue());
+        settings.setTokenizerDir(tokenizerDirField.getText().trim());
+        settings.setHistoryTokenBudget((Integer) historyTokenBudgetSpinner.getValue());
+        settings.setHistoryKeepTurns((Integer) historyKeepTurnsSpinner.getValue());
+        settings.setSpeculativePrefillEnabled(speculativePrefillCheckBox.isSelected());
+        settings.setSemanticIndexEnabled(semanticIndexCheckBox.isSelected());
+        settings.setEmbeddingProvider(getEmbeddingProvider());
+        settings.setEmbeddingBaseUrl(embeddingBaseUrlField.getText().trim());
+        settings.setEmbeddingModel(embeddingModelField.getText().trim());
+        settings.setSemanticTopK((Integer) semanticTopKSpinner.getValue());
+        ChatHttpTransport.reset();
+        Tokenizers.clear();
+        for (Project project : ProjectManager.getInstance().getOpenProjects()) {
+            SemanticCodeIndex.getInstance(project).ensureBuilt();
+        }
+        ModelWarmupService.getInstance().onActivity();
+        String keepAlive = settings.getOllamaKeepAlive();
+        if (settings.isOllamaWarmupEnabled() && ModelWarmupService.isKeepAliveTooShort(keepAlive)) {
+            Messages.showWarningDialog(mainPanel, "模型保留时长 " + keepAlive + " 过短（至少 10s），模型会在续期前卸载，预热不会生效",
+                    "PandaCoder AI");
+        }
     }
 
     @Override
@@ -151,11 +389,34 @@ public class PandaCoderAIConfigurable implements Configurable {
         enableAiChatCheckBox.setSelected(settings.isEnableAiChat());
         providerTypeCombo.setSelectedIndex("ollama".equals(settings.getAiProviderType()) ? 1 : 0);
         baseUrlField.setText(settings.getAiBaseUrl());
+        extraBaseUrlsField.setText(settings.getAiExtraBaseUrls());
         apiKeyField.setText(settings.getAiApiKey());
         modelField.setText(settings.getAiModel());
+        connectTimeoutSpinner.setValue(settings.getConnectTimeoutSeconds());
+        ollamaTimeoutSpinner.setValue(settings.getOllamaTimeoutSeconds());
+        ollamaKeepAliveField.setText(settings.getOllamaKeepAlive());
+        ollamaWarmupCheckBox.setSelected(settings.isOllamaWarmupEnabled());
+        openaiTimeoutSpinner.setValue(settings.getOpenaiTimeoutSeconds());
+        httpPoolSizeSpinner.setValue(settings.getHttpPoolSize());
+        maxRequestsPerEndpointSpinner.setValue(settings.getMaxRequestsPerEndpoint());
+        http2CheckBox.setSelected(settings.isHttp2Enabled());
+        contextTokenBudgetSpinner.setValue(settings.getContextTokenBudget());
+        tokenizerDirField.setText(settings.getTokenizerDir());
+        historyTokenBudgetSpinner.setValue(settings.getHistoryTokenBudget());
+        historyKeepTurnsSpinner.setValue(settings.getHistoryKeepTurns());
+        speculativePrefillCheckBox.setSelected(settings.isSpeculativePrefillEnabled());
+        semanticIndexCheckBox.setSelected(settings.isSemanticIndexEnabled());
+        embeddingProviderCombo.setSelectedIndex("ollama".equals(settings.getEmbeddingProvider()) ? 1 : 0);
+        embeddingBaseUrlField.setText(settings.getEmbeddingBaseUrl());
+        embeddingModelField.setText(settings.getEmbeddingModel());
+        semanticTopKSpinner.setValue(settings.getSemanticTopK());
     }
 
     private String getProviderType() {
         return providerTypeCombo.getSelectedIndex() == 1 ? "ollama" : "openai";
     }
+
+    private String getEmbeddingProvider() {
+        return embeddingProviderCombo.getSelectedIndex() == 1 ? "ollama" : "hash";
+    }
 }
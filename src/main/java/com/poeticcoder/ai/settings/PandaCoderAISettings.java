@@ -7,6 +7,11 @@ import com.intellij.util.xmlb.XmlSerializerUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 /**
  * PandaCoder AI 插件设置
  * 存储 AI 服务配置信息
@@ -21,9 +26,34 @@ public class PandaCoderAISettings implements PersistentStateComponent<PandaCoder
     private boolean enableAiChat = false;
     private String aiProviderType = "openai"; // openai/ollama
     private String aiBaseUrl = "http://localhost:11434"; // 默认 Ollama 地址
+    private String aiExtraBaseUrls = ""; // 其他同类服务地址，逗号或换行分隔，与主地址一起分担请求
     private String aiApiKey = "";
     private String aiModel = "codellama"; // 默认模型
 
+    // HTTP 连接配置
+    private int httpPoolSize = 8;
+    private int maxRequestsPerEndpoint = 2; // 每个服务地址同时进行的请求数，超出的请求排队
+    private boolean http2Enabled = true;
+    private int connectTimeoutSeconds = 10;
+    private int ollamaTimeoutSeconds = 120;
+    private int openaiTimeoutSeconds = 60;
+    private String ollamaKeepAlive = "30m"; // 请求结束后模型与 KV 缓存在 Ollama 中保留的时长
+    private boolean ollamaWarmupEnabled = false; // 打开聊天窗口或切回 IDE 时预加载模型，使用期间定时续期
+
+    // 上下文配置
+    private int contextTokenBudget = 4096; // 附加上下文的 token 上限
+    private String tokenizerDir = ""; // 存放各模型 tokenizer.json 的目录
+    private int historyTokenBudget = 8192; // 对话历史的 token 上限，超出后把较早的轮次折叠为摘要
+    private int historyKeepTurns = 4; // 压缩历史时原样保留的最近轮数
+    private boolean speculativePrefillEnabled = false; // 输入停顿时预先发送对话历史，让服务端提前缓存前缀
+
+    // 语义检索配置
+    private boolean semanticIndexEnabled = false;
+    private String embeddingProvider = "hash"; // hash/ollama
+    private String embeddingBaseUrl = "http://localhost:11434";
+    private String embeddingModel = "nomic-embed-text";
+    private int semanticTopK = 5;
+
     // 单例模式获取实例
     public static PandaCoderAISettings getInstance() {
         return com.intellij.openapi.application.ApplicationManager.getApplication()
@@ -58,6 +88,26 @@ public class PandaCoderAISettings implements PersistentStateComponent<PandaCoder
         this.aiBaseUrl = aiBaseUrl;
     }
 
+    public String getAiExtraBaseUrls() {
+        return aiExtraBaseUrls == null ? "" : aiExtraBaseUrls;
+    }
+
+    public void setAiExtraBaseUrls(String aiExtraBaseUrls) {
+        this.aiExtraBaseUrls = aiExtraBaseUrls;
+    }
+
+    /**
+     * 主地址与其他地址，去掉空项与重复项
+     */
+    public List<String> getAiBaseUrls() {
+        Set<String> urls = new LinkedHashSet<>();
+        if (!getAiBaseUrl().isBlank()) urls.add(getAiBaseUrl().trim());
+        for (String url : getAiExtraBaseUrls().split("[,\\s]+")) {
+            if (!url.isEmpty()) urls.add(url);
+        }
+        return new ArrayList<>(urls);
+    }
+
     public String getAiApiKey() {
         return aiApiKey == null ? "" : aiApiKey;
     }
@@ -77,6 +127,150 @@ public class PandaCoderAISettings implements PersistentStateComponent<PandaCoder
         this.aiModel = aiModel;
     }
 
+    public int getHttpPoolSize() {
+        return Math.max(1, httpPoolSize);
+    }
+
+    public void setHttpPoolSize(int httpPoolSize) {
+        this.httpPoolSize = httpPoolSize;
+    }
+
+    public int getMaxRequestsPerEndpoint() {
+        return Math.max(1, maxRequestsPerEndpoint);
+    }
+
+    public void setMaxRequestsPerEndpoint(int maxRequestsPerEndpoint) {
+        this.maxRequestsPerEndpoint = maxRequestsPerEndpoint;
+    }
+
+    public boolean isHttp2Enabled() {
+        return http2Enabled;
+    }
+
+    public void setHttp2Enabled(boolean http2Enabled) {
+        this.http2Enabled = http2Enabled;
+    }
+
+    public int getConnectTimeoutSeconds() {
+        return Math.max(1, connectTimeoutSeconds);
+    }
+
+    public void setConnectTimeoutSeconds(int connectTimeoutSeconds) {
+        this.connectTimeoutSeconds = connectTimeoutSeconds;
+    }
+
+    public int getOllamaTimeoutSeconds() {
+        return Math.max(1, ollamaTimeoutSeconds);
+    }
+
+    public void setOllamaTimeoutSeconds(int ollamaTimeoutSeconds) {
+        this.ollamaTimeoutSeconds = ollamaTimeoutSeconds;
+    }
+
+    public String getOllamaKeepAlive() {
+        return ollamaKeepAlive;
+    }
+
+    public void setOllamaKeepAlive(String ollamaKeepAlive) {
+        this.ollamaKeepAlive = ollamaKeepAlive;
+    }
+
+    public boolean isOllamaWarmupEnabled() {
+        return ollamaWarmupEnabled;
+    }
+
+    public void setOllamaWarmupEnabled(boolean ollamaWarmupEnabled) {
+        this.ollamaWarmupEnabled = ollamaWarmupEnabled;
+    }
+
+    public int getOpenaiTimeoutSeconds() {
+        return Math.max(1, openaiTimeoutSeconds);
+    }
+
+    public void setOpenaiTimeoutSeconds(int openaiTimeoutSeconds) {
+        this.openaiTimeoutSeconds = openaiTimeoutSeconds;
+    }
+
+    public int getContextTokenBudget() {
+        return Math.max(256, contextTokenBudget);
+    }
+
+    public void setContextTokenBudget(int contextTokenBudget) {
+        this.contextTokenBudget = contextTokenBudget;
+    }
+
+    public String getTokenizerDir() {
+        return tokenizerDir == null ? "" : tokenizerDir;
+    }
+
+    public void setTokenizerDir(String tokenizerDir) {
+        this.tokenizerDir = tokenizerDir;
+    }
+
+    public int getHistoryTokenBudget() {
+        return Math.max(1024, historyTokenBudget);
+    }
+
+    public void setHistoryTokenBudget(int historyTokenBudget) {
+        this.historyTokenBudget = historyTokenBudget;
+    }
+
+    public int getHistoryKeepTurns() {
+        return Math.max(1, historyKeepTurns);
+    }
+
+    public void setHistoryKeepTurns(int historyKeepTurns) {
+        this.historyKeepTurns = historyKeepTurns;
+    }
+
+    public boolean isSpeculativePrefillEnabled() {
+        return speculativePrefillEnabled;
+    }
+
+    public void setSpeculativePrefillEnabled(boolean speculativePrefillEnabled) {
+        this.speculativePrefillEnabled = speculativePrefillEnabled;
+    }
+
+    public boolean isSemanticIndexEnabled() {
+        return semanticIndexEnabled;
+    }
+
+    public void setSemanticIndexEnabled(boolean semanticIndexEnabled) {
+        this.semanticIndexEnabled = semanticIndexEnabled;
+    }
+
+    public String getEmbeddingProvider() {
+        return embeddingProvider == null || embeddingProvider.isEmpty() ? "hash" : embeddingProvider;
+    }
+
+    public void setEmbeddingProvider(String embeddingProvider) {
+        this.embeddingProvider = embeddingProvider;
+    }
+
+    public String getEmbeddingBaseUrl() {
+        return embeddingBaseUrl == null ? "" : embeddingBaseUrl;
+    }
+
+    public void setEmbeddingBaseUrl(String embeddingBaseUrl) {
+        this.embeddingBaseUrl = embeddingBaseUrl;
+    }
+
+    public String getEmbeddingModel() {
+        return embeddingModel == null || embeddingModel.isEmpty() ? "nomic-embed-text" : embeddingModel;
+    }
+
+    public void setEmbeddingModel(String embeddingModel) {
+        this.embeddingModel = embeddingModel;
+    }
+
+    public int getSemanticTopK() {
+        return Math.max(1, semanticTopK);
+    }
+
+    public void setSemanticTopK(int semanticTopK) {
+        this.semanticTopK = semanticTopK;
+    }
+
     @Nullable
     @Override
     public PandaCoderAISettings getState() {
@@ -94,11 +288,17 @@ public class PandaCoderAISettings implements PersistentStateComponent<PandaCoder
         if (this.aiBaseUrl == null) {
             this.aiBaseUrl = "http://localhost:11434";
         }
+        if (this.aiExtraBaseUrls == null) {
+            this.aiExtraBaseUrls = "";
+        }
         if (this.aiApiKey == null) {
             this.aiApiKey = "";
         }
         if (this.aiModel == null || this.aiModel.isEmpty()) {
             this.aiModel = "codellama";
         }
+        if (this.ollamaKeepAlive == null) {
+            this.ollamaKeepAlive = "30m";
+        }
     }
 }
@@ -17,6 +17,7 @@ public class AiChatToolWindowFactory implements ToolWindowFactory, DumbAware {
     public void createToolWindowContent(@NotNull Project project, @NotNull ToolWindow toolWindow) {
         AiChatToolWindowPanel panel = new AiChatToolWindowPanel(project);
         Content content = ContentFactory.getInstance().createContent(panel.getContent(), "", false);
+        content.setDisposer(panel);
         toolWindow.getContentManager().addContent(content);
     }
 }
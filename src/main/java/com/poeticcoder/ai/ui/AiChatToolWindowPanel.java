@@ -1,6 +1,8 @@
 package com.poeticcoder.ai.ui;
 
-import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
@@ -14,44 +16,71 @@ import com.intellij.psi.PsiDocumentManager;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiMethod;
+import com.intellij.ui.DocumentAdapter;
 import com.intellij.ui.JBColor;
 import com.intellij.ui.components.JBScrollPane;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.util.ui.JBUI;
 import com.intellij.util.ui.UIUtil;
-import com.poeticcoder.ai.chat.OpenAICompatibleChatClient;
+import com.poeticcoder.ai.chat.ChatMessage;
+import com.poeticcoder.ai.chat.ChatRequestHandle;
+import com.poeticcoder.ai.chat.ChatRequestScheduler;
+import com.poeticcoder.ai.chat.ChatUsage;
 import com.poeticcoder.ai.chat.CodeLocator;
+import com.poeticcoder.ai.chat.EndpointRouter;
+import com.poeticcoder.ai.chat.HistoryCompactor;
+import com.poeticcoder.ai.chat.ModelWarmupService;
+import com.poeticcoder.ai.chat.PromptAssembler;
+import com.poeticcoder.ai.context.ContextAttachment;
+import com.poeticcoder.ai.context.ContextResolver;
+import com.poeticcoder.ai.context.MentionLexer;
+import com.poeticcoder.ai.context.Tokenizer;
+import com.poeticcoder.ai.context.Tokenizers;
+import com.poeticcoder.ai.index.SemanticCodeIndex;
+import com.poeticcoder.ai.session.SessionStore;
 import com.poeticcoder.ai.settings.PandaCoderAISettings;
 import com.poeticcoder.ai.util.UIConstants;
-import com.poeticcoder.ai.util.MarkdownUtil;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.concurrency.CancellablePromise;
 
 import javax.swing.*;
-import javax.swing.border.Border;
+import javax.swing.event.DocumentEvent;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.FocusAdapter;
 import java.awt.event.FocusEvent;
 import java.awt.event.KeyEvent;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * AI Chat 工具窗口面板
  * 提供 Chat 和 Agent 两种模式的智能编程助手
  */
-public class AiChatToolWindowPanel {
+public class AiChatToolWindowPanel implements Disposable {
 
     private static final String INPUT_PLACEHOLDER = "向 PandaCoder AI 提问，支持 @类 / 文件路径 绑定上下文 (Enter 发送，Shift+Enter 换行)";
+    /** 输入停顿多久后预填充对话前缀 */
+    private static final int PREFILL_DELAY_MS = 800;
 
     private final Project project;
     private final JPanel root;
-    private final JPanel messageListPanel = new JPanel();
+    private final TranscriptView transcript = new TranscriptView(this::openLocatedTarget);
     private final JTextArea inputArea = new JTextArea(5, 60);
     private final JButton sendButton = new JButton("发送");
+    private final JButton stopButton = new JButton("停止");
     private final JButton applyButton = new JButton("应用到编辑器");
     private final JToggleButton chatModeButton = new JToggleButton("Chat 模式");
     private final JToggleButton agentModeButton = new JToggleButton("Agent 模式");
@@ -72,13 +101,41 @@ public class AiChatToolWindowPanel {
     private final JLabel contextEmptyLabel = new JLabel("未选择上下文，可使用下方按钮或 @引用添加");
 
     private PsiElement applyTargetPsi = null;
-    private final Map<String, List<OpenAICompatibleChatClient.Message>> sessionMessages = new LinkedHashMap<>();
+    private final List<ChatRequestHandle> inFlightRequests = new ArrayList<>();
+    private final Map<String, PendingSend> pendingSends = new HashMap<>();
+    private final ContextResolver contextResolver;
+    private final SemanticCodeIndex semanticIndex;
+    private final SessionStore sessionStore;
+    private final Map<String, List<ChatMessage>> sessionMessages = new LinkedHashMap<>();
     private final Map<String, List<ContextAttachment>> sessionContexts = new LinkedHashMap<>();
+    /** 各会话界面上的消息列表，含上下文气泡；切换会话时直接换给 transcript 显示 */
+    private final Map<String, TranscriptModel> sessionTranscripts = new LinkedHashMap<>();
+    /** 正在从磁盘加载的会话，加载完成前 sessionMessages 中没有它，不能发送 */
+    private final Set<String> loadingSessions = new HashSet<>();
+    /** 已保存的会话列出之前不新建会话，避免编号与已有会话重复 */
+    private boolean sessionsRestored;
+    /** 各会话从头起已被摘要代替的消息数（不计上下文气泡），与保存的记录对应 */
+    private final Map<String, Integer> sessionFolded = new HashMap<>();
+    /** 正在后台生成历史摘要的会话 */
+    private final Set<String> compactingSessions = new HashSet<>();
+    private final Timer prefillTimer = new Timer(PREFILL_DELAY_MS, e -> prefillCurrentSession());
+    /** 各会话最近一次预填充时的历史，历史未变时不重复发送 */
+    private final Map<String, List<ChatMessage>> prefilledHistory = new HashMap<>();
     private String currentSessionId;
     private int sessionCounter = 1;
 
     public AiChatToolWindowPanel(Project project) {
         this.project = project;
+        this.contextResolver = new ContextResolver(project);
+        this.semanticIndex = SemanticCodeIndex.getInstance(project);
+        this.sessionStore = SessionStore.getInstance(project);
+        semanticIndex.ensureBuilt();
+        // 提前在后台加载当前模型的词表
+        Tokenizers.forModel(PandaCoderAISettings.getInstance().getAiModel());
+        if (PandaCoderAISettings.getInstance().isEnableAiChat()) {
+            EndpointRouter.getInstance().startHealthChecks();
+            ModelWarmupService.getInstance().onActivity();
+        }
         this.root = buildUI();
         wireEvents();
     }
@@ -98,7 +155,7 @@ public class AiChatToolWindowPanel {
         applyToTargetCheck.setEnabled(false);
         chatModeButton.setSelected(true);
         styleModeButtons();
-        createNewSession();
+        restoreSessions();
         renderContextChips();
         updateModeState();
         return panel;
@@ -160,11 +217,9 @@ public class AiChatToolWindowPanel {
     }
 
     private JComponent buildTranscriptPanel() {
-        messageListPanel.setLayout(new BoxLayout(messageListPanel, BoxLayout.Y_AXIS));
-        messageListPanel.setBackground(UIUtil.getPanelBackground());
-        JBScrollPane scrollPane = new JBScrollPane(messageListPanel);
+        JBScrollPane scrollPane = new JBScrollPane(transcript);
         scrollPane.setBorder(JBUI.Borders.empty());
-        scrollPane.getVerticalScrollBar().setUnitIncrement(24);
+        scrollPane.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
         return scrollPane;
     }
 
@@ -242,7 +297,10 @@ public class AiChatToolWindowPanel {
         right.setOpaque(false);
         configurePrimaryButton(applyButton);
         configurePrimaryButton(sendButton);
+        configureCompactButton(stopButton);
+        stopButton.setEnabled(false);
         right.add(applyButton);
+        right.add(stopButton);
         right.add(sendButton);
         actions.add(left, BorderLayout.WEST);
         actions.add(right, BorderLayout.EAST);
@@ -315,6 +373,7 @@ public class AiChatToolWindowPanel {
 
     private void wireEvents() {
         sendButton.addActionListener(this::onSend);
+        stopButton.addActionListener(this::onStop);
         applyButton.addActionListener(this::onApplyToEditor);
         chatModeButton.addActionListener(e -> updateModeState());
         agentModeButton.addActionListener(e -> updateModeState());
@@ -327,6 +386,15 @@ public class AiChatToolWindowPanel {
         clearContextButton.addActionListener(ev -> clearPinnedContexts());
         attachManualButton.addActionListener(ev -> attachTargetFromField());
         contextTargetField.addActionListener(ev -> attachTargetFromField());
+        prefillTimer.setRepeats(false);
+        inputArea.getDocument().addDocumentListener(new DocumentAdapter() {
+            @Override
+            protected void textChanged(@NotNull DocumentEvent e) {
+                if (PandaCoderAISettings.getInstance().isSpeculativePrefillEnabled()) {
+                    prefillTimer.restart();
+                }
+            }
+        });
     }
 
     private void updateModeState() {
@@ -344,6 +412,7 @@ public class AiChatToolWindowPanel {
     }
 
     private void onSend(ActionEvent e) {
+        if (!sessionsRestored) return;
         if (currentSessionId == null) {
             createNewSession();
         }
@@ -352,65 +421,390 @@ public class AiChatToolWindowPanel {
             rawText = "";
         }
         String userText = rawText == null ? "" : rawText.trim();
-        if (userText.isEmpty()) {
+        if (userText.isEmpty() || loadingSessions.contains(currentSessionId)) {
+            return;
+        }
+        PandaCoderAISettings s = PandaCoderAISettings.getInstance();
+        if (!s.isEnableAiChat()) {
+            Messages.showWarningDialog(project, "未启用 AI 助手，请在设置中开启并配置。", "PandaCoder AI");
+            return;
+        }
+        if (s.getAiBaseUrls().isEmpty() || s.getAiModel() == null || s.getAiModel().trim().isEmpty()) {
+            Messages.showWarningDialog(project, "AI 服务未配置完整，请填写服务地址和模型名称。", "PandaCoder AI");
             return;
         }
         inputArea.setText("");
-        String contextMd = buildContextMarkdown(userText);
-        if (!contextMd.isEmpty()) {
-            addMessage("上下文", contextMd);
-        }
-        addMessage("用户", userText);
-
-        getCurrentMessages().add(new OpenAICompatibleChatClient.Message("user", userText));
-
-        final String finalUserText = userText;
-        final String finalContextMd = contextMd;
-        ApplicationManager.getApplication().executeOnPooledThread(() -> {
-            try {
-                PandaCoderAISettings s = PandaCoderAISettings.getInstance();
-                if (!s.isEnableAiChat()) {
-                    SwingUtilities.invokeLater(() -> Messages.showWarningDialog(
-                        project, "未启用 AI 助手，请在设置中开启并配置。", "PandaCoder AI"));
-                    return;
+        ModelWarmupService.getInstance().onActivity();
+
+        PendingSend send = pendingSends.get(currentSessionId);
+        if (send != null) {
+            // 上一条消息的上下文尚未解析完：与本条合并后重新解析，作为同一轮发送
+            send.cancel();
+            send.text.append("\n\n").append(userText);
+        } else {
+            send = new PendingSend(currentSessionId, userText);
+            pendingSends.put(currentSessionId, send);
+            send.contextItem = addMessage(send.sessionId, "上下文", "");
+        }
+        addMessage(currentSessionId, "用户", userText);
+        send.start();
+        updateStopButton();
+    }
+
+    /**
+     * 上下文解析完成后（EDT）真正发出请求
+     */
+    private void dispatch(PendingSend send, ContextResolver.Result context) {
+        pendingSends.remove(send.sessionId, send);
+        updateStopButton();
+        String contextMd = context == null ? "" : context.markdown;
+        if (contextMd.isEmpty() && (context == null || context.omitted == 0)) {
+            removeMessage(send.contextItem);
+        } else {
+            send.contextItem.setMarkdown(contextMd + "\n\n" + contextSummary(context));
+        }
+        if (send.sessionId.equals(currentSessionId)) {
+            applyTargetPsi = context == null ? null : context.target;
+            updateTargetIndicator();
+        }
+        List<ChatMessage> sessionHistory = sessionMessages.get(send.sessionId);
+        if (sessionHistory == null) {
+            // 解析期间会话已被删除
+            return;
+        }
+        String userText = send.text.toString();
+        // 本轮上下文与用户消息追加在历史末尾，之前各轮发送过的内容保持不变，服务端可复用其前缀缓存
+        List<ChatMessage> turn = PromptAssembler.turn(contextMd, userText);
+        synchronized (sessionHistory) {
+            sessionHistory.addAll(turn);
+        }
+        if (!send.contextItem.isRemoved()) {
+            sessionStore.appendMessage(send.sessionId, SessionStore.CONTEXT, send.contextItem.getMarkdown());
+        }
+        for (ChatMessage m : turn) {
+            sessionStore.appendMessage(send.sessionId, m.role, m.content);
+        }
+
+        final StreamingReply streamingReply = new StreamingReply(send.sessionId);
+        List<ChatMessage> messages = PromptAssembler.assemble(streamingReply.history());
+        ChatRequestHandle handle = ChatRequestScheduler.getInstance().streamChat(project.getLocationHash(),
+                send.sessionId, messages, streamingReply::append, streamingReply::queued);
+        trackRequest(handle);
+        handle.result().whenComplete((reply, error) -> {
+            if (error == null) {
+                streamingReply.finish(reply == null || reply.isEmpty() ? "<空>" : reply, handle.usage());
+            } else if (handle.isCancelled()) {
+                streamingReply.stop();
+            } else {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error;
+                SwingUtilities.invokeLater(() -> {
+                    streamingReply.clearQueueStatus();
+                    Messages.showErrorDialog(project, "发送失败：\n" + cause.getMessage(), "PandaCoder AI");
+                });
+            }
+        });
+    }
+
+    private void trackRequest(ChatRequestHandle handle) {
+        inFlightRequests.add(handle);
+        updateStopButton();
+        handle.result().whenComplete((r, e) -> SwingUtilities.invokeLater(() -> {
+            inFlightRequests.remove(handle);
+            updateStopButton();
+        }));
+    }
+
+    private void updateStopButton() {
+        stopButton.setEnabled(!inFlightRequests.isEmpty() || !pendingSends.isEmpty());
+    }
+
+    private void onStop(ActionEvent e) {
+        for (String sessionId : new ArrayList<>(pendingSends.keySet())) {
+            cancelPendingSend(sessionId);
+        }
+        for (ChatRequestHandle handle : new ArrayList<>(inFlightRequests)) {
+            handle.cancel();
+        }
+    }
+
+    private void cancelPendingSend(String sessionId) {
+        PendingSend send = pendingSends.remove(sessionId);
+        if (send == null) return;
+        send.cancel();
+        removeMessage(send.contextItem);
+        updateStopButton();
+    }
+
+    @Override
+    public void dispose() {
+        prefillTimer.stop();
+        for (PendingSend send : pendingSends.values()) {
+            send.cancel();
+        }
+        pendingSends.clear();
+        for (ChatRequestHandle handle : new ArrayList<>(inFlightRequests)) {
+            handle.cancel();
+        }
+    }
+
+    /**
+     * 一次等待上下文解析的发送
+     * 解析在后台的 non-blocking read action 中进行：等待索引就绪后才开始，遇到写操作或进入 dumb mode 时自动重启，
+     * 面板关闭时随之取消
+     */
+    private class PendingSend {
+        private final String sessionId;
+        private final StringBuilder text;
+        private TranscriptModel.Item contextItem;
+        private CancellablePromise<ContextResolver.Result> promise;
+        /** 每次（重新）开始解析时递增，用于丢弃过期的检索结果 */
+        private int generation;
+
+        PendingSend(String sessionId, String userText) {
+            this.sessionId = sessionId;
+            this.text = new StringBuilder(userText);
+        }
+
+        void start() {
+            String prompt = text.toString();
+            List<ContextAttachment> pinned = new ArrayList<>(getPinnedContexts());
+            PandaCoderAISettings s = PandaCoderAISettings.getInstance();
+            Tokenizer tokenizer = Tokenizers.forModel(s.getAiModel());
+            int tokenBudget = s.getContextTokenBudget();
+            int topK = s.getSemanticTopK();
+            int gen = ++generation;
+            contextItem.setMarkdown(progressMarkdown(prompt));
+            if (!semanticIndex.isEnabled() || !semanticIndex.isReady()) {
+                semanticIndex.ensureBuilt();
+                resolve(prompt, pinned, Collections.emptyList(), tokenizer, tokenBudget);
+                return;
+            }
+            // 查询向量可能需要请求模型服务，放在读操作之外
+            CompletableFuture.supplyAsync(() -> {
+                try {
+                    return semanticIndex.search(prompt, topK);
+                } catch (IOException ex) {
+                    return Collections.<SemanticCodeIndex.Hit>emptyList();
                 }
-                String provider = s.getAiProviderType();
-                if (s.getAiBaseUrl() == null || s.getAiBaseUrl().trim().isEmpty() || 
-                    s.getAiModel() == null || s.getAiModel().trim().isEmpty()) {
-                    SwingUtilities.invokeLater(() -> Messages.showWarningDialog(
-                        project, "AI 服务未配置完整，请填写服务地址和模型名称。", "PandaCoder AI"));
-                    return;
+            }, AppExecutorUtil.getAppExecutorService()).thenAccept(hits -> SwingUtilities.invokeLater(() -> {
+                if (gen == generation && pendingSends.get(sessionId) == this) {
+                    resolve(prompt, pinned, hits, tokenizer, tokenBudget);
                 }
-                
-                String reply;
-                if ("ollama".equals(provider)) {
-                    List<com.poeticcoder.ai.chat.OllamaChatClient.Message> ms = new ArrayList<>();
-                    for (OpenAICompatibleChatClient.Message m : getCurrentMessages()) {
-                        ms.add(new com.poeticcoder.ai.chat.OllamaChatClient.Message(m.role, m.content));
-                    }
-                    if (!finalContextMd.isEmpty()) {
-                        ms.add(new com.poeticcoder.ai.chat.OllamaChatClient.Message("system",
-                                "项目上下文:\n\n" + finalContextMd));
+            }));
+        }
+
+        private void resolve(String prompt, List<ContextAttachment> pinned, List<SemanticCodeIndex.Hit> hits,
+                             Tokenizer tokenizer, int tokenBudget) {
+            CancellablePromise<ContextResolver.Result> p = ReadAction
+                    .nonBlocking(() -> contextResolver.resolve(prompt, pinned, hits, tokenizer, tokenBudget))
+                    .inSmartMode(project)
+                    .expireWith(AiChatToolWindowPanel.this)
+                    .finishOnUiThread(ModalityState.defaultModalityState(), result -> {
+                        if (pendingSends.get(sessionId) == this && prompt.contentEquals(text)) {
+                            dispatch(this, result);
+                        }
+                    })
+                    .submit(AppExecutorUtil.getAppExecutorService());
+            p.onError(error -> {
+                if (p.isCancelled() || error instanceof CancellationException) return;
+                // 解析失败时不附加自动上下文，消息照常发送
+                SwingUtilities.invokeLater(() -> {
+                    if (promise == p && pendingSends.get(sessionId) == this) {
+                        dispatch(this, null);
                     }
-                    reply = com.poeticcoder.ai.chat.OllamaChatClient.chat(s.getAiBaseUrl(), s.getAiModel(), ms);
+                });
+            });
+            promise = p;
+        }
+
+        void cancel() {
+            generation++;
+            if (promise != null) {
+                promise.cancel();
+            }
+        }
+    }
+
+    private static String contextSummary(ContextResolver.Result context) {
+        StringBuilder md = new StringBuilder("*上下文约 ").append(context.tokens).append(" tokens（")
+                .append(context.tokenizer).append("）");
+        if (context.trimmed > 0) md.append("，裁剪 ").append(context.trimmed).append(" 项");
+        if (context.omitted > 0) md.append("，超出预算省略 ").append(context.omitted).append(" 项");
+        if (context.cached > 0) md.append("，").append(context.cached).append(" 项取自缓存");
+        return md.append('*').toString();
+    }
+
+    /**
+     * 提示词用量，用于观察前缀缓存的效果
+     */
+    private static String usageSummary(ChatUsage usage) {
+        StringBuilder md = new StringBuilder("*");
+        if (usage.promptTokens >= 0) {
+            md.append("提示词 ").append(usage.promptTokens).append(" tokens");
+            if (usage.cachedTokens >= 0) {
+                md.append("，缓存命中 ").append(usage.cachedTokens);
+                if (usage.promptTokens > 0) {
+                    md.append("（").append(usage.cachedTokens * 100 / usage.promptTokens).append("%）");
+                }
+            }
+        } else if (usage.evaluatedTokens >= 0) {
+            // Ollama 只报告未命中 KV 缓存的部分
+            md.append("预填充 ").append(usage.evaluatedTokens).append(" tokens");
+        }
+        if (usage.promptMillis >= 0) md.append("，耗时 ").append(usage.promptMillis).append(" ms");
+        if (usage.completionTokens >= 0) {
+            md.append(md.length() > 1 ? "，" : "").append("生成 ").append(usage.completionTokens).append(" tokens");
+        }
+        return md.length() > 1 ? md.append('*').toString() : "";
+    }
+
+    private static String progressMarkdown(String prompt) {
+        List<MentionLexer.Mention> targets = MentionLexer.lex(prompt);
+        if (targets.isEmpty()) {
+            return "*正在准备上下文…*";
+        }
+        StringBuilder md = new StringBuilder("*正在解析上下文：*");
+        int shown = Math.min(targets.size(), 5);
+        for (int i = 0; i < shown; i++) {
+            md.append(i == 0 ? " `" : "、`").append(targets.get(i)).append('`');
+        }
+        if (targets.size() > shown) {
+            md.append(" 等 ").append(targets.size()).append(" 项");
+        }
+        return md.toString();
+    }
+
+    /**
+     * 一次助手回复在界面上的承载
+     * 增量先在后台线程中累积，EDT 空闲时批量交给气泡追加；结束时写入所属会话的历史
+     */
+    private class StreamingReply {
+        private final String sessionId;
+        private final List<ChatMessage> history;
+        private final StringBuilder text = new StringBuilder();
+        private final StringBuilder pending = new StringBuilder();
+        private boolean drainScheduled;
+        private TranscriptModel.Item item;
+        /** 气泡中显示的是排队状态，收到回复后替换 */
+        private boolean showingQueue;
+
+        StreamingReply(String sessionId) {
+            this.sessionId = sessionId;
+            this.history = sessionMessages.get(sessionId);
+        }
+
+        List<ChatMessage> history() {
+            synchronized (history) {
+                return new ArrayList<>(history);
+            }
+        }
+
+        void append(String delta) {
+            synchronized (text) {
+                text.append(delta);
+                pending.append(delta);
+                if (drainScheduled) return;
+                drainScheduled = true;
+            }
+            SwingUtilities.invokeLater(this::drain);
+        }
+
+        /**
+         * 排队状态变化；position 为 0 表示已开始发送
+         */
+        void queued(int position, int depth) {
+            SwingUtilities.invokeLater(() -> {
+                if (!sessionTranscripts.containsKey(sessionId)) return;
+                if (position == 0) {
+                    clearQueueStatus();
+                    return;
+                }
+                String status = "*排队中：第 " + position + " 位，共 " + depth + " 个请求等待*";
+                if (item == null) {
+                    item = addMessage(sessionId, "助手", status);
+                    showingQueue = true;
+                } else if (showingQueue) {
+                    item.setMarkdown(status);
+                }
+            });
+        }
+
+        /**
+         * @param usage 服务端返回的 token 用量，只显示在气泡中，不写入历史
+         */
+        void finish(String reply, ChatUsage usage) {
+            finish(reply, usage == null ? "" : usageSummary(usage));
+        }
+
+        /**
+         * @param note 附在气泡末尾的说明，只显示，不写入历史、不发给模型
+         */
+        private void finish(String reply, String note) {
+            SwingUtilities.invokeLater(() -> {
+                synchronized (history) {
+                    history.add(new ChatMessage("assistant", reply));
+                }
+                if (sessionMessages.get(sessionId) == history) {
+                    // 会话在请求期间被清空或删除时不再写入
+                    sessionStore.appendMessage(sessionId, "assistant", reply);
+                    maybeCompactHistory(sessionId);
+                }
+                drain();
+                if (!sessionTranscripts.containsKey(sessionId)) return;
+                String shown = note.isEmpty() ? reply : reply + "\n\n" + note;
+                if (item == null) {
+                    addMessage(sessionId, "助手", shown);
                 } else {
-                    List<OpenAICompatibleChatClient.Message> ms = new ArrayList<>(getCurrentMessages());
-                    if (!finalContextMd.isEmpty()) {
-                        ms.add(new OpenAICompatibleChatClient.Message("system", "项目上下文:\n\n" + finalContextMd));
+                    if (!shown.equals(item.getMarkdown())) {
+                        item.setMarkdown(shown);
                     }
-                    reply = OpenAICompatibleChatClient.chat(s.getAiBaseUrl(), s.getAiApiKey(), s.getAiModel(), ms);
+                    item.finish();
                 }
-                
-                String r = reply == null ? "<空>" : reply;
-                SwingUtilities.invokeLater(() -> {
-                    getCurrentMessages().add(new OpenAICompatibleChatClient.Message("assistant", r));
-                    addMessage("助手", r);
-                });
-            } catch (Exception ex) {
-                SwingUtilities.invokeLater(() -> Messages.showErrorDialog(
-                    project, "发送失败：\n" + ex.getMessage(), "PandaCoder AI"));
+            });
+        }
+
+        /**
+         * 请求被用户停止：保留已生成的部分内容
+         */
+        void stop() {
+            String partial;
+            synchronized (text) {
+                partial = text.toString();
             }
-        });
+            if (partial.isEmpty()) {
+                SwingUtilities.invokeLater(this::clearQueueStatus);
+                return;
+            }
+            finish(partial, "*（已停止）*");
+        }
+
+        /**
+         * 移除排队状态的气泡，回复另起气泡显示
+         */
+        void clearQueueStatus() {
+            if (!showingQueue) return;
+            showingQueue = false;
+            removeMessage(item);
+            item = null;
+        }
+
+        private void drain() {
+            String chunk;
+            synchronized (text) {
+                chunk = pending.toString();
+                pending.setLength(0);
+                drainScheduled = false;
+            }
+            // 开始执行的通知可能晚于第一段回复到达
+            clearQueueStatus();
+            // 不在当前显示的会话中也照常追加，切换回来时即可看到
+            if (chunk.isEmpty() || !sessionTranscripts.containsKey(sessionId)) return;
+            if (item == null) {
+                item = addMessage(sessionId, "助手", "");
+            }
+            item.append(chunk);
+        }
     }
 
     private void onApplyToEditor(ActionEvent e) {
@@ -421,12 +815,12 @@ public class AiChatToolWindowPanel {
             Messages.showInfoMessage(project, "请先新建会话", "AI Agent");
             return;
         }
-        if (getCurrentMessages().isEmpty()) return;
+        if (getCurrentMessages() == null || getCurrentMessages().isEmpty()) return;
         
         String content = null;
-        List<OpenAICompatibleChatClient.Message> list = getCurrentMessages();
+        List<ChatMessage> list = getCurrentMessages();
         for (int i = list.size() - 1; i >= 0; i--) {
-            OpenAICompatibleChatClient.Message m = list.get(i);
+            ChatMessage m = list.get(i);
             if ("assistant".equals(m.role)) {
                 content = m.content;
                 break;
@@ -494,93 +888,23 @@ public class AiChatToolWindowPanel {
         Messages.showInfoMessage(project, "已将助手内容追加到 @目标文件 末尾", "AI Agent");
     }
 
-    private void addMessage(String who, String md) {
-        JPanel bubbleWrapper = new JPanel(new BorderLayout());
-        bubbleWrapper.setBorder(JBUI.Borders.empty(UIConstants.PADDING_SMALL));
-        bubbleWrapper.setOpaque(false);
-
-        JPanel bubble = new JPanel(new BorderLayout(0, UIConstants.PADDING_SMALL));
-        bubble.setOpaque(true);
-
-        if ("用户".equals(who)) {
-            bubble.setBackground(UIConstants.USER_BUBBLE_BACKGROUND);
-        } else if ("助手".equals(who)) {
-            bubble.setBackground(UIConstants.ASSISTANT_BUBBLE_BACKGROUND);
-        } else {
-            bubble.setBackground(UIConstants.CONTEXT_BUBBLE_BACKGROUND);
-        }
-
-        bubble.setBorder(JBUI.Borders.compound(
-                new RoundedBorder(UIConstants.ARC_RADIUS),
-                JBUI.Borders.empty(UIConstants.PADDING_MEDIUM)));
-
-        JLabel header = new JLabel(who);
-        header.setFont(header.getFont().deriveFont(Font.BOLD));
-        bubble.add(header, BorderLayout.NORTH);
-
-        String html = MarkdownUtil.renderCompositeHtml(md);
-        JEditorPane htmlPane = new JEditorPane();
-        htmlPane.setContentType("text/html");
-        htmlPane.setEditable(false);
-        htmlPane.putClientProperty(JEditorPane.HONOR_DISPLAY_PROPERTIES, Boolean.TRUE);
-        htmlPane.setText(html);
-        htmlPane.setOpaque(false);
-        htmlPane.setBorder(null);
-        bubble.add(htmlPane, BorderLayout.CENTER);
-
-        if ("上下文".equals(who)) {
-            JButton openBtn = new JButton("打开上下文");
-            configureCompactButton(openBtn);
-            openBtn.addActionListener(e -> openLocatedTarget(md));
-            bubble.add(openBtn, BorderLayout.SOUTH);
-        }
-
-        bubbleWrapper.add(bubble, BorderLayout.WEST);
-        messageListPanel.add(bubbleWrapper);
-        messageListPanel.add(Box.createVerticalStrut(UIConstants.PADDING_SMALL));
-        messageListPanel.revalidate();
-        SwingUtilities.invokeLater(() -> 
-            messageListPanel.scrollRectToVisible(new Rectangle(0, messageListPanel.getHeight() + 200, 1, 1)));
-    }
-
-    private static class RoundedBorder implements Border {
-        private int radius;
-
-        RoundedBorder(int radius) {
-            this.radius = radius;
-        }
-
-        public Insets getBorderInsets(Component c) {
-            return new Insets(this.radius + 1, this.radius + 1, this.radius + 2, this.radius);
-        }
-
-        public boolean isBorderOpaque() {
-            return true;
-        }
-
-        public void paintBorder(Component c, Graphics g, int x, int y, int width, int height) {
-            g.drawRoundRect(x, y, width - 1, height - 1, radius, radius);
+    /**
+     * 在会话的消息列表末尾添加一条消息；该会话正在显示时滚动到底部
+     */
+    private TranscriptModel.Item addMessage(String sessionId, String who, String md) {
+        TranscriptModel model = sessionTranscripts.computeIfAbsent(sessionId, k -> new TranscriptModel());
+        TranscriptModel.Item item = model.add(who, md);
+        if (sessionId.equals(currentSessionId)) {
+            transcript.scrollToBottom();
         }
+        return item;
     }
 
-    private String buildContextMarkdown(String userText) {
-        applyTargetPsi = null;
-        StringBuilder md = new StringBuilder();
-        for (ContextAttachment att : getPinnedContexts()) {
-            md.append(att.markdown);
-            if (applyTargetPsi == null && att.psi != null) {
-                applyTargetPsi = att.psi;
-            }
-        }
-        String auto = attachProjectContext(userText);
-        if (!auto.isEmpty()) {
-            if (md.length() > 0) {
-                md.append("\n");
-            }
-            md.append(auto);
-        }
-        updateTargetIndicator();
-        return md.toString();
+    /**
+     * 移除 addMessage 添加的消息
+     */
+    private void removeMessage(TranscriptModel.Item item) {
+        if (item != null) item.remove();
     }
 
     private void updateTargetIndicator() {
@@ -610,50 +934,6 @@ public class AiChatToolWindowPanel {
         return element.toString();
     }
 
-    private String attachProjectContext(String userText) {
-        List<String> targets = extractTargets(userText);
-        if (targets.isEmpty()) return "";
-        StringBuilder md = new StringBuilder();
-        int totalLen = 0;
-        Set<String> seen = new HashSet<>();
-        for (String t : targets) {
-            ContextAttachment att = resolveContextAttachment(t);
-            if (att == null || !seen.add(att.key)) {
-                continue;
-            }
-            md.append(att.markdown);
-            totalLen += att.markdown.length();
-            if (applyTargetPsi == null && att.psi != null) {
-                applyTargetPsi = att.psi;
-            }
-            if (totalLen > 12000) break;
-        }
-        return md.toString();
-    }
-
-    private List<String> extractTargets(String text) {
-        List<String> list = new ArrayList<>();
-        java.util.regex.Pattern mentionFqn = java.util.regex.Pattern
-                .compile("@((?:[a-zA-Z_]\\w*\\.)+[A-Z]\\w+(?:#[a-zA-Z_]\\w+)?)");
-        java.util.regex.Matcher mmf = mentionFqn.matcher(text);
-        while (mmf.find()) list.add(mmf.group(1));
-        
-        java.util.regex.Pattern mentionPath = java.util.regex.Pattern
-                .compile("@([\\w./-]+\\.java(?::\\d+(?:-\\d+)?)?)");
-        java.util.regex.Matcher mmp = mentionPath.matcher(text);
-        while (mmp.find()) list.add(mmp.group(1));
-        
-        java.util.regex.Pattern fqn = java.util.regex.Pattern.compile("(?:[a-zA-Z_]\\w*\\.)+[A-Z]\\w+");
-        java.util.regex.Matcher mf = fqn.matcher(text);
-        while (mf.find()) list.add(mf.group());
-        
-        java.util.regex.Pattern jfn = java.util.regex.Pattern.compile("[A-Z]\\w+\\.java");
-        java.util.regex.Matcher mj = jfn.matcher(text);
-        while (mj.find()) list.add(mj.group());
-        
-        return list;
-    }
-
     private void openLocatedTarget(String md) {
         java.util.regex.Pattern p = java.util.regex.Pattern.compile("###\\s+([^\\n]+)");
         java.util.regex.Matcher m = p.matcher(md);
@@ -670,20 +950,129 @@ public class AiChatToolWindowPanel {
         }
     }
 
-    private List<OpenAICompatibleChatClient.Message> getCurrentMessages() {
+    /**
+     * 历史超出上限时在后台让模型把较早的轮次压缩为摘要，在两轮之间完成，不占用发送时间；失败时保持原样，下一轮再试
+     */
+    private void maybeCompactHistory(String sessionId) {
+        List<ChatMessage> history = sessionMessages.get(sessionId);
+        if (history == null || compactingSessions.contains(sessionId)) return;
+        PandaCoderAISettings s = PandaCoderAISettings.getInstance();
+        List<ChatMessage> copy;
+        synchronized (history) {
+            copy = new ArrayList<>(history);
+        }
+        compactingSessions.add(sessionId);
+        CompletableFuture.supplyAsync(() -> HistoryCompactor.plan(copy, Tokenizers.forModel(s.getAiModel()),
+                s.getHistoryTokenBudget(), s.getHistoryKeepTurns()), AppExecutorUtil.getAppExecutorService())
+        .thenCompose(plan -> {
+            if (plan == null) return CompletableFuture.completedFuture((HistorySummary) null);
+            // 与对话请求一起排队，不挤占其他会话的名额
+            return ChatRequestScheduler.getInstance()
+                    .chat(project.getLocationHash(), sessionId, HistoryCompactor.summaryPrompt(plan)).result()
+                    .thenApply(summary -> summary == null || summary.isBlank()
+                            ? null : new HistorySummary(plan, summary.trim()));
+        }).whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+            compactingSessions.remove(sessionId);
+            if (result == null || sessionMessages.get(sessionId) != history) return;
+            if (!HistoryCompactor.apply(history, result.plan, result.text)) return;
+            int folded = sessionFolded.getOrDefault(sessionId, 0) + result.plan.folded.size();
+            sessionFolded.put(sessionId, folded);
+            sessionStore.saveSummary(sessionId, folded, result.text);
+        }));
+    }
+
+    /**
+     * 用户输入停顿时，把下一轮请求必然以之开头的部分（前导说明与会话历史）先发给服务端计算并缓存，
+     * 按下发送后只需预填充本轮的上下文与问题。本轮上下文要到发送时才按输入内容解析、与固定上下文一起打包，
+     * 位置不固定，不参与预填充。历史未变化时不重复发送
+     */
+    private void prefillCurrentSession() {
+        PandaCoderAISettings s = PandaCoderAISettings.getInstance();
+        if (!s.isEnableAiChat() || !s.isSpeculativePrefillEnabled() || s.getAiBaseUrls().isEmpty()) return;
+        String sessionId = currentSessionId;
+        String text = inputArea.getText();
+        if (sessionId == null || text.isBlank() || INPUT_PLACEHOLDER.equals(text)
+                || pendingSends.containsKey(sessionId)) {
+            return;
+        }
+        List<ChatMessage> history = sessionMessages.get(sessionId);
+        if (history == null) return;
+        List<ChatMessage> copy;
+        synchronized (history) {
+            copy = new ArrayList<>(history);
+        }
+        // 历史末尾是用户消息时上一轮回复还没结束，前缀尚未确定
+        if (copy.isEmpty() || !"assistant".equals(copy.get(copy.size() - 1).role)) return;
+        if (sameMessages(copy, prefilledHistory.get(sessionId))) return;
+        ChatRequestHandle handle = ChatRequestScheduler.getInstance()
+                .prefill(project.getLocationHash(), sessionId, PromptAssembler.assemble(copy));
+        // 没有空闲名额时放弃，下次停顿再试
+        if (handle != null) prefilledHistory.put(sessionId, copy);
+    }
+
+    private static boolean sameMessages(List<ChatMessage> a, List<ChatMessage> b) {
+        if (b == null || a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) return false;
+        }
+        return true;
+    }
+
+    private static final class HistorySummary {
+        final HistoryCompactor.Plan plan;
+        final String text;
+
+        HistorySummary(HistoryCompactor.Plan plan, String text) {
+            this.plan = plan;
+            this.text = text;
+        }
+    }
+
+    private List<ChatMessage> getCurrentMessages() {
         return sessionMessages.get(currentSessionId);
     }
 
+    /**
+     * 在后台读取会话清单后只列出已保存的会话，内容在第一次选中时才从磁盘加载
+     */
+    private void restoreSessions() {
+        newSessionButton.setEnabled(false);
+        sessionStore.listSessions().thenAccept(saved -> SwingUtilities.invokeLater(() -> {
+            sessionsRestored = true;
+            newSessionButton.setEnabled(true);
+            if (saved.isEmpty()) {
+                createNewSession();
+                return;
+            }
+            for (String id : saved) {
+                sessionCounter = Math.max(sessionCounter, sessionNumber(id) + 1);
+                sessionCombo.addItem(id);
+            }
+            String last = saved.get(saved.size() - 1);
+            sessionCombo.setSelectedItem(last);
+            switchSession(last);
+        }));
+    }
+
+    private static int sessionNumber(String id) {
+        int space = id.lastIndexOf(' ');
+        try {
+            return Integer.parseInt(id.substring(space + 1));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     private void createNewSession() {
         String id = "会话 " + (sessionCounter++);
+        sessionStore.create(id);
         sessionMessages.put(id, new ArrayList<>());
         sessionContexts.put(id, new ArrayList<>());
+        sessionTranscripts.put(id, new TranscriptModel());
         sessionCombo.addItem(id);
         sessionCombo.setSelectedItem(id);
         currentSessionId = id;
-        messageListPanel.removeAll();
-        messageListPanel.revalidate();
-        messageListPanel.repaint();
+        transcript.setModel(sessionTranscripts.get(id));
         applyTargetPsi = null;
         applyToTargetCheck.setEnabled(false);
         targetLabel.setText("未选择目标");
@@ -691,27 +1080,69 @@ public class AiChatToolWindowPanel {
     }
 
     private void switchSession(String id) {
-        if (id == null || !sessionMessages.containsKey(id)) return;
-        currentSessionId = id;
-        messageListPanel.removeAll();
-        for (OpenAICompatibleChatClient.Message m : sessionMessages.get(id)) {
-            addMessage("assistant".equals(m.role) ? "助手" : "用户", m.content);
+        if (id == null) return;
+        if (!sessionTranscripts.containsKey(id)) {
+            if (!sessionStore.contains(id)) return;
+            loadSession(id);
         }
-        messageListPanel.revalidate();
-        messageListPanel.repaint();
+        currentSessionId = id;
+        transcript.setModel(sessionTranscripts.get(id));
         applyTargetPsi = null;
         applyToTargetCheck.setEnabled(false);
         targetLabel.setText("未选择目标");
         renderContextChips();
     }
 
+    /**
+     * 在后台读取会话，读完后在 EDT 填入消息列表、历史与固定上下文
+     */
+    private void loadSession(String id) {
+        sessionTranscripts.put(id, new TranscriptModel());
+        sessionContexts.put(id, new ArrayList<>());
+        loadingSessions.add(id);
+        sessionStore.load(id).thenAccept(snapshot -> SwingUtilities.invokeLater(() -> {
+            loadingSessions.remove(id);
+            TranscriptModel model = sessionTranscripts.get(id);
+            if (model == null) {
+                // 加载期间会话已被删除
+                return;
+            }
+            List<ChatMessage> history = new ArrayList<>();
+            for (SessionStore.Entry e : snapshot.entries) {
+                if (SessionStore.CONTEXT.equals(e.role)) {
+                    model.add("上下文", e.content);
+                } else if ("system".equals(e.role)) {
+                    // 当轮发送的项目上下文，只进入历史，界面上由上下文气泡展示
+                    history.add(new ChatMessage(e.role, e.content));
+                } else {
+                    model.add("assistant".equals(e.role) ? "助手" : "用户", e.content);
+                    history.add(new ChatMessage(e.role, e.content));
+                }
+            }
+            int folded = Math.min(snapshot.folded, history.size());
+            if (folded > 0) {
+                // 界面保留完整对话，历史中被压缩的部分换成摘要
+                history.subList(0, folded).clear();
+                history.add(0, HistoryCompactor.summaryMessage(snapshot.summary));
+                sessionFolded.put(id, folded);
+            }
+            sessionMessages.put(id, history);
+            sessionContexts.get(id).addAll(0, snapshot.pinned);
+            if (id.equals(currentSessionId)) {
+                transcript.scrollToBottom();
+                renderContextChips();
+            }
+        }));
+    }
+
     private void clearCurrentSession() {
-        if (currentSessionId == null) return;
+        if (currentSessionId == null || loadingSessions.contains(currentSessionId)) return;
+        cancelPendingSend(currentSessionId);
+        sessionStore.clear(currentSessionId);
         sessionMessages.put(currentSessionId, new ArrayList<>());
+        sessionFolded.remove(currentSessionId);
         sessionContexts.put(currentSessionId, new ArrayList<>());
-        messageListPanel.removeAll();
-        messageListPanel.revalidate();
-        messageListPanel.repaint();
+        sessionTranscripts.get(currentSessionId).clear();
         applyTargetPsi = null;
         applyToTargetCheck.setEnabled(false);
         targetLabel.setText("未选择目标");
@@ -720,15 +1151,19 @@ public class AiChatToolWindowPanel {
 
     private void deleteCurrentSession() {
         if (currentSessionId == null) return;
+        cancelPendingSend(currentSessionId);
         int idx = sessionCombo.getSelectedIndex();
+        sessionStore.delete(currentSessionId);
+        loadingSessions.remove(currentSessionId);
         sessionMessages.remove(currentSessionId);
+        sessionFolded.remove(currentSessionId);
+        prefilledHistory.remove(currentSessionId);
         sessionContexts.remove(currentSessionId);
+        sessionTranscripts.remove(currentSessionId);
         sessionCombo.removeItem(currentSessionId);
         if (sessionCombo.getItemCount() == 0) {
             currentSessionId = null;
-            messageListPanel.removeAll();
-            messageListPanel.revalidate();
-            messageListPanel.repaint();
+            transcript.setModel(new TranscriptModel());
             applyTargetPsi = null;
             applyToTargetCheck.setEnabled(false);
             targetLabel.setText("未选择目标");
@@ -776,6 +1211,7 @@ public class AiChatToolWindowPanel {
         List<ContextAttachment> contexts = sessionContexts.computeIfAbsent(currentSessionId, k -> new ArrayList<>());
         contexts.removeIf(existing -> existing.key.equals(attachment.key));
         contexts.add(attachment);
+        sessionStore.savePinned(currentSessionId, contexts);
         renderContextChips();
     }
 
@@ -784,12 +1220,14 @@ public class AiChatToolWindowPanel {
         List<ContextAttachment> contexts = sessionContexts.get(currentSessionId);
         if (contexts == null) return;
         contexts.removeIf(att -> att.id.equals(id));
+        sessionStore.savePinned(currentSessionId, contexts);
         renderContextChips();
     }
 
     private void clearPinnedContexts() {
         if (currentSessionId == null) return;
         sessionContexts.put(currentSessionId, new ArrayList<>());
+        sessionStore.savePinned(currentSessionId, Collections.emptyList());
         renderContextChips();
     }
 
@@ -811,13 +1249,7 @@ public class AiChatToolWindowPanel {
             Messages.showInfoMessage(project, "无法读取当前文件", "PandaCoder AI");
             return;
         }
-        int totalLines = editor.getDocument().getLineCount();
-        int endLine = Math.min(200, totalLines);
-        String snippet = CodeLocator.snippet(psiFile, 1, endLine);
-        String path = psiFile.getVirtualFile() != null ? psiFile.getVirtualFile().getPath() : psiFile.getName();
-        ContextAttachment attachment = buildAttachment(psiFile.getName(), path, snippet, psiFile, 
-            "file:" + path, guessLanguage(psiFile));
-        addPinnedContext(attachment);
+        addPinnedContext(ContextResolver.fromFile(psiFile));
     }
 
     private void attachSelectionContext() {
@@ -835,93 +1267,31 @@ public class AiChatToolWindowPanel {
         String path = psiFile != null
                 ? (psiFile.getVirtualFile() != null ? psiFile.getVirtualFile().getPath() : psiFile.getName())
                 : "selection";
-        ContextAttachment attachment = buildAttachment("选区", path, selection, psiFile, 
+        ContextAttachment attachment = ContextResolver.fromText("选区", path, selection, psiFile,
             "selection:" + UUID.randomUUID(), "text");
         addPinnedContext(attachment);
     }
 
+    /**
+     * 查找类与读取文件在后台读操作中进行，索引未就绪时等待索引完成
+     */
     private void attachTargetFromField() {
         String target = contextTargetField.getText().trim();
         if (target.isEmpty()) return;
-        
-        PsiClass cls = CodeLocator.findClass(project, target);
-        if (cls != null) {
-            String snippet = cls.getText();
-            if (snippet.length() > 2000) snippet = snippet.substring(0, 2000) + "\n... (truncated)";
-            ContextAttachment attachment = buildAttachment(cls.getName(), cls.getQualifiedName(), snippet, cls,
-                    "class:" + cls.getQualifiedName(), "java");
-            addPinnedContext(attachment);
-            contextTargetField.setText("");
-            return;
-        }
-        
-        PsiFile file = CodeLocator.findFile(project, target);
-        if (file != null) {
-            String snippet = file.getText();
-            if (snippet.length() > 2000) snippet = snippet.substring(0, 2000) + "\n... (truncated)";
-            ContextAttachment attachment = buildAttachment(file.getName(), file.getVirtualFile().getPath(), 
-                snippet, file, "file:" + file.getVirtualFile().getPath(), guessLanguage(file));
-            addPinnedContext(attachment);
-            contextTargetField.setText("");
-            return;
-        }
-        
-        Messages.showInfoMessage(project, "未找到目标类或文件: " + target, "PandaCoder AI");
-    }
 
-    private ContextAttachment resolveContextAttachment(String target) {
-        PsiClass cls = CodeLocator.findClass(project, target);
-        if (cls != null) {
-            String snippet = cls.getText();
-            if (snippet.length() > 3000) snippet = snippet.substring(0, 3000) + "\n... (truncated)";
-            return buildAttachment(cls.getName(), cls.getQualifiedName(), snippet, cls,
-                    "class:" + cls.getQualifiedName(), "java");
-        }
-        
-        PsiFile file = CodeLocator.findFile(project, target);
-        if (file != null) {
-            String snippet = file.getText();
-            if (snippet.length() > 3000) snippet = snippet.substring(0, 3000) + "\n... (truncated)";
-            return buildAttachment(file.getName(), file.getVirtualFile().getPath(), snippet, file,
-                    "file:" + file.getVirtualFile().getPath(), guessLanguage(file));
-        }
-        return null;
-    }
-
-    private ContextAttachment buildAttachment(String label, String path, String content, PsiElement psi, 
-                                             String key, String lang) {
-        String md = "### " + path + "\n```" + lang + "\n" + content + "\n```";
-        return new ContextAttachment(UUID.randomUUID().toString(), label, md, psi, key);
-    }
-
-    private String guessLanguage(PsiFile file) {
-        if (file == null) return "text";
-        String name = file.getName().toLowerCase();
-        if (name.endsWith(".java")) return "java";
-        if (name.endsWith(".xml")) return "xml";
-        if (name.endsWith(".json")) return "json";
-        if (name.endsWith(".py")) return "python";
-        if (name.endsWith(".js")) return "javascript";
-        if (name.endsWith(".ts")) return "typescript";
-        if (name.endsWith(".html")) return "html";
-        if (name.endsWith(".css")) return "css";
-        if (name.endsWith(".sql")) return "sql";
-        return "text";
-    }
-
-    private static class ContextAttachment {
-        String id;
-        String label;
-        String markdown;
-        PsiElement psi;
-        String key;
-
-        public ContextAttachment(String id, String label, String markdown, PsiElement psi, String key) {
-            this.id = id;
-            this.label = label;
-            this.markdown = markdown;
-            this.psi = psi;
-            this.key = key;
-        }
+        ReadAction.nonBlocking(() -> contextResolver.resolveTarget(target))
+                .inSmartMode(project)
+                .expireWith(this)
+                .finishOnUiThread(ModalityState.defaultModalityState(), attachment -> {
+                    if (attachment == null) {
+                        Messages.showInfoMessage(project, "未找到目标类或文件: " + target, "PandaCoder AI");
+                        return;
+                    }
+                    addPinnedContext(attachment);
+                    if (target.equals(contextTargetField.getText().trim())) {
+                        contextTargetField.setText("");
+                    }
+                })
+                .submit(AppExecutorUtil.getAppExecutorService());
     }
 }
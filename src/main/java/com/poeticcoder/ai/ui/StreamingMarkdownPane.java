@@ -0,0 +1,147 @@
+package com.poeticcoder.ai.ui;
+
+import com.poeticcoder.ai.util.MarkdownUtil;
+
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.html.HTMLDocument;
+import java.io.IOException;
+
+/**
+ * 支持流式追加的 Markdown 显示面板
+ * 已完成的块（空行分隔、或已闭合的代码块）只渲染一次并插入文档，
+ * 每次刷新只重新解析末尾未完成的块；刷新频率限制在约 30 Hz，避免逐 token 重绘阻塞 EDT
+ */
+public class StreamingMarkdownPane extends JEditorPane {
+
+    private static final String TAIL_ID = "pc-tail";
+    private static final String EMPTY_TAIL = "<p></p>";
+    private static final int FRAME_INTERVAL_MS = 33;
+
+    private final StringBuilder text = new StringBuilder();
+    private final Timer frameTimer;
+    private Runnable onUpdate;
+
+    /** 已插入文档的文本长度（块边界） */
+    private int committed;
+    /** 下一次扫描的行首位置 */
+    private int scanPos;
+    /** 扫描到 scanPos 时是否处于代码块内 */
+    private boolean inFence;
+    private boolean dirty;
+
+    public StreamingMarkdownPane() {
+        setContentType("text/html");
+        setEditable(false);
+        putClientProperty(JEditorPane.HONOR_DISPLAY_PROPERTIES, Boolean.TRUE);
+        setOpaque(false);
+        setBorder(null);
+        frameTimer = new Timer(FRAME_INTERVAL_MS, e -> flush());
+        frameTimer.setRepeats(false);
+        resetDocument("");
+    }
+
+    /**
+     * 内容刷新后回调（例如让外层滚动到底部）
+     */
+    public void setOnUpdate(Runnable onUpdate) {
+        this.onUpdate = onUpdate;
+    }
+
+    /**
+     * 一次性设置完整内容
+     */
+    public void setMarkdown(String md) {
+        frameTimer.stop();
+        text.setLength(0);
+        text.append(md == null ? "" : md);
+        committed = text.length();
+        scanPos = text.length();
+        inFence = false;
+        dirty = false;
+        resetDocument(MarkdownUtil.renderFragment(text.toString()));
+    }
+
+    public String getMarkdown() {
+        return text.toString();
+    }
+
+    /**
+     * 追加一段流式内容，需在 EDT 调用；实际渲染合并到下一帧
+     */
+    public void append(String delta) {
+        if (delta == null || delta.isEmpty()) return;
+        text.append(delta);
+        dirty = true;
+        if (!frameTimer.isRunning()) {
+            frameTimer.start();
+        }
+    }
+
+    /**
+     * 流结束：立即渲染剩余内容
+     */
+    public void finish() {
+        frameTimer.stop();
+        if (dirty) flush();
+    }
+
+    private void flush() {
+        if (!dirty) return;
+        dirty = false;
+        int boundary = advanceBoundary();
+        HTMLDocument doc = (HTMLDocument) getDocument();
+        Element tail = doc.getElement(TAIL_ID);
+        try {
+            if (tail == null) throw new IllegalStateException("tail element missing");
+            if (boundary > committed) {
+                doc.insertBeforeStart(tail, MarkdownUtil.renderFragment(text.substring(committed, boundary)));
+                committed = boundary;
+            }
+            String tailHtml = MarkdownUtil.renderFragment(text.substring(committed));
+            doc.setInnerHTML(tail, tailHtml.isEmpty() ? EMPTY_TAIL : tailHtml);
+        } catch (BadLocationException | IOException | RuntimeException ex) {
+            // HTMLDocument 无法增量更新时退化为整体重建
+            committed = boundary;
+            resetDocument(MarkdownUtil.renderFragment(text.substring(0, boundary)),
+                    MarkdownUtil.renderFragment(text.substring(boundary)));
+        }
+        revalidate();
+        if (onUpdate != null) onUpdate.run();
+    }
+
+    /**
+     * 从上次位置继续扫描完整的行，返回最后一个稳定块边界
+     */
+    private int advanceBoundary() {
+        int boundary = committed;
+        int pos = scanPos;
+        int len = text.length();
+        while (pos < len) {
+            int nl = text.indexOf("\n", pos);
+            if (nl < 0) break; // 最后一行尚未结束
+            int s = pos;
+            while (s < nl && Character.isWhitespace(text.charAt(s))) s++;
+            boolean fenceLine = nl - s >= 3 && text.charAt(s) == '`' && text.charAt(s + 1) == '`' && text.charAt(s + 2) == '`';
+            pos = nl + 1;
+            if (fenceLine) {
+                inFence = !inFence;
+                if (!inFence) boundary = pos;
+            } else if (!inFence && s == nl) {
+                boundary = pos;
+            }
+        }
+        scanPos = pos;
+        return Math.max(boundary, committed);
+    }
+
+    private void resetDocument(String committedHtml) {
+        resetDocument(committedHtml, "");
+    }
+
+    private void resetDocument(String committedHtml, String tailHtml) {
+        setText(MarkdownUtil.wrapHtml(committedHtml + "<div id='" + TAIL_ID + "'>"
+                + (tailHtml.isEmpty() ? EMPTY_TAIL : tailHtml) + "</div>"));
+    }
+}
@@ -0,0 +1,247 @@
+package com.poeticcoder.ai.ui;
+
+import com.intellij.util.ui.JBUI;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 一个会话在界面上的消息列表
+ * 只保存每条消息的 Markdown 与按当前宽度测得（或估算）的行高，不持有任何组件。
+ * 行高存放在树状数组中，按纵坐标定位行、求行的偏移、修改行高都是 O(log n)
+ */
+final class TranscriptModel {
+
+    /**
+     * 界面侧的变更通知，由当前显示该会话的 {@link TranscriptView} 接收
+     */
+    interface Listener {
+        void structureChanged();
+
+        void contentReplaced(Item item);
+
+        void contentAppended(Item item, String delta);
+
+        void contentFinished(Item item);
+    }
+
+    /**
+     * 一条消息
+     */
+    static final class Item {
+        final String who;
+        private final StringBuilder text;
+        private int newlines;
+        private TranscriptModel model;
+        int index;
+        int height;
+        /** height 是按 model.width 实际测得的，否则为估算值 */
+        boolean measured;
+
+        private Item(TranscriptModel model, String who, String markdown) {
+            this.model = model;
+            this.who = who;
+            this.text = new StringBuilder(markdown == null ? "" : markdown);
+            this.newlines = countNewlines(this.text);
+        }
+
+        String getMarkdown() {
+            return text.toString();
+        }
+
+        /**
+         * 整体替换内容，需在 EDT 调用
+         */
+        void setMarkdown(String md) {
+            text.setLength(0);
+            text.append(md == null ? "" : md);
+            newlines = countNewlines(text);
+            if (model == null) return;
+            if (model.listener != null) model.listener.contentReplaced(this);
+            else model.reestimate(this);
+        }
+
+        /**
+         * 流式追加，需在 EDT 调用
+         */
+        void append(String delta) {
+            if (delta == null || delta.isEmpty()) return;
+            text.append(delta);
+            newlines += countNewlines(delta);
+            if (model == null) return;
+            if (model.listener != null) model.listener.contentAppended(this, delta);
+            else model.reestimate(this);
+        }
+
+        void finish() {
+            if (model != null && model.listener != null) model.listener.contentFinished(this);
+        }
+
+        /**
+         * 从所属列表中移除
+         */
+        void remove() {
+            if (model != null) model.remove(this);
+        }
+
+        boolean isRemoved() {
+            return model == null;
+        }
+
+        private static int countNewlines(CharSequence s) {
+            int n = 0;
+            for (int i = 0; i < s.length(); i++) {
+                if (s.charAt(i) == '\n') n++;
+            }
+            return n;
+        }
+    }
+
+    private final List<Item> items = new ArrayList<>();
+    /** 树状数组（下标从 1 开始），保存各行高度 */
+    private int[] tree = new int[16];
+    private int width;
+    private Listener listener;
+    /** 切换走时的滚动位置，-1 表示停在底部 */
+    int savedScrollY = -1;
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    int size() {
+        return items.size();
+    }
+
+    Item get(int index) {
+        return items.get(index);
+    }
+
+    Item add(String who, String markdown) {
+        Item item = new Item(this, who, markdown);
+        item.index = items.size();
+        item.height = estimate(item);
+        items.add(item);
+        if (tree.length <= items.size()) tree = Arrays.copyOf(tree, tree.length * 2);
+        int i = items.size();
+        tree[i] = item.height;
+        for (int step = 1; step < (i & -i); step <<= 1) {
+            tree[i] += tree[i - step];
+        }
+        if (listener != null) listener.structureChanged();
+        return item;
+    }
+
+    void remove(Item item) {
+        if (item == null || item.model != this) return;
+        items.remove(item.index);
+        item.model = null;
+        for (int i = item.index; i < items.size(); i++) {
+            items.get(i).index = i;
+        }
+        rebuild();
+        if (listener != null) listener.structureChanged();
+    }
+
+    void clear() {
+        for (Item item : items) item.model = null;
+        items.clear();
+        Arrays.fill(tree, 0);
+        savedScrollY = -1;
+        if (listener != null) listener.structureChanged();
+    }
+
+    int totalHeight() {
+        return prefix(items.size());
+    }
+
+    /**
+     * 第 index 行的纵坐标
+     */
+    int offsetOf(int index) {
+        return prefix(Math.min(index, items.size()));
+    }
+
+    /**
+     * 包含纵坐标 y 的行；超出范围时返回最近的行，列表为空时返回 -1
+     */
+    int indexAt(int y) {
+        int n = items.size();
+        if (n == 0) return -1;
+        int pos = 0;
+        int rest = y;
+        for (int step = Integer.highestOneBit(n); step > 0; step >>= 1) {
+            int next = pos + step;
+            if (next <= n && tree[next] <= rest) {
+                pos = next;
+                rest -= tree[next];
+            }
+        }
+        return Math.min(pos, n - 1);
+    }
+
+    /**
+     * 宽度变化后已测量的行高全部作废，改用估算值，行进入可见区域时再重新测量
+     */
+    void setWidth(int width) {
+        if (width == this.width) return;
+        this.width = width;
+        for (Item item : items) {
+            item.measured = false;
+            item.height = estimate(item);
+        }
+        rebuild();
+    }
+
+    void setMeasuredHeight(Item item, int height) {
+        item.measured = true;
+        setHeight(item, height);
+    }
+
+    /**
+     * 内容变化但未显示时按估算值更新行高，返回高度是否变化
+     */
+    boolean reestimate(Item item) {
+        item.measured = false;
+        return setHeight(item, estimate(item));
+    }
+
+    private boolean setHeight(Item item, int height) {
+        int delta = height - item.height;
+        if (delta == 0) return false;
+        item.height = height;
+        for (int i = item.index + 1; i <= items.size(); i += i & -i) {
+            tree[i] += delta;
+        }
+        return true;
+    }
+
+    private int prefix(int count) {
+        int sum = 0;
+        for (int i = count; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    private void rebuild() {
+        int n = items.size();
+        Arrays.fill(tree, 0);
+        for (int i = 1; i <= n; i++) {
+            tree[i] += items.get(i - 1).height;
+            int parent = i + (i & -i);
+            if (parent <= n) tree[parent] += tree[i];
+        }
+    }
+
+    /**
+     * 按字符数与换行数粗略估算行高，只用于尚未显示过的行
+     */
+    private int estimate(Item item) {
+        int charWidth = JBUI.scale(7);
+        int charsPerLine = Math.max(20, (width - JBUI.scale(60)) / charWidth);
+        int lines = item.newlines + 1 + item.text.length() / charsPerLine;
+        return JBUI.scale(56) + lines * JBUI.scale(18);
+    }
+}
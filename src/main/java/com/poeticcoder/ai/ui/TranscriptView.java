@@ -0,0 +1,368 @@
+package com.poeticcoder.ai.ui;
+
+import com.intellij.util.ui.JBUI;
+import com.intellij.util.ui.UIUtil;
+import com.poeticcoder.ai.util.UIConstants;
+
+import javax.swing.*;
+import javax.swing.border.Border;
+import javax.swing.event.ChangeListener;
+import java.awt.*;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * 虚拟化的对话记录视图
+ * 只为可见区域及其上下少量余量内的消息创建气泡，离开该区域的气泡回收后绑定到其他消息；
+ * HTML 在气泡绑定到消息时才渲染。行高按宽度缓存在 {@link TranscriptModel} 中，未显示过的行使用估算值，
+ * 滚动与切换会话只处理可见的几行，与消息总数无关
+ */
+final class TranscriptView extends JPanel implements Scrollable, TranscriptModel.Listener {
+
+    /** 可见区域上下额外绑定的像素范围 */
+    private static final int OVERSCAN = 400;
+    /** 回收池上限 */
+    private static final int MAX_POOL = 12;
+    private static final int NO_SCROLL = Integer.MIN_VALUE;
+    private static final int SCROLL_BOTTOM = -1;
+
+    private final Consumer<String> onOpenContext;
+    private final Map<TranscriptModel.Item, MessageRow> live = new IdentityHashMap<>();
+    private final ArrayDeque<MessageRow> pool = new ArrayDeque<>();
+    private final ChangeListener viewportListener = e -> layoutRows();
+    /** 已注册监听的视口；重新挂载到其他父组件时先从旧视口移除 */
+    private JViewport listenedViewport;
+    private TranscriptModel model;
+    private int pendingScroll = NO_SCROLL;
+    private boolean layingOut;
+
+    /**
+     * @param onOpenContext “打开上下文”按钮的回调，参数为该上下文消息的 Markdown
+     */
+    TranscriptView(Consumer<String> onOpenContext) {
+        super(null);
+        this.onOpenContext = onOpenContext;
+        setBackground(UIUtil.getPanelBackground());
+    }
+
+    /**
+     * 显示另一个会话：保存当前会话的滚动位置，释放全部气泡，只为新会话的可见行重新绑定
+     */
+    void setModel(TranscriptModel next) {
+        if (model == next) return;
+        if (model != null) {
+            model.savedScrollY = isAtBottom(getVisibleRect()) ? SCROLL_BOTTOM : getVisibleRect().y;
+            model.setListener(null);
+        }
+        for (MessageRow row : live.values()) release(row);
+        live.clear();
+        model = next;
+        if (model != null) {
+            model.setListener(this);
+            pendingScroll = model.savedScrollY;
+        }
+        revalidate();
+        repaint();
+    }
+
+    void scrollToBottom() {
+        pendingScroll = SCROLL_BOTTOM;
+        layoutRows();
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        JViewport parent = getParent() instanceof JViewport ? (JViewport) getParent() : null;
+        if (parent == listenedViewport) return;
+        if (listenedViewport != null) listenedViewport.removeChangeListener(viewportListener);
+        listenedViewport = parent;
+        if (listenedViewport != null) listenedViewport.addChangeListener(viewportListener);
+    }
+
+    @Override
+    public void removeNotify() {
+        if (listenedViewport != null) {
+            listenedViewport.removeChangeListener(viewportListener);
+            listenedViewport = null;
+        }
+        super.removeNotify();
+    }
+
+    @Override
+    public void doLayout() {
+        layoutRows();
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        return new Dimension(JBUI.scale(100), model == null ? 0 : model.totalHeight());
+    }
+
+    // ---------------------------------------------------------------- 布局
+
+    /**
+     * 绑定并定位可见行；滚动位置因行高修正而改变时再处理一轮
+     */
+    private void layoutRows() {
+        if (layingOut || model == null || !(getParent() instanceof JViewport)) return;
+        layingOut = true;
+        try {
+            for (int pass = 0; pass < 3; pass++) {
+                if (!layoutPass()) break;
+            }
+        } finally {
+            layingOut = false;
+        }
+    }
+
+    private boolean layoutPass() {
+        JViewport viewport = (JViewport) getParent();
+        int width = viewport.getExtentSize().width;
+        if (width <= 0) return false;
+        model.setWidth(width);
+        Rectangle vis = viewport.getViewRect();
+        boolean stick = pendingScroll == SCROLL_BOTTOM || (pendingScroll == NO_SCROLL && isAtBottom(vis));
+        // 锚点：可见区域的第一行及其相对偏移，上方行高修正后保持它在屏幕上的位置
+        int anchor = model.indexAt(vis.y);
+        int anchorDelta = anchor < 0 ? 0 : vis.y - model.offsetOf(anchor);
+
+        int top = Math.max(0, vis.y - OVERSCAN);
+        int bottom = vis.y + vis.height + OVERSCAN;
+        int first = Math.max(0, model.indexAt(top));
+        Iterator<Map.Entry<TranscriptModel.Item, MessageRow>> it = live.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<TranscriptModel.Item, MessageRow> e = it.next();
+            TranscriptModel.Item item = e.getKey();
+            if (item.isRemoved() || item.index < first || model.offsetOf(item.index) >= bottom) {
+                release(e.getValue());
+                it.remove();
+            }
+        }
+        // 测量后行高可能变化，按新高度继续向下直到填满可见区域
+        for (int i = first; i < model.size() && model.offsetOf(i) < bottom; i++) {
+            TranscriptModel.Item item = model.get(i);
+            MessageRow row = live.get(item);
+            if (row == null) {
+                row = acquire();
+                row.bind(item);
+                live.put(item, row);
+            }
+            if (!item.measured) {
+                model.setMeasuredHeight(item, row.heightFor(width));
+            }
+        }
+        for (Map.Entry<TranscriptModel.Item, MessageRow> e : live.entrySet()) {
+            TranscriptModel.Item item = e.getKey();
+            e.getValue().setBounds(0, model.offsetOf(item.index), width, item.height);
+        }
+
+        int total = model.totalHeight();
+        int height = Math.max(total, vis.height);
+        if (getWidth() != width || getHeight() != height) {
+            setSize(width, height);
+            revalidate();
+        }
+        int target;
+        if (stick) {
+            target = total - vis.height;
+        } else if (pendingScroll != NO_SCROLL) {
+            target = pendingScroll;
+        } else {
+            target = anchor < 0 ? 0 : model.offsetOf(anchor) + anchorDelta;
+        }
+        pendingScroll = NO_SCROLL;
+        target = Math.max(0, Math.min(target, total - vis.height));
+        repaint();
+        if (target != vis.y) {
+            viewport.setViewPosition(new Point(0, target));
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isAtBottom(Rectangle vis, int height) {
+        return vis.y + vis.height >= height - JBUI.scale(8);
+    }
+
+    private boolean isAtBottom(Rectangle vis) {
+        return model == null || isAtBottom(vis, Math.max(model.totalHeight(), vis.height));
+    }
+
+    private MessageRow acquire() {
+        MessageRow row = pool.poll();
+        if (row == null) {
+            row = new MessageRow();
+            add(row);
+        }
+        row.setVisible(true);
+        return row;
+    }
+
+    private void release(MessageRow row) {
+        row.item = null;
+        if (pool.size() < MAX_POOL) {
+            row.setVisible(false);
+            pool.push(row);
+        } else {
+            remove(row);
+        }
+    }
+
+    // ---------------------------------------------------------------- 模型通知
+
+    @Override
+    public void structureChanged() {
+        revalidate();
+        layoutRows();
+    }
+
+    @Override
+    public void contentReplaced(TranscriptModel.Item item) {
+        MessageRow row = live.get(item);
+        if (row != null) {
+            row.pane.setMarkdown(item.getMarkdown());
+            item.measured = false;
+            layoutRows();
+        } else if (model.reestimate(item)) {
+            layoutRows();
+        }
+    }
+
+    @Override
+    public void contentAppended(TranscriptModel.Item item, String delta) {
+        MessageRow row = live.get(item);
+        if (row != null) {
+            // 气泡自行合并刷新，渲染后通过 onUpdate 重新测量
+            row.pane.append(delta);
+        } else if (model.reestimate(item)) {
+            layoutRows();
+        }
+    }
+
+    @Override
+    public void contentFinished(TranscriptModel.Item item) {
+        MessageRow row = live.get(item);
+        if (row != null) row.pane.finish();
+    }
+
+    private void rowUpdated(MessageRow row) {
+        if (row.item == null || row.item.isRemoved()) return;
+        row.item.measured = false;
+        layoutRows();
+    }
+
+    // ---------------------------------------------------------------- Scrollable
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return JBUI.scale(24);
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return Math.max(visibleRect.height - JBUI.scale(24), JBUI.scale(24));
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return true;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return getParent() instanceof JViewport && getParent().getHeight() > getPreferredSize().height;
+    }
+
+    // ---------------------------------------------------------------- 气泡
+
+    /**
+     * 一个可复用的消息气泡
+     */
+    private final class MessageRow extends JPanel {
+        final JPanel bubble = new JPanel(new BorderLayout(0, UIConstants.PADDING_SMALL));
+        final JLabel header = new JLabel();
+        final StreamingMarkdownPane pane = new StreamingMarkdownPane();
+        final JButton openButton = new JButton("打开上下文");
+        TranscriptModel.Item item;
+
+        MessageRow() {
+            super(new BorderLayout());
+            setOpaque(false);
+            setBorder(JBUI.Borders.empty(UIConstants.PADDING_SMALL, UIConstants.PADDING_SMALL,
+                    UIConstants.PADDING_SMALL * 2, UIConstants.PADDING_SMALL));
+            bubble.setOpaque(true);
+            bubble.setBorder(JBUI.Borders.compound(
+                    new RoundedBorder(UIConstants.ARC_RADIUS),
+                    JBUI.Borders.empty(UIConstants.PADDING_MEDIUM)));
+            header.setFont(header.getFont().deriveFont(Font.BOLD));
+            pane.setOnUpdate(() -> rowUpdated(this));
+            openButton.setFocusPainted(false);
+            openButton.setBorder(JBUI.Borders.empty(4, 12));
+            openButton.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+            openButton.addActionListener(e -> {
+                if (item != null) onOpenContext.accept(item.getMarkdown());
+            });
+            bubble.add(header, BorderLayout.NORTH);
+            bubble.add(pane, BorderLayout.CENTER);
+            add(bubble, BorderLayout.CENTER);
+        }
+
+        void bind(TranscriptModel.Item item) {
+            this.item = item;
+            header.setText(item.who);
+            if ("用户".equals(item.who)) {
+                bubble.setBackground(UIConstants.USER_BUBBLE_BACKGROUND);
+            } else if ("助手".equals(item.who)) {
+                bubble.setBackground(UIConstants.ASSISTANT_BUBBLE_BACKGROUND);
+            } else {
+                bubble.setBackground(UIConstants.CONTEXT_BUBBLE_BACKGROUND);
+            }
+            if ("上下文".equals(item.who)) {
+                bubble.add(openButton, BorderLayout.SOUTH);
+            } else {
+                bubble.remove(openButton);
+            }
+            pane.setMarkdown(item.getMarkdown());
+        }
+
+        /**
+         * 给定宽度下的高度：先按可用宽度设置 HTML 面板，再取整体的首选高度
+         */
+        int heightFor(int width) {
+            Insets outer = getInsets();
+            Insets inner = bubble.getInsets();
+            int paneWidth = Math.max(1, width - outer.left - outer.right - inner.left - inner.right);
+            pane.setSize(paneWidth, Short.MAX_VALUE);
+            return getPreferredSize().height;
+        }
+    }
+
+    private static class RoundedBorder implements Border {
+        private final int radius;
+
+        RoundedBorder(int radius) {
+            this.radius = radius;
+        }
+
+        public Insets getBorderInsets(Component c) {
+            return new Insets(this.radius + 1, this.radius + 1, this.radius + 2, this.radius);
+        }
+
+        public boolean isBorderOpaque() {
+            return true;
+        }
+
+        public void paintBorder(Component c, Graphics g, int x, int y, int width, int height) {
+            g.drawRoundRect(x, y, width - 1, height - 1, radius, radius);
+        }
+    }
+}
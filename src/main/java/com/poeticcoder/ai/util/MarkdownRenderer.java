@@ -0,0 +1,422 @@
+package com.poeticcoder.ai.util;
+
+/**
+ * 单遍 Markdown 渲染器
+ * 逐行扫描一次输入并直接写入输出缓冲区，不使用正则、不拆分中间字符串，渲染耗时与输入长度成线性关系。
+ * 支持：标题、无序/有序列表、围栏代码块、表格、行内代码、粗体、斜体、链接
+ */
+final class MarkdownRenderer {
+
+    private static final int NONE = 0;
+    private static final int UL = 1;
+    private static final int OL = 2;
+    private static final int TABLE = 3;
+
+    private final String src;
+    /** 去掉末尾换行后的有效长度（与按行拆分时丢弃末尾空行的行为一致） */
+    private final int end;
+    private final StringBuilder out;
+
+    /** 当前行的 [lineStart, lineEnd) 与去除首尾空白后的 [ts, te) */
+    private int lineStart;
+    private int lineEnd;
+    private int next;
+    private int ts;
+    private int te;
+
+    /** 当前打开的容器块 */
+    private int open = NONE;
+
+    /**
+     * 行内标记的“向后查找失败”记录：在区间 [from, to) 内某个起点之后找不到闭合标记，
+     * 则同一区间内更靠后的起点也不可能找到，据此避免对未闭合标记重复扫描
+     */
+    private int boldMissFrom = -1, boldMissTo = -1;
+    private int italicMissFrom = -1, italicMissTo = -1;
+    private int codeMissFrom = -1, codeMissTo = -1;
+    /** 链接：在以 linkMissTo 结尾的范围内，起点位于 [linkMissFrom, linkMissUntil) 的 [ 都不能构成链接 */
+    private int linkMissFrom = -1, linkMissUntil = -1, linkMissTo = -1;
+
+    private MarkdownRenderer(String src) {
+        this.src = src;
+        int e = src.length();
+        while (e > 0 && (src.charAt(e - 1) == '\n' || src.charAt(e - 1) == '\r')) e--;
+        this.end = e;
+        this.out = new StringBuilder(e + (e >> 2) + 16);
+        // 只包含换行的输入不产生任何行；空输入产生一个空行
+        this.next = e == 0 && !src.isEmpty() ? 1 : 0;
+    }
+
+    static String render(String md) {
+        MarkdownRenderer r = new MarkdownRenderer(md == null ? "" : md);
+        r.renderBlocks();
+        return r.out.toString();
+    }
+
+    // ---------------------------------------------------------------- 块级
+
+    private void renderBlocks() {
+        while (nextLine()) {
+            if (isFence()) {
+                closeContainer();
+                renderFence();
+            } else if (ts == te) {
+                closeContainer();
+                out.append("<p></p>");
+            } else if (src.charAt(ts) == '#' && headingLevel() > 0) {
+                closeContainer();
+                int level = headingLevel();
+                out.append("<h").append(level).append('>');
+                inline(skipSpaces(ts + level), te);
+                out.append("</h").append(level).append('>');
+            } else if (isBulletItem()) {
+                openContainer(UL, 1);
+                out.append("<li>");
+                inline(skipSpaces(ts + 2), te);
+                out.append("</li>");
+            } else if (orderedMarkerEnd() > 0) {
+                int markerEnd = orderedMarkerEnd();
+                openContainer(OL, parseNumber(ts, markerEnd - 1));
+                out.append("<li>");
+                inline(skipSpaces(markerEnd), te);
+                out.append("</li>");
+            } else if (src.charAt(ts) == '|' && (open == TABLE || startsTable())) {
+                renderTableRow();
+            } else {
+                closeContainer();
+                out.append("<p>");
+                inline(ts, te);
+                out.append("</p>");
+            }
+        }
+        closeContainer();
+    }
+
+    /**
+     * 读取下一行，兼容 \n、\r\n 与 \r 换行
+     */
+    private boolean nextLine() {
+        if (next > end) return false;
+        lineStart = next;
+        int i = next;
+        while (i < end && src.charAt(i) != '\n' && src.charAt(i) != '\r') i++;
+        lineEnd = i;
+        if (i < end && src.charAt(i) == '\r' && i + 1 < end && src.charAt(i + 1) == '\n') i++;
+        next = i + 1;
+        ts = lineStart;
+        te = lineEnd;
+        while (ts < te && src.charAt(ts) <= ' ') ts++;
+        while (te > ts && src.charAt(te - 1) <= ' ') te--;
+        return true;
+    }
+
+    private void openContainer(int type, int start) {
+        if (open == type) return;
+        closeContainer();
+        if (type == UL) {
+            out.append("<ul>");
+        } else if (type == OL) {
+            out.append(start == 1 ? "<ol>" : "<ol start='" + start + "'>");
+        } else if (type == TABLE) {
+            out.append("<table>");
+        }
+        open = type;
+    }
+
+    private void closeContainer() {
+        if (open == UL) out.append("</ul>");
+        else if (open == OL) out.append("</ol>");
+        else if (open == TABLE) out.append("</table>");
+        open = NONE;
+    }
+
+    private int headingLevel() {
+        int i = ts;
+        while (i < te && src.charAt(i) == '#' && i - ts < 7) i++;
+        int level = i - ts;
+        if (level > 6 || i >= te || src.charAt(i) != ' ') return 0;
+        return level;
+    }
+
+    private boolean isBulletItem() {
+        char c = src.charAt(ts);
+        return (c == '-' || c == '*' || c == '+') && ts + 1 < te && src.charAt(ts + 1) == ' ';
+    }
+
+    /**
+     * 有序列表标记 "12. " / "12) "，返回标记后的位置；不是有序列表项时返回 0
+     */
+    private int orderedMarkerEnd() {
+        int i = ts;
+        while (i < te && i - ts < 9 && Character.isDigit(src.charAt(i))) i++;
+        if (i == ts || i + 1 >= te) return 0;
+        char c = src.charAt(i);
+        if ((c == '.' || c == ')') && src.charAt(i + 1) == ' ') return i + 1;
+        return 0;
+    }
+
+    private int parseNumber(int from, int to) {
+        int n = 0;
+        for (int i = from; i < to; i++) n = n * 10 + (src.charAt(i) - '0');
+        return n;
+    }
+
+    private int skipSpaces(int i) {
+        while (i < te && src.charAt(i) == ' ') i++;
+        return i;
+    }
+
+    // ---------------------------------------------------------------- 代码块
+
+    private boolean isFence() {
+        return te - ts >= 3 && src.charAt(ts) == '`' && src.charAt(ts + 1) == '`' && src.charAt(ts + 2) == '`';
+    }
+
+    /**
+     * 围栏代码块：内容原样转义输出；未闭合时（例如流式输出中途）一直延续到文本末尾
+     */
+    private void renderFence() {
+        int langStart = ts + 3;
+        int langEnd = langStart;
+        while (langEnd < te && isLangChar(src.charAt(langEnd))) langEnd++;
+        out.append("<pre><code class='language-").append(src, langStart, langEnd).append("'>");
+        while (nextLine()) {
+            if (isFence()) {
+                out.append("</code></pre>");
+                return;
+            }
+            escape(lineStart, lineEnd);
+            out.append('\n');
+        }
+        out.append("</code></pre>");
+    }
+
+    private static boolean isLangChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-'
+                || c == '+' || c == '#';
+    }
+
+    // ---------------------------------------------------------------- 表格
+
+    /**
+     * 当前行以 | 开头且下一行是分隔行（如 |---|:---:|）时开始一个表格
+     */
+    private boolean startsTable() {
+        int i = next;
+        if (i >= end) return false;
+        int e = i;
+        while (e < end && src.charAt(e) != '\n' && src.charAt(e) != '\r') e++;
+        boolean dash = false;
+        boolean pipe = false;
+        for (int k = i; k < e; k++) {
+            char c = src.charAt(k);
+            if (c == '-') dash = true;
+            else if (c == '|') pipe = true;
+            else if (c != ':' && c != ' ' && c != '\t') return false;
+        }
+        return dash && pipe;
+    }
+
+    private void renderTableRow() {
+        boolean header = open != TABLE;
+        openContainer(TABLE, 1);
+        String cell = header ? "th" : "td";
+        out.append("<tr>");
+        int i = ts + 1;
+        int rowEnd = te;
+        if (rowEnd > i && src.charAt(rowEnd - 1) == '|') rowEnd--;
+        while (i <= rowEnd) {
+            int j = i;
+            while (j < rowEnd && src.charAt(j) != '|') {
+                if (src.charAt(j) == '`') {
+                    // 行内代码中的 | 不作为单元格分隔
+                    int close = indexOf('`', j + 1, rowEnd);
+                    if (close > 0) j = close;
+                }
+                j++;
+            }
+            int cs = i;
+            int ce = j;
+            while (cs < ce && src.charAt(cs) <= ' ') cs++;
+            while (ce > cs && src.charAt(ce - 1) <= ' ') ce--;
+            out.append('<').append(cell).append('>');
+            inline(cs, ce);
+            out.append("</").append(cell).append('>');
+            i = j + 1;
+        }
+        out.append("</tr>");
+        if (header) {
+            // 跳过分隔行
+            nextLine();
+        }
+    }
+
+    // ---------------------------------------------------------------- 行内
+
+    private void inline(int from, int to) {
+        int i = from;
+        while (i < to) {
+            char c = src.charAt(i);
+            if (c == '`') {
+                int close = codeMissTo == to && i >= codeMissFrom ? -1 : indexOf('`', i + 1, to);
+                if (close > i + 1) {
+                    out.append("<code>");
+                    escape(i + 1, close);
+                    out.append("</code>");
+                    i = close + 1;
+                    continue;
+                }
+                if (close < 0) {
+                    codeMissFrom = i;
+                    codeMissTo = to;
+                }
+            } else if (c == '*' && i + 1 < to && src.charAt(i + 1) == '*') {
+                int close = boldMissTo == to && i >= boldMissFrom ? -1 : indexOfPair('*', i + 2, to);
+                if (close > i + 2) {
+                    out.append("<b>");
+                    nested(i + 2, close);
+                    out.append("</b>");
+                    i = close + 2;
+                    continue;
+                }
+                if (close < 0) {
+                    boldMissFrom = i;
+                    boldMissTo = to;
+                }
+                out.append("**");
+                i += 2;
+                continue;
+            } else if (c == '*' && i + 1 < to && src.charAt(i + 1) != ' ') {
+                int close = italicMissTo == to && i >= italicMissFrom ? -1 : indexOfSingleStar(i + 1, to);
+                if (close > i + 1) {
+                    out.append("<i>");
+                    nested(i + 1, close);
+                    out.append("</i>");
+                    i = close + 1;
+                    continue;
+                }
+                if (close < 0) {
+                    italicMissFrom = i;
+                    italicMissTo = to;
+                }
+            } else if (c == '[') {
+                int next = link(i, to);
+                if (next > 0) {
+                    i = next;
+                    continue;
+                }
+            }
+            escapeChar(c);
+            i++;
+        }
+    }
+
+    /**
+     * 渲染嵌套的行内范围；查找失败的记录只对记录它的范围有效，返回后恢复外层的记录，
+     * 否则外层每遇到一个未闭合标记都要重新扫描到行尾
+     */
+    private void nested(int from, int to) {
+        int bf = boldMissFrom, bt = boldMissTo;
+        int itf = italicMissFrom, itt = italicMissTo;
+        int cf = codeMissFrom, ct = codeMissTo;
+        int lf = linkMissFrom, lu = linkMissUntil, lt = linkMissTo;
+        inline(from, to);
+        boldMissFrom = bf;
+        boldMissTo = bt;
+        italicMissFrom = itf;
+        italicMissTo = itt;
+        codeMissFrom = cf;
+        codeMissTo = ct;
+        linkMissFrom = lf;
+        linkMissUntil = lu;
+        linkMissTo = lt;
+    }
+
+    /**
+     * [text](url) 链接；成功时返回链接之后的位置，否则返回 -1
+     */
+    private int link(int i, int to) {
+        if (linkMissTo == to && i >= linkMissFrom && i < linkMissUntil) return -1;
+        int closeText = indexOf(']', i + 1, to);
+        if (closeText < 0) {
+            // 之后没有 ]，更靠后的 [ 也不可能闭合
+            return linkMiss(i, to, to);
+        }
+        if (closeText + 1 >= to || src.charAt(closeText + 1) != '(') {
+            // 在此 ] 之前开始的 [ 都会找到同一个 ]
+            return linkMiss(i, closeText, to);
+        }
+        int closeUrl = indexOf(')', closeText + 2, to);
+        if (closeUrl < 0) {
+            // 更靠后的链接文本只会在更靠后的位置查找 )
+            return linkMiss(i, to, to);
+        }
+        int us = closeText + 2;
+        int ue = closeUrl;
+        while (us < ue && src.charAt(us) == ' ') us++;
+        while (ue > us && src.charAt(ue - 1) == ' ') ue--;
+        if (us == ue) return linkMiss(i, closeText, to);
+        out.append("<a href='");
+        for (int k = us; k < ue; k++) {
+            char c = src.charAt(k);
+            if (c == '\'') out.append("&#39;");
+            else escapeChar(c);
+        }
+        out.append("'>");
+        nested(i + 1, closeText);
+        out.append("</a>");
+        return closeUrl + 1;
+    }
+
+    private int linkMiss(int from, int until, int to) {
+        linkMissFrom = from;
+        linkMissUntil = until;
+        linkMissTo = to;
+        return -1;
+    }
+
+    private int indexOf(char c, int from, int to) {
+        for (int k = from; k < to; k++) {
+            if (src.charAt(k) == c) return k;
+        }
+        return -1;
+    }
+
+    private int indexOfPair(char c, int from, int to) {
+        for (int k = from; k + 1 < to; k++) {
+            if (src.charAt(k) == c && src.charAt(k + 1) == c) return k;
+        }
+        return -1;
+    }
+
+    /**
+     * 查找单个 *（不属于 **）的闭合位置
+     */
+    private int indexOfSingleStar(int from, int to) {
+        for (int k = from; k < to; k++) {
+            if (src.charAt(k) != '*') continue;
+            if (k + 1 < to && src.charAt(k + 1) == '*') {
+                k++;
+                continue;
+            }
+            return k;
+        }
+        return -1;
+    }
+
+    private void escape(int from, int to) {
+        for (int k = from; k < to; k++) {
+            escapeChar(src.charAt(k));
+        }
+    }
+
+    private void escapeChar(char c) {
+        switch (c) {
+            case '&': out.append("&amp;"); break;
+            case '<': out.append("&lt;"); break;
+            case '>': out.append("&gt;"); break;
+            case '\r': break;
+            default: out.append(c);
+        }
+    }
+}